@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.json.KinesisMessageModel;
+import samples.json.SerializedBatchWriter;
+
+import com.amazonaws.services.kinesis.connectors.impl.JsonToByteArrayTransformer;
+import com.amazonaws.services.kinesis.connectors.impl.LengthPrefixedBatchWriter;
+import com.amazonaws.services.kinesis.connectors.impl.LengthPrefixedCollectionTransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ICollectionTransformer;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Benchmarks framing records into batches of at most batchRecordsMaxBytes bytes, as done by the BatchedStreamSource,
+ * and reading the records back from a batch of NUM_RECORDS records. One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(BatchFramingBenchmarks.NUM_RECORDS)
+public class BatchFramingBenchmarks {
+
+    static final int NUM_RECORDS = 1000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ICollectionTransformer<KinesisMessageModel, byte[]> transformer =
+            new LengthPrefixedCollectionTransformer<KinesisMessageModel, byte[]>(
+                    new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class));
+    private int maxBatchBytes;
+    private List<KinesisMessageModel> models;
+    private List<KinesisMessageModel> reserializedList;
+    private SerializedBatchWriter serializedWriter;
+    private LengthPrefixedBatchWriter lengthPrefixedWriter;
+    private Record serializedBatch;
+    private Record lengthPrefixedBatch;
+
+    @Setup
+    public void setup() throws IOException {
+        maxBatchBytes = BenchmarkData.configuration().BATCH_RECORDS_MAX_BYTES;
+        models = new ArrayList<KinesisMessageModel>(NUM_RECORDS);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            models.add(BenchmarkData.createModel(i));
+        }
+        reserializedList = new ArrayList<KinesisMessageModel>();
+        serializedWriter = new SerializedBatchWriter(maxBatchBytes);
+        lengthPrefixedWriter = new LengthPrefixedBatchWriter(maxBatchBytes);
+
+        SerializedBatchWriter serializedBatchWriter = new SerializedBatchWriter(Integer.MAX_VALUE);
+        LengthPrefixedBatchWriter lengthPrefixedBatchWriter = new LengthPrefixedBatchWriter(Integer.MAX_VALUE);
+        for (KinesisMessageModel model : models) {
+            serializedBatchWriter.add(model);
+            lengthPrefixedBatchWriter.add(mapper.writeValueAsBytes(model));
+        }
+        serializedBatch = batchRecord(serializedBatchWriter.seal());
+        lengthPrefixedBatch = batchRecord(lengthPrefixedBatchWriter.seal());
+    }
+
+    /**
+     * The framing BatchedStreamSource used before SerializedBatchWriter, kept as a baseline.
+     */
+    @Benchmark
+    public long reserializeList() throws IOException {
+        long bytes = 0;
+        for (KinesisMessageModel model : models) {
+            reserializedList.add(model);
+            if (serialize(reserializedList).length > maxBatchBytes) {
+                KinesisMessageModel last = reserializedList.remove(reserializedList.size() - 1);
+                bytes += serialize(reserializedList).length;
+                reserializedList.clear();
+                reserializedList.add(last);
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long serializedBatchWriter() throws IOException {
+        long bytes = 0;
+        for (KinesisMessageModel model : models) {
+            ByteBuffer batch = serializedWriter.add(model);
+            if (batch != null) {
+                bytes += batch.remaining();
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long lengthPrefixedBatchWriter() throws IOException {
+        long bytes = 0;
+        for (KinesisMessageModel model : models) {
+            ByteBuffer batch = lengthPrefixedWriter.add(mapper.writeValueAsBytes(model));
+            if (batch != null) {
+                bytes += batch.remaining();
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long readObject() throws IOException, ClassNotFoundException {
+        ByteBuffer data = serializedBatch.getData();
+        ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(),
+                        data.remaining()));
+        long result = 0;
+        for (Object model : (List<?>) in.readObject()) {
+            result += model.hashCode();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public long lengthPrefixedToClass() throws IOException {
+        long result = 0;
+        for (KinesisMessageModel model : transformer.toClass(lengthPrefixedBatch)) {
+            result += model.hashCode();
+        }
+        return result;
+    }
+
+    private static byte[] serialize(List<KinesisMessageModel> list) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(list);
+        return bos.toByteArray();
+    }
+
+    private static Record batchRecord(ByteBuffer batch) {
+        return new Record().withData(batch).withSequenceNumber(BenchmarkData.sequenceNumber(0));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import samples.json.KinesisMessageModel;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Synthetic KinesisMessageModel payloads and Amazon Kinesis Records used by the benchmarks.
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates Records containing the JSON representation of distinct KinesisMessageModels, with increasing
+     * sequence numbers.
+     */
+    public static List<Record> createJsonRecords(int numRecords) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Record> records = new ArrayList<Record>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            KinesisMessageModel model = createModel(i);
+            Record record = new Record();
+            record.setData(ByteBuffer.wrap(mapper.writeValueAsBytes(model)));
+            record.setSequenceNumber(sequenceNumber(i));
+            record.setPartitionKey(String.valueOf(model.userid));
+            records.add(record);
+        }
+        return records;
+    }
+
+    public static KinesisMessageModel createModel(int i) {
+        return new KinesisMessageModel("",
+                i,
+                "USER" + i,
+                "Firstname" + i,
+                "Lastname" + i,
+                "Seattle",
+                "WA",
+                "user" + i + "@example.com",
+                "(206) 555-" + (1000 + i % 9000),
+                i % 2 == 0,
+                i % 3 == 0,
+                i % 5 == 0,
+                i % 7 == 0,
+                false,
+                true,
+                i % 2 == 1,
+                false,
+                true,
+                i % 11 == 0);
+    }
+
+    /**
+     * @return a sequence number of the same shape as those assigned by Amazon Kinesis
+     */
+    public static String sequenceNumber(long i) {
+        return String.format("49540000000000000000000000000000000000000000%012d", i);
+    }
+
+    /**
+     * @return a configuration with default values, overridden by the given key/value pairs
+     */
+    public static KinesisConnectorConfiguration configuration(String... keyValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return new KinesisConnectorConfiguration(properties, null);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.json.KinesisMessageModel;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.impl.ArrayMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.BasicMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+
+/**
+ * Benchmarks the IBuffer fill and flush cycle: each record is passed to consumeRecord() followed by shouldFlush(),
+ * and the buffer is cleared whenever shouldFlush() returns true. One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(BufferBenchmarks.NUM_RECORDS)
+public class BufferBenchmarks {
+
+    static final int NUM_RECORDS = 1000;
+    private static final int RECORD_SIZE = 400;
+
+    @Param({ "basicMemory", "arrayMemory" })
+    public String buffer;
+
+    private IBuffer<KinesisMessageModel> subject;
+    private KinesisMessageModel[] models;
+    private String[] sequenceNumbers;
+
+    @Setup
+    public void setup() {
+        KinesisConnectorConfiguration configuration = BenchmarkData.configuration();
+        if ("basicMemory".equals(buffer)) {
+            subject = new BasicMemoryBuffer<KinesisMessageModel>(configuration);
+        } else if ("arrayMemory".equals(buffer)) {
+            subject = new ArrayMemoryBuffer<KinesisMessageModel>(configuration);
+        } else {
+            throw new IllegalArgumentException("Unknown buffer " + buffer);
+        }
+        models = new KinesisMessageModel[NUM_RECORDS];
+        sequenceNumbers = new String[NUM_RECORDS];
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            models[i] = BenchmarkData.createModel(i);
+            sequenceNumbers[i] = BenchmarkData.sequenceNumber(i);
+        }
+    }
+
+    @Benchmark
+    public long consumeAndFlush() {
+        long flushes = 0;
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            subject.consumeRecord(models[i], RECORD_SIZE, sequenceNumbers[i]);
+            if (subject.shouldFlush()) {
+                flushes += subject.getRecords().size();
+                subject.clear();
+            }
+        }
+        return flushes;
+    }
+}
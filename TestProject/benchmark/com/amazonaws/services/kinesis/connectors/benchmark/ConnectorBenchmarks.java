@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the connector pipeline JMH suite. Runs the benchmarks for the transformers, the buffers, the Amazon
+ * S3 and Amazon Redshift emitters, the Amazon Kinesis producer and its batch framing, the dead letter spool, and a
+ * full record processor pass with the GC profiler, which reports the allocation rate of all threads, including the
+ * emitter and transform pools. Each benchmark runs in a forked JVM with the iterations of its annotations.
+ * <p>
+ * Accepts the JMH command line options, for example to run only the buffer benchmarks with 10 measurement iterations
+ * in 2 forks:
+ *
+ * <pre>
+ * java -cp ... com.amazonaws.services.kinesis.connectors.benchmark.ConnectorBenchmarks -i 10 -f 2 BufferBenchmarks
+ * </pre>
+ *
+ * The benchmark source folder must be compiled with jmh-generator-annprocess on the annotation processor path.
+ */
+public class ConnectorBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(ConnectorBenchmarks.class.getPackage().getName() + ".");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.kinesis.connectors.impl.DeadLetterSpool;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Benchmarks handling a batch of failed JSON records: appending it to a DeadLetterSpool, and, as a baseline, building
+ * the per-record log messages the emitters wrote before the spool existed. Closed segments are deleted after each
+ * invocation. One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(DeadLetterBenchmarks.NUM_RECORDS)
+public class DeadLetterBenchmarks {
+
+    static final int NUM_RECORDS = 1000;
+    private static final long SEGMENT_BYTES = 4 * 1024 * 1024L;
+
+    private List<byte[]> records;
+
+    @Setup
+    public void setup() throws IOException {
+        records = new ArrayList<byte[]>(NUM_RECORDS);
+        for (Record record : BenchmarkData.createJsonRecords(NUM_RECORDS)) {
+            records.add(record.getData().array());
+        }
+    }
+
+    /**
+     * A DeadLetterSpool in a temporary directory, syncing at most every syncIntervalMillis.
+     */
+    @State(Scope.Benchmark)
+    public static class Spool {
+        @Param({ "1000", "0" })
+        public long syncIntervalMillis;
+
+        private File directory;
+        private DeadLetterSpool spool;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = File.createTempFile("deadletter", "");
+            if (!directory.delete()) {
+                throw new IOException("Could not delete " + directory);
+            }
+            directory.deleteOnExit();
+            spool = new DeadLetterSpool(directory, SEGMENT_BYTES, syncIntervalMillis);
+        }
+
+        @TearDown
+        public void tearDown() {
+            spool.close();
+        }
+    }
+
+    @Benchmark
+    public long arraysToString() {
+        long length = 0;
+        for (byte[] record : records) {
+            length += ("Record failed: " + Arrays.toString(record)).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public long spool(Spool spool) throws IOException {
+        spool.spool.append(records);
+        File[] files = spool.directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.getName().endsWith(".dlq") && !file.delete()) {
+                throw new IOException("Could not delete " + file);
+            }
+        }
+        return spool.spool.getRecordsSpooled();
+    }
+}
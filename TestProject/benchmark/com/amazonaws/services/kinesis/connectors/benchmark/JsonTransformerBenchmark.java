@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.json.KinesisMessageModel;
+
+import com.amazonaws.services.kinesis.connectors.impl.JsonToByteArrayTransformer;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the throughput of a JSON round trip (toClass followed by fromClass) on KinesisMessageModel records
+ * between the previous implementation, which created a new ObjectMapper for every call, and
+ * JsonToByteArrayTransformer, which reuses a pre-built ObjectReader and ObjectWriter. One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(JsonTransformerBenchmark.NUM_RECORDS)
+public class JsonTransformerBenchmark {
+
+    static final int NUM_RECORDS = 1000;
+
+    private final JsonToByteArrayTransformer<KinesisMessageModel> transformer =
+            new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class);
+    private List<Record> records;
+
+    @Setup
+    public void setup() throws IOException {
+        records = BenchmarkData.createJsonRecords(NUM_RECORDS);
+    }
+
+    @Benchmark
+    public long newObjectMapper() throws IOException {
+        long bytes = 0;
+        for (Record record : records) {
+            KinesisMessageModel model =
+                    new ObjectMapper().readValue(record.getData().array(), KinesisMessageModel.class);
+            bytes += new ObjectMapper().writeValueAsString(model).getBytes().length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long cachedReaderWriter() throws IOException {
+        long bytes = 0;
+        for (Record record : records) {
+            bytes += transformer.fromClass(transformer.toClass(record)).length;
+        }
+        return bytes;
+    }
+}
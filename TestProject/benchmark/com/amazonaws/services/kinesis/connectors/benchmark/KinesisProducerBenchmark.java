@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.kinesis.KinesisBatchProducer;
+import com.amazonaws.services.kinesis.model.PutRecordRequest;
+import com.amazonaws.services.kinesis.model.PutRecordResult;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Benchmarks putting records to a fake Amazon Kinesis client that charges a fixed round trip per request, one
+ * PutRecord call per record against the KinesisBatchProducer, with and without throttling and aggregation. One
+ * operation is one user record.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KinesisProducerBenchmark {
+
+    private static final int NUM_PAYLOADS = 1000;
+
+    /**
+     * The payloads put by the benchmarks, handed out round robin.
+     */
+    @State(Scope.Benchmark)
+    public static class Payloads {
+        private ByteBuffer[] payloads;
+        private String[] partitionKeys;
+        private int next;
+
+        @Setup
+        public void setup() throws IOException {
+            List<Record> records = BenchmarkData.createJsonRecords(NUM_PAYLOADS);
+            payloads = new ByteBuffer[NUM_PAYLOADS];
+            partitionKeys = new String[NUM_PAYLOADS];
+            for (int i = 0; i < NUM_PAYLOADS; i++) {
+                payloads[i] = records.get(i).getData();
+                partitionKeys[i] = records.get(i).getPartitionKey();
+            }
+        }
+
+        int next() {
+            int i = next;
+            next = (i + 1) % NUM_PAYLOADS;
+            return i;
+        }
+    }
+
+    /**
+     * A client called directly, one PutRecord request per record.
+     */
+    @State(Scope.Benchmark)
+    public static class Client {
+        private KinesisConnectorConfiguration config;
+        private FakeKinesisClient client;
+
+        @Setup
+        public void setup() {
+            config = BenchmarkData.configuration();
+            client = new FakeKinesisClient(0.0);
+        }
+    }
+
+    /**
+     * A KinesisBatchProducer in front of a client rejecting the given share of the entries of each PutRecords request.
+     */
+    @State(Scope.Benchmark)
+    public static class BatchProducer {
+        @Param({ "0.0", "0.05" })
+        public double rejectionRate;
+
+        @Param({ "false", "true" })
+        public String aggregation;
+
+        private KinesisBatchProducer producer;
+
+        @Setup
+        public void setup() {
+            KinesisConnectorConfiguration config =
+                    BenchmarkData.configuration(KinesisConnectorConfiguration.PROP_KINESIS_PRODUCER_AGGREGATION_ENABLED,
+                            aggregation);
+            producer =
+                    new KinesisBatchProducer(new FakeKinesisClient(rejectionRate), config.KINESIS_INPUT_STREAM, config);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            producer.close();
+        }
+    }
+
+    @Benchmark
+    public PutRecordResult putRecord(Payloads payloads, Client client) {
+        int i = payloads.next();
+        PutRecordRequest putRecordRequest = new PutRecordRequest();
+        putRecordRequest.setStreamName(client.config.KINESIS_INPUT_STREAM);
+        putRecordRequest.setData(payloads.payloads[i].duplicate());
+        putRecordRequest.setPartitionKey(payloads.partitionKeys[i]);
+        return client.client.putRecord(putRecordRequest);
+    }
+
+    @Benchmark
+    public long putRecords(Payloads payloads, BatchProducer producer) throws IOException {
+        int i = payloads.next();
+        producer.producer.put(payloads.payloads[i].duplicate(), payloads.partitionKeys[i]);
+        return producer.producer.getRecordsSent();
+    }
+
+    /**
+     * An Amazon Kinesis client standing in for a remote endpoint: every request waits ROUND_TRIP_MICROS, and
+     * PutRecords rejects each entry with the given probability as if its shard were throttled.
+     */
+    public static class FakeKinesisClient extends AmazonKinesisClient {
+        private static final long ROUND_TRIP_MICROS = 500L;
+
+        private final double rejectionRate;
+        private final Random random = new Random(42);
+        private long sequenceNumber;
+
+        public FakeKinesisClient(double rejectionRate) {
+            super(new BasicAWSCredentials("accessKey", "secretKey"));
+            this.rejectionRate = rejectionRate;
+        }
+
+        @Override
+        public synchronized PutRecordResult putRecord(PutRecordRequest putRecordRequest) {
+            roundTrip();
+            PutRecordResult result = new PutRecordResult();
+            result.setShardId("shardId-000000000000");
+            result.setSequenceNumber(BenchmarkData.sequenceNumber(sequenceNumber++));
+            return result;
+        }
+
+        @Override
+        public synchronized PutRecordsResult putRecords(PutRecordsRequest putRecordsRequest) {
+            roundTrip();
+            List<PutRecordsRequestEntry> entries = putRecordsRequest.getRecords();
+            List<PutRecordsResultEntry> results = new ArrayList<PutRecordsResultEntry>(entries.size());
+            int failed = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                PutRecordsResultEntry result = new PutRecordsResultEntry();
+                if (random.nextDouble() < rejectionRate) {
+                    result.setErrorCode("ProvisionedThroughputExceededException");
+                    result.setErrorMessage("Rate exceeded for shard shardId-000000000000");
+                    failed++;
+                } else {
+                    result.setShardId("shardId-000000000000");
+                    result.setSequenceNumber(BenchmarkData.sequenceNumber(sequenceNumber++));
+                }
+                results.add(result);
+            }
+            PutRecordsResult result = new PutRecordsResult();
+            result.setFailedRecordCount(failed);
+            result.setRecords(results);
+            return result;
+        }
+
+        private static void roundTrip() {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(ROUND_TRIP_MICROS));
+        }
+    }
+}
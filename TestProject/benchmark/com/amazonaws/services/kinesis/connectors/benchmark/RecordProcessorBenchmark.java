@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.json.KinesisMessageModel;
+
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorRecordProcessor;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
+import com.amazonaws.services.kinesis.connectors.impl.BasicMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.ByteArenaBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.JsonToByteArrayTransformer;
+import com.amazonaws.services.kinesis.connectors.impl.MappedFileBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Benchmarks a full KinesisConnectorRecordProcessor.processRecords() pass over a synthetic GetRecords batch of JSON
+ * KinesisMessageModel records, including buffering, flushing, output transformation and checkpointing, with an
+ * emitter that discards its records. The pipeline parameter selects the variant:
+ * <ul>
+ * <li>sync: the NoOpPipeline, emitting on the calling thread,</li>
+ * <li>async: the NoOpPipeline with asyncEmit enabled,</li>
+ * <li>parallel: the NoOpPipeline transforming the batch on 4 threads in chunks of 125 records,</li>
+ * <li>raw: the RawPipeline, buffering the record payloads in a ByteArenaBuffer,</li>
+ * <li>mapped: the MappedPipeline, buffering the record payloads in a MappedFileBuffer.</li>
+ * </ul>
+ * One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(RecordProcessorBenchmark.RECORDS_PER_BATCH)
+public class RecordProcessorBenchmark {
+
+    static final int RECORDS_PER_BATCH = 500;
+
+    @Param({ "sync", "async", "parallel", "raw", "mapped" })
+    public String pipeline;
+
+    private KinesisConnectorRecordProcessor<KinesisMessageModel, byte[]> processor;
+    private List<Record> records;
+    private final IRecordProcessorCheckpointer checkpointer = new NoOpCheckpointer();
+
+    @Setup
+    public void setup() throws IOException {
+        KinesisConnectorConfiguration config;
+        IKinesisConnectorPipeline<KinesisMessageModel, byte[]> connectorPipeline = new NoOpPipeline();
+        if ("sync".equals(pipeline)) {
+            config = BenchmarkData.configuration();
+        } else if ("async".equals(pipeline)) {
+            config = BenchmarkData.configuration(KinesisConnectorConfiguration.PROP_ASYNC_EMIT, "true");
+        } else if ("parallel".equals(pipeline)) {
+            config = BenchmarkData.configuration(KinesisConnectorConfiguration.PROP_TRANSFORM_THREADS,
+                    "4",
+                    KinesisConnectorConfiguration.PROP_TRANSFORM_CHUNK_SIZE,
+                    "125");
+        } else if ("raw".equals(pipeline)) {
+            config = BenchmarkData.configuration();
+            connectorPipeline = new RawPipeline();
+        } else if ("mapped".equals(pipeline)) {
+            config = BenchmarkData.configuration();
+            connectorPipeline = new MappedPipeline();
+        } else {
+            throw new IllegalArgumentException("Unknown pipeline " + pipeline);
+        }
+        processor = new KinesisConnectorRecordProcessor<KinesisMessageModel, byte[]>(connectorPipeline, config);
+        processor.initialize("shardId-000000000000");
+        records = BenchmarkData.createJsonRecords(RECORDS_PER_BATCH);
+    }
+
+    @Benchmark
+    public int processRecords() {
+        processor.processRecords(records, checkpointer);
+        return records.size();
+    }
+
+    /**
+     * Pipeline of the Amazon S3 sample with its emitter replaced by one that discards its records.
+     */
+    protected static class NoOpPipeline implements IKinesisConnectorPipeline<KinesisMessageModel, byte[]> {
+        @Override
+        public IEmitter<byte[]> getEmitter(KinesisConnectorConfiguration configuration) {
+            return new NoOpEmitter<byte[]>();
+        }
+
+        @Override
+        public IBuffer<KinesisMessageModel> getBuffer(KinesisConnectorConfiguration configuration) {
+            return new BasicMemoryBuffer<KinesisMessageModel>(configuration);
+        }
+
+        @Override
+        public ITransformer<KinesisMessageModel, byte[]> getTransformer(KinesisConnectorConfiguration configuration) {
+            return new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class);
+        }
+
+        @Override
+        public IFilter<KinesisMessageModel> getFilter(KinesisConnectorConfiguration configuration) {
+            return new AllPassFilter<KinesisMessageModel>();
+        }
+    }
+
+    /**
+     * NoOpPipeline storing the raw record payloads in a ByteArenaBuffer.
+     */
+    protected static class RawPipeline extends NoOpPipeline {
+        @Override
+        public IBuffer<KinesisMessageModel> getBuffer(KinesisConnectorConfiguration configuration) {
+            return new ByteArenaBuffer<KinesisMessageModel>(configuration,
+                    new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class));
+        }
+    }
+
+    /**
+     * NoOpPipeline storing the raw record payloads in a MappedFileBuffer.
+     */
+    protected static class MappedPipeline extends NoOpPipeline {
+        @Override
+        public IBuffer<KinesisMessageModel> getBuffer(KinesisConnectorConfiguration configuration) {
+            return new MappedFileBuffer<KinesisMessageModel>(configuration,
+                    new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class));
+        }
+    }
+
+    /**
+     * An IEmitter that accepts every record without doing anything with it.
+     */
+    public static class NoOpEmitter<T> implements IEmitter<T> {
+        @Override
+        public List<T> emit(UnmodifiableBuffer<T> buffer) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void fail(List<T> records) {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * An IRecordProcessorCheckpointer that does not record checkpoints.
+     */
+    public static class NoOpCheckpointer implements IRecordProcessorCheckpointer {
+        @Override
+        public void checkpoint() {
+        }
+
+        @Override
+        public void checkpoint(String sequenceNumber) {
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.ArrayMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.redshift.RedshiftBasicEmitter;
+import com.amazonaws.services.kinesis.connectors.redshift.RedshiftConnectionPool;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Benchmarks RedshiftBasicEmitter.emit() against a local JDBC stand-in whose connections take a few milliseconds to
+ * open, modelling the handshake with an Amazon Redshift cluster, and whose COPY commands take a millisecond. The
+ * emitters borrow their connections from a RedshiftConnectionPool shared by the threads of a benchmark:
+ * <ul>
+ * <li>sequentialCopy emits from one thread, and checks after every emit that the pool opened exactly one connection
+ * and reused it since.</li>
+ * <li>concurrentCopy emits from THREADS threads, each with its own emitter, and checks after every emit that the pool
+ * never opened more than redshiftMaxConnections connections and that no more than redshiftMaxConcurrentCopies COPY
+ * commands ever ran at once.</li>
+ * </ul>
+ * One operation is one emit.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RedshiftEmitterBenchmark {
+
+    private static final int NUM_RECORDS = 100;
+    private static final int THREADS = 8;
+    private static final String URL = StandInDriver.URL_PREFIX + "redshift";
+
+    /**
+     * The connection pool shared by the threads of a benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+        private KinesisConnectorConfiguration config;
+        private RedshiftConnectionPool pool;
+
+        @Setup
+        public void setup() throws SQLException {
+            StandInDriver.register();
+            StandInDriver.resetCopies();
+            Properties properties = new Properties();
+            properties.setProperty(KinesisConnectorConfiguration.PROP_REDSHIFT_URL, URL);
+            properties.setProperty(KinesisConnectorConfiguration.PROP_REDSHIFT_USERNAME, "user");
+            properties.setProperty(KinesisConnectorConfiguration.PROP_REDSHIFT_PASSWORD, "password");
+            AWSCredentialsProvider credentialsProvider = new AWSCredentialsProvider() {
+                @Override
+                public AWSCredentials getCredentials() {
+                    return new BasicAWSCredentials("accessKey", "secretKey");
+                }
+
+                @Override
+                public void refresh() {
+                }
+            };
+            config = new KinesisConnectorConfiguration(properties, credentialsProvider);
+            pool = new RedshiftConnectionPool(config, null);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.close();
+        }
+    }
+
+    /**
+     * The emitter of a thread and the buffer it emits.
+     */
+    @State(Scope.Thread)
+    public static class Emitter {
+        private RedshiftBasicEmitter emitter;
+        private UnmodifiableBuffer<byte[]> buffer;
+
+        @Setup
+        public void setup(Pool pool) throws IOException {
+            emitter = new RedshiftBasicEmitter(pool.config, new S3EmitterBenchmark.DiscardingS3Client(), pool.pool);
+            ArrayMemoryBuffer<byte[]> records = new ArrayMemoryBuffer<byte[]>(pool.config);
+            for (Record record : BenchmarkData.createJsonRecords(NUM_RECORDS)) {
+                records.consumeRecord(record.getData().array(),
+                        record.getData().remaining(),
+                        record.getSequenceNumber());
+            }
+            buffer = new UnmodifiableBuffer<byte[]>(records);
+        }
+
+        void emit() throws IOException {
+            if (!emitter.emit(buffer).isEmpty()) {
+                throw new IllegalStateException("Emit failed");
+            }
+        }
+    }
+
+    @Benchmark
+    public long sequentialCopy(Pool pool, Emitter emitter) throws IOException {
+        emitter.emit();
+        long opened = pool.pool.getConnectionsOpened();
+        if (opened != 1) {
+            throw new IllegalStateException("Sequential emits opened " + opened
+                    + " connections instead of reusing the first one");
+        }
+        return opened;
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public long concurrentCopy(Pool pool, Emitter emitter) throws IOException {
+        emitter.emit();
+        long opened = pool.pool.getConnectionsOpened();
+        if (opened > pool.config.REDSHIFT_MAX_CONNECTIONS) {
+            throw new IllegalStateException("Opened " + opened + " connections, but the pool holds at most "
+                    + pool.config.REDSHIFT_MAX_CONNECTIONS);
+        }
+        int copies = StandInDriver.getMaxConcurrentCopies();
+        if (copies > pool.config.REDSHIFT_MAX_CONCURRENT_COPIES) {
+            throw new IllegalStateException(copies + " COPY commands ran at once, but the pool allows at most "
+                    + pool.config.REDSHIFT_MAX_CONCURRENT_COPIES);
+        }
+        return opened;
+    }
+
+    /**
+     * A JDBC driver for URLs starting with jdbc:standin: whose connections accept any statement and answer every
+     * query with a single row holding 0. Opening a connection takes CONNECT_MILLIS and a COPY command takes
+     * COPY_MILLIS. The driver records the largest number of COPY commands that ran at once.
+     */
+    public static class StandInDriver implements Driver {
+        public static final String URL_PREFIX = "jdbc:standin:";
+        private static final long CONNECT_MILLIS = 5L;
+        private static final long COPY_MILLIS = 1L;
+        private static boolean registered;
+        private static final AtomicInteger runningCopies = new AtomicInteger();
+        private static final AtomicInteger maxConcurrentCopies = new AtomicInteger();
+
+        /**
+         * Registers the driver with the DriverManager, once.
+         * 
+         * @throws SQLException
+         */
+        public static synchronized void register() throws SQLException {
+            if (!registered) {
+                DriverManager.registerDriver(new StandInDriver());
+                registered = true;
+            }
+        }
+
+        /**
+         * @return the largest number of COPY commands that ran at once since the last call to resetCopies()
+         */
+        public static int getMaxConcurrentCopies() {
+            return maxConcurrentCopies.get();
+        }
+
+        public static void resetCopies() {
+            maxConcurrentCopies.set(runningCopies.get());
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            sleep(CONNECT_MILLIS);
+            return proxy(Connection.class, new ConnectionHandler());
+        }
+
+        private static void copy() throws SQLException {
+            int running = runningCopies.incrementAndGet();
+            try {
+                int max = maxConcurrentCopies.get();
+                while (running > max && !maxConcurrentCopies.compareAndSet(max, running)) {
+                    max = maxConcurrentCopies.get();
+                }
+                sleep(COPY_MILLIS);
+            } finally {
+                runningCopies.decrementAndGet();
+            }
+        }
+
+        private static void sleep(long millis) throws SQLException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(e);
+            }
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url != null && url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(StandInDriver.class.getClassLoader(),
+                    new Class<?>[] { type },
+                    handler));
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return Boolean.FALSE;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+
+        private static class ConnectionHandler implements InvocationHandler {
+            private boolean closed;
+            private boolean autoCommit = true;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    closed = true;
+                    return null;
+                } else if ("isClosed".equals(name)) {
+                    return closed;
+                } else if ("isValid".equals(name)) {
+                    return !closed;
+                } else if ("getAutoCommit".equals(name)) {
+                    return autoCommit;
+                } else if ("setAutoCommit".equals(name)) {
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                } else if ("createStatement".equals(name)) {
+                    if (closed) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    return proxy(Statement.class, new StatementHandler());
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                return defaultValue(method.getReturnType());
+            }
+        }
+
+        private static class StatementHandler implements InvocationHandler {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                String name = method.getName();
+                if ("execute".equals(name)) {
+                    if (((String) args[0]).startsWith("COPY ")) {
+                        copy();
+                    }
+                    return Boolean.TRUE;
+                } else if ("executeQuery".equals(name)) {
+                    return proxy(ResultSet.class, new ResultSetHandler());
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                return defaultValue(method.getReturnType());
+            }
+        }
+
+        private static class ResultSetHandler implements InvocationHandler {
+            private boolean consumed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("next".equals(name)) {
+                    boolean hasRow = !consumed;
+                    consumed = true;
+                    return hasRow;
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                return defaultValue(method.getReturnType());
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.ArrayMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * Benchmarks S3Emitter.emit() on a large buffer of JSON records, against an Amazon S3 client that reads and discards
+ * the uploaded data, with single PutObject and multipart uploads and with and without compression. One operation is
+ * one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(S3EmitterBenchmark.NUM_RECORDS)
+public class S3EmitterBenchmark {
+
+    static final int NUM_RECORDS = 40000;
+
+    @Param({ "false", "true" })
+    public String multipartUpload;
+
+    @Param({ "none", "gzip" })
+    public String compressionCodec;
+
+    private S3Emitter emitter;
+    private UnmodifiableBuffer<byte[]> buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        KinesisConnectorConfiguration config =
+                BenchmarkData.configuration(KinesisConnectorConfiguration.PROP_S3_MULTIPART_UPLOAD,
+                        multipartUpload,
+                        KinesisConnectorConfiguration.PROP_S3_COMPRESSION_CODEC,
+                        compressionCodec);
+        emitter = new S3Emitter(config, new DiscardingS3Client());
+        ArrayMemoryBuffer<byte[]> records = new ArrayMemoryBuffer<byte[]>(config);
+        for (Record record : BenchmarkData.createJsonRecords(NUM_RECORDS)) {
+            records.consumeRecord(record.getData().array(), record.getData().remaining(), record.getSequenceNumber());
+        }
+        buffer = new UnmodifiableBuffer<byte[]>(records);
+    }
+
+    @Benchmark
+    public int emit() throws IOException {
+        if (!emitter.emit(buffer).isEmpty()) {
+            throw new IllegalStateException("Emit failed");
+        }
+        return NUM_RECORDS;
+    }
+
+    /**
+     * An Amazon S3 client that reads the data of every upload and discards it.
+     */
+    public static class DiscardingS3Client extends AmazonS3Client {
+        private final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[64 * 1024];
+            }
+        };
+
+        public DiscardingS3Client() {
+            super(new BasicAWSCredentials("accessKey", "secretKey"));
+        }
+
+        @Override
+        public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+            drain(input);
+            return new PutObjectResult();
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId("upload");
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            drain(request.getInputStream());
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag");
+            return result;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            for (PartETag partETag : request.getPartETags()) {
+                partETag.getETag();
+            }
+            return new CompleteMultipartUploadResult();
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        }
+
+        private void drain(InputStream input) {
+            byte[] readBuffer = readBuffers.get();
+            try {
+                while (input.read(readBuffer) >= 0) {
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
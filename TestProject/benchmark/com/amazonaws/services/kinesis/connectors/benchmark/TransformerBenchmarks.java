@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samples.json.KinesisMessageModel;
+
+import com.amazonaws.services.kinesis.connectors.impl.JsonToByteArrayTransformer;
+import com.amazonaws.services.kinesis.connectors.impl.StringToByteArrayTransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.connectors.redshift.RedshiftTransformer;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Benchmarks ITransformer.toClass() and ITransformer.fromClass() for the transformers shipped with the connector
+ * library. One operation is one record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OperationsPerInvocation(TransformerBenchmarks.NUM_RECORDS)
+public class TransformerBenchmarks {
+
+    static final int NUM_RECORDS = 1000;
+
+    @Param({ "json", "string", "redshift" })
+    public String transformer;
+
+    private List<Record> records;
+    private Subject<?> subject;
+
+    @Setup
+    public void setup() throws IOException {
+        records = BenchmarkData.createJsonRecords(NUM_RECORDS);
+        if ("json".equals(transformer)) {
+            subject = new Subject<KinesisMessageModel>(
+                    new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class), records);
+        } else if ("string".equals(transformer)) {
+            subject = new Subject<String>(new StringToByteArrayTransformer(), records);
+        } else if ("redshift".equals(transformer)) {
+            subject = new Subject<KinesisMessageModel>(new DelimitedTransformer(), records);
+        } else {
+            throw new IllegalArgumentException("Unknown transformer " + transformer);
+        }
+    }
+
+    @Benchmark
+    public long toClass() throws IOException {
+        return subject.toClass(records);
+    }
+
+    @Benchmark
+    public long fromClass() throws IOException {
+        return subject.fromClass();
+    }
+
+    /**
+     * A transformer together with the items it produced from the benchmark records.
+     */
+    private static class Subject<T> {
+        private final ITransformer<T, byte[]> transformer;
+        private final List<T> items;
+
+        Subject(ITransformer<T, byte[]> transformer, List<Record> records) throws IOException {
+            this.transformer = transformer;
+            items = new ArrayList<T>(records.size());
+            for (Record record : records) {
+                items.add(transformer.toClass(record));
+            }
+        }
+
+        long toClass(List<Record> records) throws IOException {
+            long result = 0;
+            for (Record record : records) {
+                result += transformer.toClass(record).hashCode();
+            }
+            return result;
+        }
+
+        long fromClass() throws IOException {
+            long bytes = 0;
+            for (T item : items) {
+                bytes += transformer.fromClass(item).length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * A RedshiftTransformer emitting a subset of the KinesisMessageModel fields, as the Amazon Redshift samples do.
+     */
+    private static class DelimitedTransformer extends RedshiftTransformer<KinesisMessageModel> {
+        private static final char DELIMITER = '|';
+
+        DelimitedTransformer() {
+            super(KinesisMessageModel.class);
+        }
+
+        @Override
+        public String toDelimitedString(KinesisMessageModel record) {
+            StringBuilder b = new StringBuilder();
+            b.append(record.userid).append(DELIMITER)
+                    .append(record.username).append(DELIMITER)
+                    .append(record.firstname).append(DELIMITER)
+                    .append(record.lastname).append(DELIMITER)
+                    .append(record.city).append(DELIMITER)
+                    .append(record.state).append(DELIMITER)
+                    .append(record.email).append(DELIMITER)
+                    .append(record.phone).append(DELIMITER)
+                    .append(record.likesports).append(DELIMITER)
+                    .append(record.liketheatre).append(DELIMITER)
+                    .append(record.likeconcerts).append(DELIMITER)
+                    .append(record.likejazz).append(DELIMITER)
+                    .append(record.likeclassical).append(DELIMITER)
+                    .append(record.likeopera).append(DELIMITER)
+                    .append(record.likerock).append(DELIMITER)
+                    .append(record.likevegas).append(DELIMITER)
+                    .append(record.likebroadway).append(DELIMITER)
+                    .append(record.likemusicals)
+                    .append("\n");
+            return b.toString();
+        }
+    }
+}
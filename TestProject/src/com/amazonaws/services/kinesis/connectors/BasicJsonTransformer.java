@@ -15,39 +15,117 @@
 package com.amazonaws.services.kinesis.connectors;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.amazonaws.services.kinesis.connectors.interfaces.IBatchTransformer;
 import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
 import com.amazonaws.services.kinesis.model.Record;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 
 /**
  * This class implements the ITransformer interface and provides an implementation of the toClass()
  * method for deserializing and serializing JSON strings. The constructor takes the class to
  * transform to/from JSON. The Record parameter of the toClass() method is expected to contain a
  * byte representation of a JSON string.
+ * <p>
+ * The ObjectReader and ObjectWriter are built once per transformer and shared by all calls. Both are immutable and
+ * thread-safe, and they keep Jackson's serializer and deserializer caches warm across records.
+ * <p>
+ * As an IBatchTransformer, it parses all the records of a batch in one call. Records whose data is not backed by an
+ * array, such as slices of a direct buffer, are copied into one scratch array per batch instead of being read through
+ * an input stream each. A subclass that overrides toClass(Record) has the batch method call its toClass(Record) for
+ * each record instead, so that its own parsing is never bypassed.
  * 
  * @param <T>
  */
-public abstract class BasicJsonTransformer<T, U> implements ITransformer<T, U> {
+public abstract class BasicJsonTransformer<T, U> implements ITransformer<T, U>, IBatchTransformer<T, U> {
     private static final Log LOG = LogFactory.getLog(BasicJsonTransformer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
     protected Class<T> inputClass;
+    protected final ObjectReader reader;
+    protected final ObjectWriter writer;
+    // Whether toClass(Record) is not overridden, so that the batch method may parse the records itself
+    private final boolean batchParsing;
 
     public BasicJsonTransformer(Class<T> inputClass) {
         this.inputClass = inputClass;
+        this.reader = MAPPER.reader(inputClass);
+        this.writer = MAPPER.writer();
+        try {
+            batchParsing =
+                    getClass().getMethod("toClass", Record.class).getDeclaringClass() == BasicJsonTransformer.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public T toClass(Record record) throws IOException {
+        // Work on a duplicate so the record's position is left untouched
+        ByteBuffer data = record.getData().duplicate();
         try {
-            return new ObjectMapper().readValue(record.getData().array(), this.inputClass);
+            if (data.hasArray()) {
+                // Parse the backing array in place, honoring the buffer's offset, position and limit
+                return reader.readValue(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+            return reader.readValue(new ByteBufferBackedInputStream(data));
         } catch (IOException e) {
-            String message = "Error parsing record from JSON: " + new String(record.getData().array());
+            String message = "Error parsing record from JSON: " + toString(record.getData());
             LOG.error(message, e);
             throw new IOException(message, e);
         }
     }
 
+    @Override
+    public List<T> toClass(List<Record> records) {
+        List<T> transformed = new ArrayList<T>(records.size());
+        if (!batchParsing) {
+            for (Record record : records) {
+                try {
+                    transformed.add(toClass(record));
+                } catch (IOException e) {
+                    LOG.error(e);
+                    transformed.add(null);
+                }
+            }
+            return transformed;
+        }
+        byte[] scratch = null;
+        for (Record record : records) {
+            ByteBuffer data = record.getData().duplicate();
+            try {
+                if (data.hasArray()) {
+                    transformed.add(reader.<T> readValue(data.array(), data.arrayOffset() + data.position(),
+                            data.remaining()));
+                } else {
+                    if (scratch == null || scratch.length < data.remaining()) {
+                        scratch = new byte[Math.max(data.remaining(), scratch == null ? 0 : 2 * scratch.length)];
+                    }
+                    int length = data.remaining();
+                    data.get(scratch, 0, length);
+                    transformed.add(reader.<T> readValue(scratch, 0, length));
+                }
+            } catch (IOException e) {
+                LOG.error("Error parsing record from JSON: " + toString(record.getData()), e);
+                transformed.add(null);
+            }
+        }
+        return transformed;
+    }
+
+    private static String toString(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
 }
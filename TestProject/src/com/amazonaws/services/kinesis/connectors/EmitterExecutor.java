@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of emitterThreads threads that the IAsyncEmitters of a worker share to run their emits, so that the
+ * uploads of many shards are driven by a bounded number of threads rather than one emit thread per shard.
+ * <p>
+ * Emitters obtain the pool with forConfiguration(), which returns the same pool for the same application name, and
+ * close it when they shut down. The threads are stopped once every emitter using the pool has closed it.
+ */
+public class EmitterExecutor implements Closeable {
+    // Pools shared by the emitters of an application, keyed by application name
+    private static final SharedResources<EmitterExecutor> SHARED_EXECUTORS = new SharedResources<EmitterExecutor>();
+    // Set on the threads of every pool
+    private static final ThreadLocal<Boolean> POOL_THREAD = new ThreadLocal<Boolean>();
+
+    private final ExecutorService executor;
+
+    private EmitterExecutor(final String appName, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Runnable marked = new Runnable() {
+                    @Override
+                    public void run() {
+                        POOL_THREAD.set(Boolean.TRUE);
+                        r.run();
+                    }
+                };
+                Thread thread =
+                        new Thread(marked, "KinesisConnectorEmitterPool-" + appName + "-"
+                                + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the pool shared by the emitters of the configured application, creating it with emitterThreads threads
+     * if needed. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared pool
+     */
+    public static EmitterExecutor forConfiguration(final KinesisConnectorConfiguration configuration) {
+        return SHARED_EXECUTORS.acquire(configuration.APP_NAME,
+                new SharedResources.Factory<EmitterExecutor, RuntimeException>() {
+                    @Override
+                    public EmitterExecutor create(String appName) {
+                        return new EmitterExecutor(appName, Math.max(1, configuration.EMITTER_THREADS));
+                    }
+                });
+    }
+
+    /**
+     * Returns whether the calling thread belongs to an EmitterExecutor. A task running on the pool must not wait for
+     * other tasks of the pool, which may be queued behind it, so emitters check this before blocking on the pool.
+     * 
+     * @return true if the calling thread is a pool thread
+     */
+    public static boolean isPoolThread() {
+        return POOL_THREAD.get() != null;
+    }
+
+    /**
+     * Submits a task to the pool.
+     * 
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         if the pool has been shut down
+     */
+    public <V> Future<V> submit(Callable<V> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Stops the threads once every caller of forConfiguration() has closed the pool. Running tasks are completed.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_EXECUTORS.release(this)) {
+            return;
+        }
+        executor.shutdown();
+    }
+}
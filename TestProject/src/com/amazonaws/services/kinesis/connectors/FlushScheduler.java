@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scheduler, shared by the record processors of a worker, that flushes a buffer when its bufferMillisecondsLimit
+ * expires rather than on the next processRecords() call, see KinesisConnectorRecordProcessor. It runs
+ * timedFlushThreads threads; a synchronous emit started by a timer occupies one of them until it completes.
+ * <p>
+ * Record processors obtain the scheduler with forConfiguration(), which returns the same scheduler for the same
+ * application name, and close it when they shut down. The threads are stopped once every record processor using the
+ * scheduler has closed it.
+ */
+public class FlushScheduler implements Closeable {
+    // Schedulers shared by the record processors of an application, keyed by application name
+    private static final SharedResources<FlushScheduler> SHARED_SCHEDULERS = new SharedResources<FlushScheduler>();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private FlushScheduler(final String appName, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        scheduler = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread =
+                        new Thread(r, "KinesisConnectorFlush-" + appName + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Flushes still waiting for their time when the scheduler is closed are dropped rather than run
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Returns the scheduler shared by the record processors of the configured application, creating it with
+     * timedFlushThreads threads if needed. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared scheduler
+     */
+    public static FlushScheduler forConfiguration(final KinesisConnectorConfiguration configuration) {
+        return SHARED_SCHEDULERS.acquire(configuration.APP_NAME,
+                new SharedResources.Factory<FlushScheduler, RuntimeException>() {
+                    @Override
+                    public FlushScheduler create(String appName) {
+                        return new FlushScheduler(appName, Math.max(1, configuration.TIMED_FLUSH_THREADS));
+                    }
+                });
+    }
+
+    /**
+     * Runs the task once the delay has elapsed.
+     * 
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         if the scheduler has been shut down
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the threads once every caller of forConfiguration() has closed the scheduler. Flushes that are running
+     * are completed; pending ones are dropped.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_SCHEDULERS.release(this)) {
+            return;
+        }
+        scheduler.shutdown();
+    }
+}
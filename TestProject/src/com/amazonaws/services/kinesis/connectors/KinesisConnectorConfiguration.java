@@ -14,6 +14,7 @@
  */
 package com.amazonaws.services.kinesis.connectors;
 
+import java.io.File;
 import java.rmi.dgc.VMID;
 import java.util.Properties;
 
@@ -46,11 +47,18 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_CONNECTOR_DESTINATION = "connectorDestination";
     public static final String PROP_RETRY_LIMIT = "retryLimit";
     public static final String PROP_BACKOFF_INTERVAL = "backoffInterval";
+    public static final String PROP_RETRY_INITIAL_BACKOFF = "retryInitialBackoff";
+    public static final String PROP_RETRY_TIME_BUDGET = "retryTimeBudget";
     public static final String PROP_KINESIS_ENDPOINT = "kinesisEndpoint";
     public static final String PROP_KINESIS_INPUT_STREAM = "kinesisInputStream";
     public static final String PROP_KINESIS_INPUT_STREAM_SHARD_COUNT = "kinesisInputStreamShardCount";
     public static final String PROP_KINESIS_OUTPUT_STREAM = "kinesisOutputStream";
     public static final String PROP_KINESIS_OUTPUT_STREAM_SHARD_COUNT = "kinesisOutpuStreamShardCount";
+    public static final String PROP_KINESIS_PRODUCER_MAX_BATCH_RECORDS = "kinesisProducerMaxBatchRecords";
+    public static final String PROP_KINESIS_PRODUCER_MAX_BATCH_BYTES = "kinesisProducerMaxBatchBytes";
+    public static final String PROP_KINESIS_PRODUCER_LINGER_MILLIS = "kinesisProducerLingerMillis";
+    public static final String PROP_KINESIS_PRODUCER_AGGREGATION_ENABLED = "kinesisProducerAggregationEnabled";
+    public static final String PROP_KINESIS_PRODUCER_AGGREGATION_MAX_BYTES = "kinesisProducerAggregationMaxBytes";
     public static final String PROP_WORKER_ID = "workerID";
     public static final String PROP_FAILOVER_TIME = "failoverTime";
     public static final String PROP_MAX_RECORDS = "maxRecords";
@@ -62,8 +70,33 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_CLEANUP_TERMINATED_SHARDS_BEFORE_EXPIRY = "cleanupTerminatedShardsBeforeExpiry";
     public static final String PROP_REGION_NAME = "regionName";
     public static final String PROP_BATCH_RECORDS_IN_PUT_REQUEST = "batchRecordsInPutRequest";
+    public static final String PROP_BATCH_RECORDS_MAX_BYTES = "batchRecordsMaxBytes";
+    public static final String PROP_BATCH_RECORDS_FORMAT = "batchRecordsFormat";
+    public static final String PROP_ASYNC_EMIT = "asyncEmit";
+    public static final String PROP_MAX_IN_FLIGHT_BUFFERS = "maxInFlightBuffers";
+    public static final String PROP_EMITTER_THREADS = "emitterThreads";
+    public static final String PROP_TRANSFORM_THREADS = "transformThreads";
+    public static final String PROP_TRANSFORM_CHUNK_SIZE = "transformChunkSize";
+    public static final String PROP_TIMED_FLUSH = "timedFlush";
+    public static final String PROP_TIMED_FLUSH_THREADS = "timedFlushThreads";
+    public static final String PROP_WORKER_BUFFER_BYTE_LIMIT = "workerBufferByteLimit";
+    public static final String PROP_BUFFER_SPILL_DIRECTORY = "bufferSpillDirectory";
+    public static final String PROP_DEAD_LETTER_DIRECTORY = "deadLetterDirectory";
+    public static final String PROP_DEAD_LETTER_SEGMENT_BYTES = "deadLetterSegmentBytes";
+    public static final String PROP_DEAD_LETTER_SYNC_INTERVAL = "deadLetterSyncInterval";
     public static final String PROP_S3_ENDPOINT = "s3Endpoint";
     public static final String PROP_S3_BUCKET = "s3Bucket";
+    public static final String PROP_S3_PATH_STYLE_ACCESS = "s3PathStyleAccess";
+    public static final String PROP_S3_MULTIPART_UPLOAD = "s3MultipartUpload";
+    public static final String PROP_S3_MULTIPART_PART_SIZE = "s3MultipartPartSize";
+    public static final String PROP_S3_MULTIPART_UPLOAD_THREADS = "s3MultipartUploadThreads";
+    public static final String PROP_S3_COMPRESSION_CODEC = "s3CompressionCodec";
+    public static final String PROP_S3_MANIFEST_PARTITION_KEY = "s3ManifestPartitionKey";
+    public static final String PROP_S3_MANIFEST_LINGER_MILLIS = "s3ManifestLingerMillis";
+    public static final String PROP_S3_KEY_LAYOUT = "s3KeyLayout";
+    public static final String PROP_S3_KEY_HASH_PREFIX_LENGTH = "s3KeyHashPrefixLength";
+    public static final String PROP_S3_KEY_TIME_FORMAT = "s3KeyTimeFormat";
+    public static final String PROP_S3_KEY_PARTITION_FIELD = "s3KeyPartitionField";
     public static final String PROP_REDSHIFT_ENDPOINT = "redshiftEndpoint";
     public static final String PROP_REDSHIFT_USERNAME = "redshiftUsername";
     public static final String PROP_REDSHIFT_PASSWORD = "redshiftPassword";
@@ -73,6 +106,11 @@ public class KinesisConnectorConfiguration {
     public static final String PROP_REDSHIFT_FILE_KEY_COLUMN = "redshiftFileKeyColumn";
     public static final String PROP_REDSHIFT_DATA_DELIMITER = "redshiftDataDelimiter";
     public static final String PROP_REDSHIFT_COPY_MANDATORY = "redshiftCopyMandatory";
+    public static final String PROP_REDSHIFT_MAX_CONNECTIONS = "redshiftMaxConnections";
+    public static final String PROP_REDSHIFT_MAX_CONCURRENT_COPIES = "redshiftMaxConcurrentCopies";
+    public static final String PROP_REDSHIFT_CONNECTION_VALIDATION_INTERVAL = "redshiftConnectionValidationInterval";
+    public static final String PROP_REDSHIFT_FILE_INDEX_SIZE = "redshiftFileIndexSize";
+    public static final String PROP_REDSHIFT_FILE_INDEX_EXPECTED_FILES = "redshiftFileIndexExpectedFiles";
     public static final String PROP_BUFFER_RECORD_COUNT_LIMIT = "bufferRecordCountLimit";
     public static final String PROP_BUFFER_BYTE_SIZE_LIMIT = "bufferByteSizeLimit";
     public static final String PROP_BUFFER_MILLISECONDS_LIMIT = "bufferMillisecondsLimit";
@@ -106,18 +144,41 @@ public class KinesisConnectorConfiguration {
     // Default Connector App Constants
     public static final String DEFAULT_APP_NAME = "KinesisConnector";
     public static final String DEFAULT_CONNECTOR_DESTINATION = "generic";
-    public static final int DEFAULT_RETRY_LIMIT = 3;
+    // Retries are bounded by retryTimeBudget; retryLimit only caps the number of attempts when it is set
+    public static final int DEFAULT_RETRY_LIMIT = Integer.MAX_VALUE;
     public static final long DEFAULT_BACKOFF_INTERVAL = 1000L * 10;
+    public static final long DEFAULT_RETRY_INITIAL_BACKOFF = 100L;
+    public static final long DEFAULT_RETRY_TIME_BUDGET = 1000L * 60;
     public static final long DEFAULT_BUFFER_RECORD_COUNT_LIMIT = 1000L;
     public static final long DEFAULT_BUFFER_BYTE_SIZE_LIMIT = 1024 * 1024L;
     public static final long DEFAULT_BUFFER_MILLISECONDS_LIMIT = Long.MAX_VALUE;
     public static final boolean DEFAULT_BATCH_RECORDS_IN_PUT_REQUEST = false;
+    public static final int DEFAULT_BATCH_RECORDS_MAX_BYTES = 50000;
+    public static final String DEFAULT_BATCH_RECORDS_FORMAT = "lengthPrefixed";
+    public static final boolean DEFAULT_ASYNC_EMIT = false;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BUFFERS = 2;
+    public static final int DEFAULT_EMITTER_THREADS = 4;
+    public static final int DEFAULT_TRANSFORM_THREADS = 0;
+    public static final int DEFAULT_TRANSFORM_CHUNK_SIZE = 1000;
+    public static final boolean DEFAULT_TIMED_FLUSH = false;
+    public static final int DEFAULT_TIMED_FLUSH_THREADS = 2;
+    public static final long DEFAULT_WORKER_BUFFER_BYTE_LIMIT = 0L;
+    public static final String DEFAULT_BUFFER_SPILL_DIRECTORY =
+            new File(System.getProperty("java.io.tmpdir"), "kinesis-connector-buffers").getPath();
+    public static final String DEFAULT_DEAD_LETTER_DIRECTORY = null;
+    public static final long DEFAULT_DEAD_LETTER_SEGMENT_BYTES = 64 * 1024 * 1024L;
+    public static final long DEFAULT_DEAD_LETTER_SYNC_INTERVAL = 1000L;
 
     // Default Amazon Kinesis Constants
     public static final String DEFAULT_KINESIS_ENDPOINT = null;
     public static final String DEFAULT_KINESIS_INPUT_STREAM = "kinesisInputStream";
     public static final String DEFAULT_KINESIS_OUTPUT_STREAM = "kinesisOutputStream";
     public static final int DEFAULT_KINESIS_STREAM_SHARD_COUNT = 1;
+    public static final int DEFAULT_KINESIS_PRODUCER_MAX_BATCH_RECORDS = 500;
+    public static final int DEFAULT_KINESIS_PRODUCER_MAX_BATCH_BYTES = 5 * 1024 * 1024;
+    public static final long DEFAULT_KINESIS_PRODUCER_LINGER_MILLIS = 100L;
+    public static final boolean DEFAULT_KINESIS_PRODUCER_AGGREGATION_ENABLED = false;
+    public static final int DEFAULT_KINESIS_PRODUCER_AGGREGATION_MAX_BYTES = 50 * 1024;
 
     // Default Amazon Kinesis Client Library Constants
     public static final String DEFAULT_WORKER_ID = new VMID().toString();
@@ -136,6 +197,17 @@ public class KinesisConnectorConfiguration {
     // Default Amazon S3 Constants
     public static final String DEFAULT_S3_ENDPOINT = "https://s3.amazonaws.com";
     public static final String DEFAULT_S3_BUCKET = "kinesis-bucket";
+    public static final boolean DEFAULT_S3_PATH_STYLE_ACCESS = false;
+    public static final boolean DEFAULT_S3_MULTIPART_UPLOAD = false;
+    public static final int DEFAULT_S3_MULTIPART_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_S3_MULTIPART_UPLOAD_THREADS = 4;
+    public static final String DEFAULT_S3_COMPRESSION_CODEC = "none";
+    public static final String DEFAULT_S3_MANIFEST_PARTITION_KEY = "stream";
+    public static final long DEFAULT_S3_MANIFEST_LINGER_MILLIS = 0L;
+    public static final String DEFAULT_S3_KEY_LAYOUT = null;
+    public static final int DEFAULT_S3_KEY_HASH_PREFIX_LENGTH = 0;
+    public static final String DEFAULT_S3_KEY_TIME_FORMAT = null;
+    public static final String DEFAULT_S3_KEY_PARTITION_FIELD = null;
 
     // Default Amazon Redshift Constants
     public static final String DEFAULT_REDSHIFT_ENDPOINT = "https://redshift.us-east-1.amazonaws.com";
@@ -147,6 +219,14 @@ public class KinesisConnectorConfiguration {
     public static final String DEFAULT_REDSHIFT_FILE_KEY_COLUMN = "file";
     public static final Character DEFAULT_REDSHIFT_DATA_DELIMITER = '|';
     public static final boolean DEFAULT_REDSHIFT_COPY_MANDATORY = true;
+    public static final int DEFAULT_REDSHIFT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_REDSHIFT_MAX_CONCURRENT_COPIES = 2;
+    public static final long DEFAULT_REDSHIFT_CONNECTION_VALIDATION_INTERVAL = 30 * 1000L;
+    public static final int DEFAULT_REDSHIFT_FILE_INDEX_SIZE = 100000;
+    // Every RedshiftManifestEmitter created after the last warm of the committed file index, that is on every lease
+    // taken, reads the whole file table once; set redshiftFileIndexExpectedFiles to 0 to disable the index if the file
+    // table grows too large for that
+    public static final int DEFAULT_REDSHIFT_FILE_INDEX_EXPECTED_FILES = 1000000;
 
     // Default Amazon DynamoDB Constants
     public static final String DEFAULT_DYNAMODB_ENDPOINT = "dynamodb.us-east-1.amazonaws.com";
@@ -183,16 +263,37 @@ public class KinesisConnectorConfiguration {
     public final String CONNECTOR_DESTINATION;
     public final long BACKOFF_INTERVAL;
     public final int RETRY_LIMIT;
+    public final long RETRY_INITIAL_BACKOFF;
+    public final long RETRY_TIME_BUDGET;
     public final long BUFFER_RECORD_COUNT_LIMIT;
     public final long BUFFER_BYTE_SIZE_LIMIT;
     public final long BUFFER_MILLISECONDS_LIMIT;
     public final boolean BATCH_RECORDS_IN_PUT_REQUEST;
+    public final int BATCH_RECORDS_MAX_BYTES;
+    public final String BATCH_RECORDS_FORMAT;
+    public final boolean ASYNC_EMIT;
+    public final int MAX_IN_FLIGHT_BUFFERS;
+    public final int EMITTER_THREADS;
+    public final int TRANSFORM_THREADS;
+    public final int TRANSFORM_CHUNK_SIZE;
+    public final boolean TIMED_FLUSH;
+    public final int TIMED_FLUSH_THREADS;
+    public final long WORKER_BUFFER_BYTE_LIMIT;
+    public final String BUFFER_SPILL_DIRECTORY;
+    public final String DEAD_LETTER_DIRECTORY;
+    public final long DEAD_LETTER_SEGMENT_BYTES;
+    public final long DEAD_LETTER_SYNC_INTERVAL;
 
     public final String KINESIS_ENDPOINT;
     public final String KINESIS_INPUT_STREAM;
     public final int KINESIS_INPUT_STREAM_SHARD_COUNT;
     public final String KINESIS_OUTPUT_STREAM;
     public final int KINESIS_OUTPUT_STREAM_SHARD_COUNT;
+    public final int KINESIS_PRODUCER_MAX_BATCH_RECORDS;
+    public final int KINESIS_PRODUCER_MAX_BATCH_BYTES;
+    public final long KINESIS_PRODUCER_LINGER_MILLIS;
+    public final boolean KINESIS_PRODUCER_AGGREGATION_ENABLED;
+    public final int KINESIS_PRODUCER_AGGREGATION_MAX_BYTES;
 
     public final String WORKER_ID;
     public final long FAILOVER_TIME;
@@ -206,6 +307,17 @@ public class KinesisConnectorConfiguration {
     public final String REGION_NAME;
     public final String S3_ENDPOINT;
     public final String S3_BUCKET;
+    public final boolean S3_PATH_STYLE_ACCESS;
+    public final boolean S3_MULTIPART_UPLOAD;
+    public final int S3_MULTIPART_PART_SIZE;
+    public final int S3_MULTIPART_UPLOAD_THREADS;
+    public final String S3_COMPRESSION_CODEC;
+    public final String S3_MANIFEST_PARTITION_KEY;
+    public final long S3_MANIFEST_LINGER_MILLIS;
+    public final String S3_KEY_LAYOUT;
+    public final int S3_KEY_HASH_PREFIX_LENGTH;
+    public final String S3_KEY_TIME_FORMAT;
+    public final String S3_KEY_PARTITION_FIELD;
     public final String REDSHIFT_ENDPOINT;
     public final String REDSHIFT_USERNAME;
     public final String REDSHIFT_PASSWORD;
@@ -215,6 +327,11 @@ public class KinesisConnectorConfiguration {
     public final String REDSHIFT_FILE_KEY_COLUMN;
     public final Character REDSHIFT_DATA_DELIMITER;
     public final boolean REDSHIFT_COPY_MANDATORY;
+    public final int REDSHIFT_MAX_CONNECTIONS;
+    public final int REDSHIFT_MAX_CONCURRENT_COPIES;
+    public final long REDSHIFT_CONNECTION_VALIDATION_INTERVAL;
+    public final int REDSHIFT_FILE_INDEX_SIZE;
+    public final int REDSHIFT_FILE_INDEX_EXPECTED_FILES;
     public final String DYNAMODB_ENDPOINT;
     public final String DYNAMODB_DATA_TABLE_NAME;
     public final String CLOUDWATCH_NAMESPACE;
@@ -254,6 +371,8 @@ public class KinesisConnectorConfiguration {
                         + properties.getProperty(PROP_CONNECTOR_DESTINATION, DEFAULT_CONNECTOR_DESTINATION);
         RETRY_LIMIT = getIntegerProperty(PROP_RETRY_LIMIT, DEFAULT_RETRY_LIMIT, properties);
         BACKOFF_INTERVAL = getLongProperty(PROP_BACKOFF_INTERVAL, DEFAULT_BACKOFF_INTERVAL, properties);
+        RETRY_INITIAL_BACKOFF = getLongProperty(PROP_RETRY_INITIAL_BACKOFF, DEFAULT_RETRY_INITIAL_BACKOFF, properties);
+        RETRY_TIME_BUDGET = getLongProperty(PROP_RETRY_TIME_BUDGET, DEFAULT_RETRY_TIME_BUDGET, properties);
         BUFFER_RECORD_COUNT_LIMIT =
                 getLongProperty(PROP_BUFFER_RECORD_COUNT_LIMIT, DEFAULT_BUFFER_RECORD_COUNT_LIMIT, properties);
         BUFFER_BYTE_SIZE_LIMIT =
@@ -262,6 +381,25 @@ public class KinesisConnectorConfiguration {
                 getLongProperty(PROP_BUFFER_MILLISECONDS_LIMIT, DEFAULT_BUFFER_MILLISECONDS_LIMIT, properties);
         BATCH_RECORDS_IN_PUT_REQUEST =
                 getBooleanProperty(PROP_BATCH_RECORDS_IN_PUT_REQUEST, DEFAULT_BATCH_RECORDS_IN_PUT_REQUEST, properties);
+        BATCH_RECORDS_MAX_BYTES =
+                getIntegerProperty(PROP_BATCH_RECORDS_MAX_BYTES, DEFAULT_BATCH_RECORDS_MAX_BYTES, properties);
+        BATCH_RECORDS_FORMAT = properties.getProperty(PROP_BATCH_RECORDS_FORMAT, DEFAULT_BATCH_RECORDS_FORMAT);
+        ASYNC_EMIT = getBooleanProperty(PROP_ASYNC_EMIT, DEFAULT_ASYNC_EMIT, properties);
+        MAX_IN_FLIGHT_BUFFERS =
+                getIntegerProperty(PROP_MAX_IN_FLIGHT_BUFFERS, DEFAULT_MAX_IN_FLIGHT_BUFFERS, properties);
+        EMITTER_THREADS = getIntegerProperty(PROP_EMITTER_THREADS, DEFAULT_EMITTER_THREADS, properties);
+        TRANSFORM_THREADS = getIntegerProperty(PROP_TRANSFORM_THREADS, DEFAULT_TRANSFORM_THREADS, properties);
+        TRANSFORM_CHUNK_SIZE = getIntegerProperty(PROP_TRANSFORM_CHUNK_SIZE, DEFAULT_TRANSFORM_CHUNK_SIZE, properties);
+        TIMED_FLUSH = getBooleanProperty(PROP_TIMED_FLUSH, DEFAULT_TIMED_FLUSH, properties);
+        TIMED_FLUSH_THREADS = getIntegerProperty(PROP_TIMED_FLUSH_THREADS, DEFAULT_TIMED_FLUSH_THREADS, properties);
+        WORKER_BUFFER_BYTE_LIMIT =
+                getLongProperty(PROP_WORKER_BUFFER_BYTE_LIMIT, DEFAULT_WORKER_BUFFER_BYTE_LIMIT, properties);
+        BUFFER_SPILL_DIRECTORY = properties.getProperty(PROP_BUFFER_SPILL_DIRECTORY, DEFAULT_BUFFER_SPILL_DIRECTORY);
+        DEAD_LETTER_DIRECTORY = properties.getProperty(PROP_DEAD_LETTER_DIRECTORY, DEFAULT_DEAD_LETTER_DIRECTORY);
+        DEAD_LETTER_SEGMENT_BYTES =
+                getLongProperty(PROP_DEAD_LETTER_SEGMENT_BYTES, DEFAULT_DEAD_LETTER_SEGMENT_BYTES, properties);
+        DEAD_LETTER_SYNC_INTERVAL =
+                getLongProperty(PROP_DEAD_LETTER_SYNC_INTERVAL, DEFAULT_DEAD_LETTER_SYNC_INTERVAL, properties);
 
         // Amazon Kinesis configuration
         KINESIS_ENDPOINT = properties.getProperty(PROP_KINESIS_ENDPOINT, DEFAULT_KINESIS_ENDPOINT);
@@ -275,10 +413,44 @@ public class KinesisConnectorConfiguration {
                 getIntegerProperty(PROP_KINESIS_OUTPUT_STREAM_SHARD_COUNT,
                         DEFAULT_KINESIS_STREAM_SHARD_COUNT,
                         properties);
+        KINESIS_PRODUCER_MAX_BATCH_RECORDS =
+                getIntegerProperty(PROP_KINESIS_PRODUCER_MAX_BATCH_RECORDS,
+                        DEFAULT_KINESIS_PRODUCER_MAX_BATCH_RECORDS,
+                        properties);
+        KINESIS_PRODUCER_MAX_BATCH_BYTES =
+                getIntegerProperty(PROP_KINESIS_PRODUCER_MAX_BATCH_BYTES,
+                        DEFAULT_KINESIS_PRODUCER_MAX_BATCH_BYTES,
+                        properties);
+        KINESIS_PRODUCER_LINGER_MILLIS =
+                getLongProperty(PROP_KINESIS_PRODUCER_LINGER_MILLIS, DEFAULT_KINESIS_PRODUCER_LINGER_MILLIS, properties);
+        KINESIS_PRODUCER_AGGREGATION_ENABLED =
+                getBooleanProperty(PROP_KINESIS_PRODUCER_AGGREGATION_ENABLED,
+                        DEFAULT_KINESIS_PRODUCER_AGGREGATION_ENABLED,
+                        properties);
+        KINESIS_PRODUCER_AGGREGATION_MAX_BYTES =
+                getIntegerProperty(PROP_KINESIS_PRODUCER_AGGREGATION_MAX_BYTES,
+                        DEFAULT_KINESIS_PRODUCER_AGGREGATION_MAX_BYTES,
+                        properties);
 
         // Amazon S3 configuration
         S3_ENDPOINT = properties.getProperty(PROP_S3_ENDPOINT, DEFAULT_S3_ENDPOINT);
         S3_BUCKET = properties.getProperty(PROP_S3_BUCKET, DEFAULT_S3_BUCKET);
+        S3_PATH_STYLE_ACCESS = getBooleanProperty(PROP_S3_PATH_STYLE_ACCESS, DEFAULT_S3_PATH_STYLE_ACCESS, properties);
+        S3_MULTIPART_UPLOAD = getBooleanProperty(PROP_S3_MULTIPART_UPLOAD, DEFAULT_S3_MULTIPART_UPLOAD, properties);
+        S3_MULTIPART_PART_SIZE =
+                getIntegerProperty(PROP_S3_MULTIPART_PART_SIZE, DEFAULT_S3_MULTIPART_PART_SIZE, properties);
+        S3_MULTIPART_UPLOAD_THREADS =
+                getIntegerProperty(PROP_S3_MULTIPART_UPLOAD_THREADS, DEFAULT_S3_MULTIPART_UPLOAD_THREADS, properties);
+        S3_COMPRESSION_CODEC = properties.getProperty(PROP_S3_COMPRESSION_CODEC, DEFAULT_S3_COMPRESSION_CODEC);
+        S3_MANIFEST_PARTITION_KEY =
+                properties.getProperty(PROP_S3_MANIFEST_PARTITION_KEY, DEFAULT_S3_MANIFEST_PARTITION_KEY);
+        S3_MANIFEST_LINGER_MILLIS =
+                getLongProperty(PROP_S3_MANIFEST_LINGER_MILLIS, DEFAULT_S3_MANIFEST_LINGER_MILLIS, properties);
+        S3_KEY_LAYOUT = properties.getProperty(PROP_S3_KEY_LAYOUT, DEFAULT_S3_KEY_LAYOUT);
+        S3_KEY_HASH_PREFIX_LENGTH =
+                getIntegerProperty(PROP_S3_KEY_HASH_PREFIX_LENGTH, DEFAULT_S3_KEY_HASH_PREFIX_LENGTH, properties);
+        S3_KEY_TIME_FORMAT = properties.getProperty(PROP_S3_KEY_TIME_FORMAT, DEFAULT_S3_KEY_TIME_FORMAT);
+        S3_KEY_PARTITION_FIELD = properties.getProperty(PROP_S3_KEY_PARTITION_FIELD, DEFAULT_S3_KEY_PARTITION_FIELD);
 
         // Amazon Redshift configuration
         REDSHIFT_ENDPOINT = properties.getProperty(PROP_REDSHIFT_ENDPOINT, DEFAULT_REDSHIFT_ENDPOINT);
@@ -293,6 +465,22 @@ public class KinesisConnectorConfiguration {
                 getCharacterProperty(PROP_REDSHIFT_DATA_DELIMITER, DEFAULT_REDSHIFT_DATA_DELIMITER, properties);
         REDSHIFT_COPY_MANDATORY =
                 getBooleanProperty(PROP_REDSHIFT_COPY_MANDATORY, DEFAULT_REDSHIFT_COPY_MANDATORY, properties);
+        REDSHIFT_MAX_CONNECTIONS =
+                getIntegerProperty(PROP_REDSHIFT_MAX_CONNECTIONS, DEFAULT_REDSHIFT_MAX_CONNECTIONS, properties);
+        REDSHIFT_MAX_CONCURRENT_COPIES =
+                getIntegerProperty(PROP_REDSHIFT_MAX_CONCURRENT_COPIES,
+                        DEFAULT_REDSHIFT_MAX_CONCURRENT_COPIES,
+                        properties);
+        REDSHIFT_CONNECTION_VALIDATION_INTERVAL =
+                getLongProperty(PROP_REDSHIFT_CONNECTION_VALIDATION_INTERVAL,
+                        DEFAULT_REDSHIFT_CONNECTION_VALIDATION_INTERVAL,
+                        properties);
+        REDSHIFT_FILE_INDEX_SIZE =
+                getIntegerProperty(PROP_REDSHIFT_FILE_INDEX_SIZE, DEFAULT_REDSHIFT_FILE_INDEX_SIZE, properties);
+        REDSHIFT_FILE_INDEX_EXPECTED_FILES =
+                getIntegerProperty(PROP_REDSHIFT_FILE_INDEX_EXPECTED_FILES,
+                        DEFAULT_REDSHIFT_FILE_INDEX_EXPECTED_FILES,
+                        properties);
 
         // Amazon DynamoDB configuration
         DYNAMODB_ENDPOINT = properties.getProperty(PROP_DYNAMODB_ENDPOINT, DEFAULT_DYNAMODB_ENDPOINT);
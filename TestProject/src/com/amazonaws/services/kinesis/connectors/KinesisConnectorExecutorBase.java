@@ -70,18 +70,19 @@ public abstract class KinesisConnectorExecutorBase<T, U> implements Runnable {
             LOG.warn("The false value of callProcessRecordsEvenForEmptyList will be ignored. It must be set to true for the bufferTimeMillisecondsLimit to work correctly.");
         }
 
-        if (kinesisConnectorConfiguration.IDLE_TIME_BETWEEN_READS > kinesisConnectorConfiguration.BUFFER_MILLISECONDS_LIMIT) {
-            LOG.warn("idleTimeBetweenReads is greater than bufferTimeMillisecondsLimit. For best results, ensure that bufferTimeMillisecondsLimit is more than or equal to idleTimeBetweenReads ");
+        if (kinesisConnectorConfiguration.IDLE_TIME_BETWEEN_READS > kinesisConnectorConfiguration.BUFFER_MILLISECONDS_LIMIT
+                && !kinesisConnectorConfiguration.TIMED_FLUSH) {
+            LOG.warn("idleTimeBetweenReads is greater than bufferTimeMillisecondsLimit. For best results, ensure that bufferTimeMillisecondsLimit is more than or equal to idleTimeBetweenReads, or enable timedFlush.");
         }
 
         // If a metrics factory was specified, use it.
+        KinesisConnectorRecordProcessorFactory<T, U> recordProcessorFactory =
+                getKinesisConnectorRecordProcessorFactory();
         if (metricFactory != null) {
-            worker =
-                    new Worker(getKinesisConnectorRecordProcessorFactory(),
-                            kinesisClientLibConfiguration,
-                            metricFactory);
+            recordProcessorFactory.setMetricsFactory(metricFactory);
+            worker = new Worker(recordProcessorFactory, kinesisClientLibConfiguration, metricFactory);
         } else {
-            worker = new Worker(getKinesisConnectorRecordProcessorFactory(), kinesisClientLibConfiguration);
+            worker = new Worker(recordProcessorFactory, kinesisClientLibConfiguration);
         }
         LOG.info(getClass().getSimpleName() + " worker created");
     }
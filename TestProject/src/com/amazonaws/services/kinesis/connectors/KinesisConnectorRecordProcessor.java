@@ -14,14 +14,31 @@
  */
 package com.amazonaws.services.kinesis.connectors;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.InvalidStateException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.KinesisClientLibDependencyException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
@@ -29,12 +46,24 @@ import com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingExcepti
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
+import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
+import com.amazonaws.services.kinesis.connectors.impl.ExponentialBackoffRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.interfaces.IAsyncEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBatchTransformer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
 import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
 import com.amazonaws.services.kinesis.connectors.interfaces.ICollectionTransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.IMetricsAware;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRawBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.interfaces.IShardAware;
 import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
 import com.amazonaws.services.kinesis.connectors.interfaces.ITransformerBase;
+import com.amazonaws.services.kinesis.connectors.kinesis.AggregatedRecords;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
 import com.amazonaws.services.kinesis.model.Record;
 
 /**
@@ -51,12 +80,64 @@ import com.amazonaws.services.kinesis.model.Record;
  * <li>When the buffer is full (IBuffer.shouldFlush() returns true), records are transformed with the ITransformer to
  * the output type (parameter type U) and a call is made to IEmitter.emit(). IEmitter.emit() returning an empty list is
  * considered a success, so the record processor will checkpoint and emit will not be retried. Non-empty return values
- * will result in additional calls to emit with failed records as the unprocessed list until the retry limit is reached.
- * Upon exceeding the retry limit or an exception being thrown, the IEmitter.fail() method will be called with the
- * unprocessed records.</li>
+ * will result in additional calls to emit with failed records as the unprocessed list until the retry limit or the
+ * retryTimeBudget is reached, waiting between calls as decided by an ExponentialBackoffRetryPolicy. Upon exceeding
+ * the retry limit or an exception being thrown, the IEmitter.fail() method will be called with the unprocessed
+ * records. If the thread is interrupted while waiting to retry, the records are neither failed nor checkpointed. The
+ * number of retries and the time spent waiting are available from getEmitRetries() and getEmitBackoffMillis(), and
+ * are published as the EmitRetries and EmitBackoffTime metrics if a metrics factory is given.</li>
  * <li>When the shutdown() method of this class is invoked, a call is made to the IEmitter.shutdown() method which
  * should close any existing client connections.</li>
  * </ol>
+ * <p>
+ * When the processor is created from an IKinesisConnectorPipeline and asyncEmit is enabled, a full buffer is swapped
+ * for an empty one and handed to a per-shard emit thread, so records keep being read while the emit is in flight.
+ * The record processor checkpoints at the last sequence number of a buffer only once its emit, and the emits of all
+ * buffers before it, have finished. If an emit ends without its records being emitted or failed, for example because
+ * the emitter threw a RuntimeException, the buffer keeps its records and is emitted again after backoffInterval;
+ * nothing after it is checkpointed until it has finished. At most maxInFlightBuffers emits may be outstanding; once
+ * that limit is reached, processRecords() waits for the oldest one, which throttles reads from the shard. In this mode
+ * ITransformer.fromClass() is called on the emit thread.
+ * <p>
+ * If the emitter is an IAsyncEmitter, no emit thread is started: the record processor calls
+ * IAsyncEmitter.emitAsync() itself and checks the returned futures for completion, in order, whenever it processes
+ * records or waits for an in-flight buffer. Failed records are retried by a new emitAsync() call once the backoff has
+ * elapsed, so the emitter can pipeline the uploads of many shards on threads of its own.
+ * <p>
+ * When the buffer is an IRawBuffer, the pipeline's output type must be byte[]. Record payloads are stored in the
+ * buffer as they are and emitted unchanged, without calling ITransformer.fromClass(). With an ITransformer, records are
+ * only deserialized with toClass() if the filter is not an AllPassFilter.
+ * <p>
+ * Whether the transformer is an ITransformer, ICollectionTransformer or IBatchTransformer is resolved once, when the
+ * record processor is created. An IBatchTransformer is called once per processRecords() call with all of its records,
+ * and takes precedence if the transformer also implements ITransformer.
+ * <p>
+ * With transformThreads set, batches of more than transformChunkSize records are split into chunks that are
+ * transformed and filtered in parallel on a TransformExecutor shared by the record processors of the worker; the
+ * transformer and filter must then be thread-safe. The kept records are added to the buffer in their original order
+ * on the processRecords() thread, so sequence numbers are tracked as in the sequential case. Buffers of more than
+ * transformChunkSize records are likewise transformed to the output type with ITransformer.fromClass() in parallel
+ * chunks when they are flushed.
+ * <p>
+ * With timedFlush enabled, a non-empty buffer is flushed by a FlushScheduler shared by the record processors of the
+ * worker as soon as its bufferMillisecondsLimit expires, instead of on the first processRecords() call after that,
+ * so the latency of low-traffic shards does not depend on idleTimeBetweenReads. The timed flush checkpoints with the
+ * checkpointer of the last processRecords() call. It never runs while processRecords() is adding records to the
+ * buffer. Without asyncEmit, the emit of a timed flush may wait between retries, so the scheduler hands the flush to
+ * the EmitterExecutor of the worker instead of running it on its own thread.
+ * <p>
+ * With workerBufferByteLimit set, the buffers of all record processors of the worker draw from one MemoryBudget. When
+ * it is nearly used up, the largest buffer is flushed early, as a timed flush would be, and when it is used up,
+ * processRecords() waits for emits to complete before buffering more records.
+ * <p>
+ * Aggregated records written by a KinesisBatchProducer with aggregation enabled, or by the Amazon Kinesis Producer
+ * Library, are split into their user records before they are transformed, so ITransformer.toClass() always sees one
+ * user record. User records carry the sequence number of their aggregated record and their own data size. The buffer
+ * is only checked for a flush once all records passed to processRecords() are consumed, so a checkpoint never falls
+ * between the user records of an aggregated record.
+ * <p>
+ * Pipeline components implementing IShardAware are initialized with the shard id, and buffers implementing Closeable
+ * are closed when the record processor shuts down.
  * 
  */
 public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
@@ -64,19 +145,153 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
     private final IEmitter<U> emitter;
     private final ITransformerBase<T, U> transformer;
     private final IFilter<T> filter;
-    private final IBuffer<T> buffer;
-    private final int retryLimit;
-    private final long backoffInterval;
+    private final IKinesisConnectorPipeline<T, U> pipeline;
+    private final KinesisConnectorConfiguration configuration;
+    private final IRetryPolicy retryPolicy;
+    private final IMetricsFactory metricsFactory;
+    private final boolean asyncEmit;
+    // The emitter if it is an IAsyncEmitter and asyncEmit is enabled, in which case no emit thread is started
+    private final IAsyncEmitter<U> asyncEmitter;
+    private final int maxInFlightBuffers;
+    // True if records can be stored in an IRawBuffer without deserializing them
+    private final boolean filterAcceptsAll;
+    private final TransformerKind transformerKind;
+    private final boolean rawBuffer;
+    // Shared pool for transforming large batches in parallel, or null
+    private final TransformExecutor transformExecutor;
+    private final int transformChunkSize;
+    // Shared scheduler flushing buffers when their time limit expires or the memory budget runs low, or null
+    private final FlushScheduler flushScheduler;
+    private final boolean timedFlushEnabled;
+    // Shared pool running the timed and early flushes of synchronous emits off the scheduler thread, or null
+    private final EmitterExecutor flushExecutor;
+    // Shared byte budget of the buffers of the worker and the share of this record processor, or null
+    private final MemoryBudget memoryBudget;
+    private final MemoryBudget.Account memoryAccount;
 
     private static final Log LOG = LogFactory.getLog(KinesisConnectorRecordProcessor.class);
+    // Marks an item that could not be transformed to the output type by a parallel chunk
+    private static final Object TRANSFORM_FAILED = new Object();
+    private static final String EMIT_RETRIES_METRIC = "EmitRetries";
+    private static final String EMIT_BACKOFF_METRIC = "EmitBackoffTime";
+    private static final long MIN_FLUSH_DELAY_MILLIS = 10L;
 
     private String shardId;
+    private IBuffer<T> buffer;
+
+    // Emptied buffers returned by the emit thread, ready to be swapped in again
+    private final Queue<IBuffer<T>> spareBuffers = new ConcurrentLinkedQueue<IBuffer<T>>();
+    // Outstanding emits in submission order, each yielding the last sequence number of its buffer
+    private final Queue<InFlightEmit> inFlightEmits = new ArrayDeque<InFlightEmit>();
+    private final AtomicLong emitRetries = new AtomicLong();
+    private final AtomicLong emitBackoffMillis = new AtomicLong();
+    private ExecutorService emitExecutor;
+
+    // Held while records are added to the buffer or the buffer is flushed, so that timed flushes run in between
+    private final Object flushLock = new Object();
+    // Guarded by flushLock
+    private ScheduledFuture<?> scheduledFlush;
+    private IRecordProcessorCheckpointer lastCheckpointer;
+    private long lastFlushMillis;
+    private boolean shutDown;
+    // Bytes added to the buffer and not yet charged to the memory account
+    private long unchargedBytes;
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (flushLock) {
+                scheduledFlush = null;
+                if (shutDown) {
+                    return;
+                }
+                if (buffer.shouldFlush()) {
+                    flush(lastCheckpointer);
+                }
+                scheduleFlush();
+            }
+        }
+    };
+
+    private final AtomicBoolean earlyFlushPending = new AtomicBoolean();
+    private final Runnable earlyFlush = new Runnable() {
+        @Override
+        public void run() {
+            earlyFlushPending.set(false);
+            synchronized (flushLock) {
+                if (!shutDown && lastCheckpointer != null && !buffer.getRecords().isEmpty()) {
+                    flush(lastCheckpointer);
+                }
+            }
+        }
+    };
+    // The flushes as run by the FlushScheduler
+    private final Runnable scheduledTimedFlush;
+    private final Runnable scheduledEarlyFlush;
+    // Called by the memory budget, possibly while another record processor holds its flushLock
+    private final Runnable flushRequest = new Runnable() {
+        @Override
+        public void run() {
+            if (earlyFlushPending.compareAndSet(false, true)) {
+                try {
+                    flushScheduler.schedule(scheduledEarlyFlush, 0L);
+                } catch (RejectedExecutionException e) {
+                    earlyFlushPending.set(false);
+                }
+            }
+        }
+    };
 
     public KinesisConnectorRecordProcessor(IBuffer<T> buffer,
             IFilter<T> filter,
             IEmitter<U> emitter,
             ITransformerBase<T, U> transformer,
             KinesisConnectorConfiguration configuration) {
+        this(buffer, filter, emitter, transformer, configuration, null, null);
+    }
+
+    /**
+     * Create a record processor from the pipeline. Unlike the other constructor, this allows the processor to obtain
+     * additional buffers from the pipeline, which is required for asynchronous emits.
+     * 
+     * @param pipeline
+     *        the pipeline providing the buffer, filter, emitter and transformer
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     */
+    public KinesisConnectorRecordProcessor(IKinesisConnectorPipeline<T, U> pipeline,
+            KinesisConnectorConfiguration configuration) {
+        this(pipeline, configuration, null);
+    }
+
+    /**
+     * Create a record processor from the pipeline that publishes its emit retry metrics.
+     * 
+     * @param pipeline
+     *        the pipeline providing the buffer, filter, emitter and transformer
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param metricsFactory
+     *        factory used to publish the EmitRetries and EmitBackoffTime metrics, or null
+     */
+    public KinesisConnectorRecordProcessor(IKinesisConnectorPipeline<T, U> pipeline,
+            KinesisConnectorConfiguration configuration,
+            IMetricsFactory metricsFactory) {
+        this(pipeline.getBuffer(configuration),
+                pipeline.getFilter(configuration),
+                pipeline.getEmitter(configuration),
+                pipeline.getTransformer(configuration),
+                configuration,
+                pipeline,
+                metricsFactory);
+    }
+
+    private KinesisConnectorRecordProcessor(IBuffer<T> buffer,
+            IFilter<T> filter,
+            IEmitter<U> emitter,
+            ITransformerBase<T, U> transformer,
+            KinesisConnectorConfiguration configuration,
+            IKinesisConnectorPipeline<T, U> pipeline,
+            IMetricsFactory metricsFactory) {
         if (buffer == null || filter == null || emitter == null || transformer == null) {
             throw new IllegalArgumentException("buffer, filter, emitter, and transformer must not be null");
         }
@@ -84,18 +299,81 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
         this.filter = filter;
         this.emitter = emitter;
         this.transformer = transformer;
-        // Limit must be greater than zero
-        if (configuration.RETRY_LIMIT <= 0) {
-            retryLimit = 1;
-        } else {
-            retryLimit = configuration.RETRY_LIMIT;
+        this.pipeline = pipeline;
+        this.configuration = configuration;
+        this.metricsFactory = metricsFactory;
+        // At least one attempt is made even if the limit is not positive
+        this.retryPolicy = new ExponentialBackoffRetryPolicy(configuration);
+        if (configuration.ASYNC_EMIT && pipeline == null) {
+            LOG.warn("asyncEmit requires a record processor created from an IKinesisConnectorPipeline. "
+                    + "Emitting synchronously.");
+        }
+        this.asyncEmit = configuration.ASYNC_EMIT && pipeline != null;
+        this.asyncEmitter = asyncEmit && emitter instanceof IAsyncEmitter ? (IAsyncEmitter<U>) emitter : null;
+        this.maxInFlightBuffers = Math.max(1, configuration.MAX_IN_FLIGHT_BUFFERS);
+        this.filterAcceptsAll = filter instanceof AllPassFilter;
+        this.transformerKind = TransformerKind.of(transformer);
+        // Buffers obtained from the pipeline later are of the same class, so this holds for all of them
+        this.rawBuffer = buffer instanceof IRawBuffer;
+        this.transformChunkSize = Math.max(1, configuration.TRANSFORM_CHUNK_SIZE);
+        this.transformExecutor =
+                configuration.TRANSFORM_THREADS > 0 ? TransformExecutor.forConfiguration(configuration) : null;
+        this.timedFlushEnabled = configuration.TIMED_FLUSH;
+        this.memoryBudget =
+                configuration.WORKER_BUFFER_BYTE_LIMIT > 0 ? MemoryBudget.forConfiguration(configuration) : null;
+        this.flushScheduler =
+                timedFlushEnabled || memoryBudget != null ? FlushScheduler.forConfiguration(configuration) : null;
+        this.flushExecutor =
+                flushScheduler != null && !asyncEmit ? EmitterExecutor.forConfiguration(configuration) : null;
+        this.scheduledTimedFlush = onFlushThread(timedFlush);
+        this.scheduledEarlyFlush = onFlushThread(earlyFlush);
+        // Opened last, as the budget may request a flush right away
+        this.memoryAccount = memoryBudget != null ? memoryBudget.open(flushRequest) : null;
+        initializeMetricsAware(buffer);
+        initializeMetricsAware(filter);
+        initializeMetricsAware(emitter);
+        initializeMetricsAware(transformer);
+    }
+
+    /**
+     * The transformer interface used to transform records, resolved once per record processor.
+     */
+    private enum TransformerKind {
+        SINGLE, COLLECTION, BATCH;
+
+        static TransformerKind of(ITransformerBase<?, ?> transformer) {
+            if (transformer instanceof IBatchTransformer) {
+                return BATCH;
+            } else if (transformer instanceof ITransformer) {
+                return SINGLE;
+            } else if (transformer instanceof ICollectionTransformer) {
+                return COLLECTION;
+            }
+            throw new IllegalArgumentException(
+                    "Transformer must implement ITransformer, ICollectionTransformer or IBatchTransformer");
         }
-        this.backoffInterval = configuration.BACKOFF_INTERVAL;
     }
 
     @Override
-    public void initialize(String shardId) {
+    public void initialize(final String shardId) {
         this.shardId = shardId;
+        synchronized (flushLock) {
+            lastFlushMillis = System.currentTimeMillis();
+        }
+        initializeShardAware(buffer);
+        initializeShardAware(filter);
+        initializeShardAware(emitter);
+        initializeShardAware(transformer);
+        if (asyncEmit && asyncEmitter == null) {
+            emitExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "KinesisConnectorEmitter-" + shardId);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
     }
 
     @Override
@@ -107,90 +385,999 @@ public class KinesisConnectorRecordProcessor<T, U> implements IRecordProcessor {
             throw new IllegalStateException("Record processor not initialized");
         }
 
-        // Transform each Amazon Kinesis Record and add the result to the buffer
-        for (Record record : records) {
+        if (memoryAccount != null) {
+            awaitMemory();
+        }
+        synchronized (flushLock) {
+            if (asyncEmit) {
+                checkpointCompletedEmits(checkpointer);
+            }
+
+            // Transform each Amazon Kinesis Record and add the result to the buffer
+            List<Record> userRecords = deaggregate(records);
+            if (transformExecutor != null && userRecords.size() > transformChunkSize
+                    && !(rawBuffer && filterAcceptsAll)) {
+                processInParallel(userRecords);
+            } else if (transformerKind == TransformerKind.BATCH) {
+                processBatch(userRecords);
+            } else {
+                for (Record record : userRecords) {
+                    processRecord(record);
+                }
+            }
+            if (memoryAccount != null) {
+                memoryAccount.add(unchargedBytes);
+            }
+            unchargedBytes = 0;
+
+            lastCheckpointer = checkpointer;
+            if (buffer.shouldFlush()) {
+                flush(checkpointer);
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Waits while the memory budget is used up. The buffer of this record processor is flushed early on the
+     * FlushScheduler if it is the largest, so flushLock must not be held.
+     */
+    private void awaitMemory() {
+        try {
+            memoryAccount.awaitCapacity();
+        } catch (InterruptedException e) {
+            // Shutting down; buffer the records read so that they are emitted or read again
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Emits the buffer, or hands it to the emit thread if asyncEmit is enabled. Called with flushLock held.
+     */
+    private void flush(IRecordProcessorCheckpointer checkpointer) {
+        if (asyncEmit) {
+            emitAsync(checkpointer);
+        } else {
+            List<U> emitItems = getOutputRecords(buffer);
+            emit(checkpointer, emitItems);
+        }
+        lastFlushMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the task the FlushScheduler runs for a flush. The scheduler thread is shared by all record processors of
+     * the worker, so a synchronous emit, which may wait between retries, is handed to the EmitterExecutor instead.
+     */
+    private Runnable onFlushThread(final Runnable flush) {
+        if (flushExecutor == null) {
+            return flush;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushExecutor.submit(Executors.callable(flush));
+                } catch (RejectedExecutionException e) {
+                    // The pool is shut down; the record processor is shut down as well, so the flush only resets
+                    // its state
+                    flush.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Schedules a timed flush for when the time limit of a non-empty buffer expires, unless one is scheduled already.
+     * Called with flushLock held.
+     */
+    private void scheduleFlush() {
+        if (!timedFlushEnabled || scheduledFlush != null || shutDown || buffer.getRecords().isEmpty()) {
+            return;
+        }
+        long millisecondsToBuffer = buffer.getMillisecondsToBuffer();
+        if (millisecondsToBuffer > Long.MAX_VALUE - lastFlushMillis) {
+            // No time limit, such as the default of Long.MAX_VALUE; the deadline would overflow
+            return;
+        }
+        long deadline = lastFlushMillis + millisecondsToBuffer;
+        // The buffer keeps its own flush time; if it disagrees slightly, check again shortly
+        long delay = Math.max(MIN_FLUSH_DELAY_MILLIS, deadline - System.currentTimeMillis());
+        try {
+            scheduledFlush = flushScheduler.schedule(scheduledTimedFlush, delay);
+        } catch (RejectedExecutionException e) {
+            // The scheduler is shut down; the worker is shutting down
+        }
+    }
+
+    /**
+     * @return the records with each aggregated record replaced by its user records
+     */
+    private List<Record> deaggregate(List<Record> records) {
+        List<Record> userRecords = null;
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            List<Record> split;
             try {
-                if (transformer instanceof ITransformer) {
-                    ITransformer<T, U> singleTransformer = (ITransformer<T, U>) transformer;
-                    filterAndBufferRecord(singleTransformer.toClass(record), record);
-                } else if (transformer instanceof ICollectionTransformer) {
-                    ICollectionTransformer<T, U> listTransformer = (ICollectionTransformer<T, U>) transformer;
-                    Collection<T> transformedRecords = listTransformer.toClass(record);
-                    for (T transformedRecord : transformedRecords) {
-                        filterAndBufferRecord(transformedRecord, record);
+                split = AggregatedRecords.deaggregate(record);
+            } catch (IOException e) {
+                LOG.error(e);
+                split = Collections.emptyList();
+            }
+            if (split != null && userRecords == null) {
+                // First aggregated record; copy the plain records before it
+                userRecords = new ArrayList<Record>(records.size() + split.size());
+                userRecords.addAll(records.subList(0, i));
+            }
+            if (split != null) {
+                userRecords.addAll(split);
+            } else if (userRecords != null) {
+                userRecords.add(record);
+            }
+        }
+        return userRecords == null ? records : userRecords;
+    }
+
+    /**
+     * Transforms a record with an ITransformer or ICollectionTransformer and adds the result to the buffer.
+     */
+    private void processRecord(Record record) {
+        try {
+            if (transformerKind == TransformerKind.SINGLE) {
+                ITransformer<T, U> singleTransformer = (ITransformer<T, U>) transformer;
+                if (rawBuffer) {
+                    filterAndBufferRawRecord(singleTransformer, record);
+                } else {
+                    filterAndBufferRecord(singleTransformer.toClass(record), record, record.getData().remaining());
+                }
+            } else {
+                ICollectionTransformer<T, U> listTransformer = (ICollectionTransformer<T, U>) transformer;
+                Collection<T> transformedRecords = listTransformer.toClass(record);
+                // Each element is accounted for with its share of the record's size
+                int recordSize = record.getData().remaining() / Math.max(1, transformedRecords.size());
+                for (T transformedRecord : transformedRecords) {
+                    filterAndBufferRecord(transformedRecord, record, recordSize);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error(e);
+        }
+    }
+
+    /**
+     * Transforms the records with one IBatchTransformer call and adds the results to the buffer.
+     */
+    private void processBatch(List<Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (rawBuffer && filterAcceptsAll) {
+            for (Record record : records) {
+                bufferRawRecord(record);
+            }
+            return;
+        }
+        List<T> transformedRecords;
+        try {
+            transformedRecords = ((IBatchTransformer<T, U>) transformer).toClass(records);
+        } catch (IOException e) {
+            LOG.error("Failed to transform " + records.size() + " records", e);
+            return;
+        }
+        if (transformedRecords.size() != records.size()) {
+            throw new IllegalStateException("IBatchTransformer returned " + transformedRecords.size()
+                    + " records for " + records.size() + " input records");
+        }
+        for (int i = 0; i < records.size(); i++) {
+            T transformedRecord = transformedRecords.get(i);
+            if (transformedRecord == null || !filter.keepRecord(transformedRecord)) {
+                continue;
+            }
+            Record record = records.get(i);
+            if (rawBuffer) {
+                bufferRawRecord(record);
+            } else {
+                bufferRecord(transformedRecord, record.getData().remaining(), record);
+            }
+        }
+    }
+
+    /**
+     * Transforms and filters chunks of transformChunkSize records on the shared TransformExecutor, running the first
+     * chunk on the calling thread, then adds the kept records to the buffer in their original order.
+     */
+    private void processInParallel(final List<Record> records) {
+        final int count = records.size();
+        // For each record, the kept T, or for an ICollectionTransformer the list of kept elements, or null
+        final Object[] transformed = new Object[count];
+        final int[] sizes = new int[count];
+        runInChunks(count, new RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                transformRange(records, from, to, transformed, sizes);
+            }
+        });
+
+        for (int i = 0; i < count; i++) {
+            Object result = transformed[i];
+            if (result == null) {
+                continue;
+            }
+            Record record = records.get(i);
+            if (transformerKind == TransformerKind.COLLECTION) {
+                for (T transformedRecord : (List<T>) result) {
+                    bufferRecord(transformedRecord, sizes[i], record);
+                }
+            } else if (rawBuffer) {
+                bufferRawRecord(record);
+            } else {
+                bufferRecord((T) result, sizes[i], record);
+            }
+        }
+    }
+
+    /**
+     * A task over the items [from, to) of a list, run on the TransformExecutor.
+     */
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the task over chunks of transformChunkSize items, the first on the calling thread and the others on the
+     * TransformExecutor, and waits for all of them.
+     */
+    private void runInChunks(int count, final RangeTask task) {
+        List<Future<Void>> chunks = new ArrayList<Future<Void>>();
+        for (int from = transformChunkSize; from < count; from += transformChunkSize) {
+            final int chunkFrom = from;
+            final int chunkTo = Math.min(count, from + transformChunkSize);
+            Callable<Void> chunk = new Callable<Void>() {
+                @Override
+                public Void call() {
+                    task.run(chunkFrom, chunkTo);
+                    return null;
+                }
+            };
+            try {
+                chunks.add(transformExecutor.submit(chunk));
+            } catch (RejectedExecutionException e) {
+                // The pool is shut down; the worker is shutting down
+                task.run(chunkFrom, chunkTo);
+            }
+        }
+        task.run(0, Math.min(count, transformChunkSize));
+        awaitChunks(chunks);
+    }
+
+    private void awaitChunks(List<Future<Void>> chunks) {
+        for (Future<Void> chunk : chunks) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    chunk.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Records must not be skipped, so keep waiting and restore the interrupt afterwards
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException("Failed to transform records", e.getCause());
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Transforms and filters records [from, to), storing the kept results and their sizes at the records' indexes.
+     * Runs on the TransformExecutor, so the transformer and filter must be thread-safe.
+     */
+    private void transformRange(List<Record> records, int from, int to, Object[] transformed, int[] sizes) {
+        if (transformerKind == TransformerKind.BATCH) {
+            List<Record> chunk = records.subList(from, to);
+            List<T> results;
+            try {
+                results = ((IBatchTransformer<T, U>) transformer).toClass(chunk);
+            } catch (IOException e) {
+                LOG.error("Failed to transform " + chunk.size() + " records", e);
+                return;
+            }
+            if (results.size() != chunk.size()) {
+                throw new IllegalStateException("IBatchTransformer returned " + results.size() + " records for "
+                        + chunk.size() + " input records");
+            }
+            for (int i = from; i < to; i++) {
+                T result = results.get(i - from);
+                if (result != null && filter.keepRecord(result)) {
+                    transformed[i] = result;
+                    sizes[i] = records.get(i).getData().remaining();
+                }
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            Record record = records.get(i);
+            try {
+                if (transformerKind == TransformerKind.SINGLE) {
+                    T result = ((ITransformer<T, U>) transformer).toClass(record);
+                    if (filter.keepRecord(result)) {
+                        transformed[i] = result;
+                        sizes[i] = record.getData().remaining();
                     }
                 } else {
-                    throw new RuntimeException("Transformer must implement ITransformer or ICollectionTransformer");
+                    Collection<T> results = ((ICollectionTransformer<T, U>) transformer).toClass(record);
+                    List<T> kept = new ArrayList<T>(results.size());
+                    for (T result : results) {
+                        if (filter.keepRecord(result)) {
+                            kept.add(result);
+                        }
+                    }
+                    transformed[i] = kept;
+                    sizes[i] = record.getData().remaining() / Math.max(1, results.size());
                 }
             } catch (IOException e) {
                 LOG.error(e);
             }
         }
+    }
 
-        if (buffer.shouldFlush()) {
-            List<U> emitItems = transformToOutput(buffer.getRecords());
-            emit(checkpointer, emitItems);
+    private void filterAndBufferRecord(T transformedRecord, Record record, int recordSize) {
+        if (filter.keepRecord(transformedRecord)) {
+            bufferRecord(transformedRecord, recordSize, record);
         }
     }
 
-    private void filterAndBufferRecord(T transformedRecord, Record record) {
-        if (filter.keepRecord(transformedRecord)) {
-            buffer.consumeRecord(transformedRecord, record.getData().array().length, record.getSequenceNumber());
+    private void bufferRecord(T transformedRecord, int recordSize, Record record) {
+        buffer.consumeRecord(transformedRecord, recordSize, record.getSequenceNumber());
+        unchargedBytes += recordSize;
+    }
+
+    private void bufferRawRecord(Record record) {
+        ((IRawBuffer<T>) buffer).consumeRawRecord(record.getData(), record.getSequenceNumber());
+        unchargedBytes += record.getData().remaining();
+    }
+
+    private void filterAndBufferRawRecord(ITransformer<T, U> singleTransformer, Record record) throws IOException {
+        if (filterAcceptsAll || filter.keepRecord(singleTransformer.toClass(record))) {
+            bufferRawRecord(record);
         }
     }
 
-    private List<U> transformToOutput(List<T> items) {
-        List<U> emitItems = new ArrayList<U>();
-        for (T item : items) {
-            try {
-                emitItems.add(transformer.fromClass(item));
-            } catch (IOException e) {
-                LOG.error("Failed to transform record " + item + " to output type", e);
+    /**
+     * @return the stored payloads if the buffer is an IRawBuffer, otherwise the buffered records transformed to the
+     *         output type
+     */
+    @SuppressWarnings("unchecked")
+    private List<U> getOutputRecords(IBuffer<T> source) {
+        if (source instanceof IRawBuffer) {
+            // The output type is byte[] in pipelines using an IRawBuffer
+            return (List<U>) ((IRawBuffer<T>) source).getRawRecords();
+        }
+        return transformToOutput(source.getRecords());
+    }
+
+    private List<U> transformToOutput(final List<T> items) {
+        if (transformExecutor == null || items.size() <= transformChunkSize) {
+            List<U> emitItems = new ArrayList<U>(items.size());
+            for (T item : items) {
+                try {
+                    emitItems.add(transformer.fromClass(item));
+                } catch (IOException e) {
+                    LOG.error("Failed to transform record " + item + " to output type", e);
+                }
+            }
+            return emitItems;
+        }
+        // Chunks write disjoint slots, which are then collected in the original order
+        final Object[] transformed = new Object[items.size()];
+        runInChunks(items.size(), new RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    T item = items.get(i);
+                    try {
+                        transformed[i] = transformer.fromClass(item);
+                    } catch (IOException e) {
+                        LOG.error("Failed to transform record " + item + " to output type", e);
+                        transformed[i] = TRANSFORM_FAILED;
+                    }
+                }
+            }
+        });
+        List<U> emitItems = new ArrayList<U>(transformed.length);
+        for (Object emitItem : transformed) {
+            if (emitItem != TRANSFORM_FAILED) {
+                emitItems.add((U) emitItem);
             }
         }
         return emitItems;
     }
 
     private void emit(IRecordProcessorCheckpointer checkpointer, List<U> emitItems) {
-        List<U> unprocessed = new ArrayList<U>(emitItems);
+        if (!emitRecords(buffer, emitItems)) {
+            return;
+        }
+        buffer.clear();
+        if (memoryAccount != null) {
+            memoryAccount.release(memoryAccount.startEmit());
+        }
         try {
-            for (int numTries = 0; numTries < retryLimit; numTries++) {
+            // checkpoint once all the records have been consumed
+            checkpointer.checkpoint();
+        } catch (KinesisClientLibDependencyException | InvalidStateException | ThrottlingException
+                | ShutdownException e) {
+            LOG.error(e);
+        }
+    }
 
-                unprocessed = emitter.emit(new UnmodifiableBuffer<U>(buffer, unprocessed));
+    /**
+     * Emits the records of the given buffer, retrying up to the retry limit and passing records that could not be
+     * emitted to IEmitter.fail().
+     * 
+     * @return false if the emitter threw an IOException
+     */
+    private boolean emitRecords(IBuffer<T> source, List<U> emitItems) {
+        List<U> unprocessed = emitItems;
+        long start = System.currentTimeMillis();
+        int retries = 0;
+        long backoffMillis = 0;
+        try {
+            while (true) {
+                unprocessed = emitter.emit(new UnmodifiableBuffer<U>(source, unprocessed));
                 if (unprocessed.isEmpty()) {
                     break;
                 }
+                if (unprocessed.size() == emitItems.size()) {
+                    // Every record failed; retry with the original list so emitters can still use the raw payloads
+                    unprocessed = emitItems;
+                }
+                long delay = retryPolicy.getDelayMillis(retries, System.currentTimeMillis() - start);
+                if (delay == IRetryPolicy.NO_RETRY) {
+                    break;
+                }
                 try {
-                    Thread.sleep(backoffInterval);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e) {
+                    // Shutting down; the records are neither failed nor checkpointed, so they will be read again
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while waiting to retry emitting " + unprocessed.size()
+                            + " records for shard " + shardId);
+                    return false;
                 }
+                retries++;
+                backoffMillis += delay;
             }
             if (!unprocessed.isEmpty()) {
                 emitter.fail(unprocessed);
             }
-            buffer.clear();
-            // checkpoint once all the records have been consumed
-            checkpointer.checkpoint();
-        } catch (IOException | KinesisClientLibDependencyException | InvalidStateException | ThrottlingException
-                | ShutdownException e) {
+            return true;
+        } catch (IOException e) {
             LOG.error(e);
             emitter.fail(unprocessed);
+            return false;
+        } finally {
+            recordRetries(retries, backoffMillis);
         }
     }
 
-    @Override
-    public void shutdown(IRecordProcessorCheckpointer checkpointer, ShutdownReason reason) {
-        switch (reason) {
-            case TERMINATE:
-                emit(checkpointer, transformToOutput(buffer.getRecords()));
+    private void recordRetries(int retries, long backoffMillis) {
+        emitRetries.addAndGet(retries);
+        emitBackoffMillis.addAndGet(backoffMillis);
+        if (metricsFactory != null) {
+            IMetricsScope scope = metricsFactory.createMetrics();
+            scope.addData(EMIT_RETRIES_METRIC, retries, StandardUnit.Count);
+            scope.addData(EMIT_BACKOFF_METRIC, backoffMillis, StandardUnit.Milliseconds);
+            scope.end();
+        }
+    }
+
+    /**
+     * @return the number of emit retries made by this record processor
+     */
+    public long getEmitRetries() {
+        return emitRetries.get();
+    }
+
+    /**
+     * @return the total time this record processor waited between emit retries, in milliseconds
+     */
+    public long getEmitBackoffMillis() {
+        return emitBackoffMillis.get();
+    }
+
+    /**
+     * Swaps the full buffer for an empty one and submits it to the emit thread. Blocks while maxInFlightBuffers
+     * emits are outstanding.
+     */
+    private void emitAsync(IRecordProcessorCheckpointer checkpointer) {
+        while (inFlightEmits.size() >= maxInFlightBuffers && !shutDown) {
+            if (!awaitEmit(inFlightEmits.peek())) {
                 break;
-            case ZOMBIE:
+            }
+            checkpointCompletedEmits(checkpointer);
+        }
+        final IBuffer<T> fullBuffer = buffer;
+        final long fullBufferBytes = memoryAccount != null ? memoryAccount.startEmit() : 0L;
+        buffer = nextBuffer();
+        if (asyncEmitter != null) {
+            inFlightEmits.add(new PendingEmit(fullBuffer, fullBufferBytes));
+        } else {
+            inFlightEmits.add(new ThreadEmit(fullBuffer, fullBufferBytes));
+        }
+    }
+
+    /**
+     * A buffer handed off to be emitted while the record processor goes on reading. Accessed with flushLock held.
+     */
+    private abstract class InFlightEmit {
+        final IBuffer<T> fullBuffer;
+        private final long fullBufferBytes;
+        // Guarded by this
+        private boolean released;
+
+        InFlightEmit(IBuffer<T> fullBuffer, long fullBufferBytes) {
+            this.fullBuffer = fullBuffer;
+            this.fullBufferBytes = fullBufferBytes;
+        }
+
+        /**
+         * @return true once the emit has finished, successfully or not, without waiting for it
+         */
+        abstract boolean isDone();
+
+        /**
+         * Waits until isDone() returns true.
+         */
+        abstract void awaitDone() throws InterruptedException;
+
+        /**
+         * Called once isDone() returns true. Reports a failure of the emit.
+         * 
+         * @return the last sequence number of the buffer, or null if the records were neither emitted nor failed
+         */
+        abstract String getLastSequenceNumber();
+
+        /**
+         * Emits the buffer again after backoffInterval, once getLastSequenceNumber() has returned null.
+         */
+        abstract void restart();
+
+        /**
+         * Stops the emit. The records are neither failed nor checkpointed, so they will be read again.
+         */
+        abstract void cancel();
+
+        /**
+         * Returns the cleared buffer for reuse once its records have been emitted or failed.
+         */
+        synchronized void recycle() {
+            if (released) {
+                return;
+            }
+            released = true;
+            fullBuffer.clear();
+            spareBuffers.add(fullBuffer);
+            if (memoryAccount != null) {
+                memoryAccount.release(fullBufferBytes);
+            }
+        }
+
+        /**
+         * Gives up the buffer of a cancelled emit. Its records are kept, so a buffer that recovers its records can
+         * find them, but the buffer is only closed if no emit can still be reading it.
+         */
+        synchronized void abandon(boolean closeBuffer) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (memoryAccount != null) {
+                memoryAccount.release(fullBufferBytes);
+            }
+            if (closeBuffer) {
+                closeBuffer(fullBuffer);
+            }
+        }
+    }
+
+    /**
+     * An emit run with emitRecords() on the emit thread of the record processor.
+     */
+    private class ThreadEmit extends InFlightEmit {
+        private Future<String> future;
+        // Guarded by this
+        private boolean running;
+        private boolean cancelled;
+
+        ThreadEmit(IBuffer<T> fullBuffer, long fullBufferBytes) {
+            super(fullBuffer, fullBufferBytes);
+            submit(0L);
+        }
+
+        private void submit(final long delayMillis) {
+            future = emitExecutor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    synchronized (ThreadEmit.this) {
+                        if (cancelled) {
+                            return null;
+                        }
+                        running = true;
+                    }
+                    boolean finished = false;
+                    try {
+                        if (delayMillis > 0) {
+                            try {
+                                Thread.sleep(delayMillis);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return null;
+                            }
+                        }
+                        if (!emitRecords(fullBuffer, getOutputRecords(fullBuffer))
+                                && Thread.currentThread().isInterrupted()) {
+                            // Interrupted while waiting to retry; do not checkpoint the buffer
+                            return null;
+                        }
+                        finished = true;
+                        return fullBuffer.getLastSequenceNumber();
+                    } finally {
+                        synchronized (ThreadEmit.this) {
+                            running = false;
+                            if (finished) {
+                                recycle();
+                            } else if (cancelled) {
+                                abandon(true);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        void awaitDone() throws InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException | CancellationException e) {
+                // Reported by getLastSequenceNumber
+            }
+        }
+
+        @Override
+        String getLastSequenceNumber() {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.error("Emit failed for shard " + shardId, e.getCause());
+            } catch (CancellationException e) {
+                // Cancelled on shutdown
+            }
+            return null;
+        }
+
+        @Override
+        void restart() {
+            submit(Math.max(0L, configuration.BACKOFF_INTERVAL));
+        }
+
+        @Override
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (!running) {
+                    abandon(true);
+                }
+            }
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * An emit started with IAsyncEmitter.emitAsync(). It is advanced by the record processor whenever it checks for
+     * completed emits: when the future of an attempt has completed, failed records are retried with a new attempt once
+     * the delay of the retry policy has elapsed, as emitRecords() does synchronously.
+     */
+    private class PendingEmit extends InFlightEmit {
+        private final List<U> emitItems;
+        private long start = System.currentTimeMillis();
+        private List<U> unprocessed;
+        private Future<List<U>> attempt;
+        // Time at which the next attempt is due while waiting to retry, otherwise 0
+        private long retryAtMillis;
+        private int retries;
+        private long backoffMillis;
+        private boolean done;
+        private String lastSequenceNumber;
+        private Throwable failure;
+
+        PendingEmit(IBuffer<T> fullBuffer, long fullBufferBytes) {
+            super(fullBuffer, fullBufferBytes);
+            emitItems = getOutputRecords(fullBuffer);
+            unprocessed = emitItems;
+            startAttempt();
+        }
+
+        private void startAttempt() {
+            try {
+                attempt = asyncEmitter.emitAsync(new UnmodifiableBuffer<U>(fullBuffer, unprocessed));
+            } catch (RuntimeException e) {
+                complete(null, e);
+            }
+        }
+
+        /**
+         * Moves the emit forward as far as possible, waiting for the current attempt or retry delay if block is true.
+         */
+        private void advance(boolean block) throws InterruptedException {
+            while (!done) {
+                if (retryAtMillis > 0) {
+                    long wait = retryAtMillis - System.currentTimeMillis();
+                    if (wait > 0) {
+                        if (!block) {
+                            return;
+                        }
+                        Thread.sleep(wait);
+                    }
+                    retryAtMillis = 0;
+                    retries++;
+                    startAttempt();
+                    continue;
+                }
+                if (!block && !attempt.isDone()) {
+                    return;
+                }
+                List<U> failed;
+                try {
+                    failed = attempt.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        LOG.error(e.getCause());
+                        emitter.fail(unprocessed);
+                        complete(fullBuffer.getLastSequenceNumber(), null);
+                    } else {
+                        complete(null, e.getCause());
+                    }
+                    continue;
+                } catch (CancellationException e) {
+                    complete(null, e);
+                    continue;
+                }
+                if (failed.isEmpty()) {
+                    complete(fullBuffer.getLastSequenceNumber(), null);
+                    continue;
+                }
+                // Every record failed; retry with the original list so emitters can still use the raw payloads
+                unprocessed = failed.size() == emitItems.size() ? emitItems : failed;
+                long delay = retryPolicy.getDelayMillis(retries, System.currentTimeMillis() - start);
+                if (delay == IRetryPolicy.NO_RETRY) {
+                    emitter.fail(unprocessed);
+                    complete(fullBuffer.getLastSequenceNumber(), null);
+                    continue;
+                }
+                backoffMillis += delay;
+                retryAtMillis = System.currentTimeMillis() + delay;
+            }
+        }
+
+        private void complete(String sequenceNumber, Throwable cause) {
+            done = true;
+            lastSequenceNumber = sequenceNumber;
+            failure = cause;
+            recordRetries(retries, backoffMillis);
+            if (sequenceNumber != null) {
+                recycle();
+            }
+        }
+
+        @Override
+        boolean isDone() {
+            try {
+                advance(false);
+            } catch (InterruptedException e) {
+                // Not reached, advance(false) does not wait
+                Thread.currentThread().interrupt();
+            }
+            return done;
+        }
+
+        @Override
+        void awaitDone() throws InterruptedException {
+            advance(true);
+        }
+
+        @Override
+        String getLastSequenceNumber() {
+            if (failure != null && !(failure instanceof CancellationException)) {
+                LOG.error("Emit failed for shard " + shardId, failure);
+            }
+            return lastSequenceNumber;
+        }
+
+        @Override
+        void restart() {
+            done = false;
+            failure = null;
+            unprocessed = emitItems;
+            start = System.currentTimeMillis();
+            backoffMillis = 0;
+            // advance() counts the delayed attempt as a retry; the restarted emit begins with none
+            retries = -1;
+            retryAtMillis = start + Math.max(1L, configuration.BACKOFF_INTERVAL);
+        }
+
+        @Override
+        void cancel() {
+            if (done && lastSequenceNumber != null) {
+                return;
+            }
+            // An attempt that has not completed may still be reading the buffer
+            boolean idle = attempt == null || attempt.isDone();
+            if (attempt != null) {
+                attempt.cancel(true);
+            }
+            done = true;
+            failure = new CancellationException();
+            abandon(idle);
+        }
+    }
+
+    private IBuffer<T> nextBuffer() {
+        IBuffer<T> next = spareBuffers.poll();
+        if (next == null) {
+            next = pipeline.getBuffer(configuration);
+            initializeMetricsAware(next);
+            initializeShardAware(next);
+            return next;
+        }
+        // Restart the buffer's time limit, which began when the emit thread cleared it
+        next.clear();
+        return next;
+    }
+
+    /**
+     * Checkpoints at the last sequence number of the most recent buffer whose emit, and the emits of all buffers
+     * before it, have finished. A buffer whose records were neither emitted nor failed stays at the head of the queue
+     * and is emitted again, so no later buffer is checkpointed past it.
+     */
+    private void checkpointCompletedEmits(IRecordProcessorCheckpointer checkpointer) {
+        String sequenceNumber = null;
+        while (!inFlightEmits.isEmpty() && inFlightEmits.peek().isDone()) {
+            InFlightEmit completed = inFlightEmits.peek();
+            String lastSequenceNumber = completed.getLastSequenceNumber();
+            if (lastSequenceNumber == null) {
+                if (!shutDown) {
+                    LOG.warn("Emitting buffer again in " + configuration.BACKOFF_INTERVAL + " ms for shard " + shardId);
+                    completed.restart();
+                }
                 break;
-            default:
-                throw new IllegalStateException("invalid shutdown reason");
+            }
+            inFlightEmits.poll();
+            sequenceNumber = lastSequenceNumber;
+        }
+        if (sequenceNumber == null) {
+            return;
+        }
+        try {
+            checkpointer.checkpoint(sequenceNumber);
+        } catch (KinesisClientLibDependencyException | InvalidStateException | ThrottlingException
+                | ShutdownException | IllegalArgumentException e) {
+            LOG.error(e);
+        }
+    }
+
+    /**
+     * @return false if the calling thread was interrupted while waiting
+     */
+    private boolean awaitEmit(InFlightEmit inFlight) {
+        try {
+            inFlight.awaitDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the emits of all buffers in flight have finished, emitting buffers again as needed.
+     * 
+     * @return false if the calling thread was interrupted while waiting
+     */
+    private boolean awaitInFlightEmits() {
+        while (!inFlightEmits.isEmpty()) {
+            if (!awaitEmit(inFlightEmits.peek())) {
+                return false;
+            }
+            if (inFlightEmits.peek().getLastSequenceNumber() == null) {
+                inFlightEmits.peek().restart();
+            } else {
+                inFlightEmits.poll();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown(IRecordProcessorCheckpointer checkpointer, ShutdownReason reason) {
+        synchronized (flushLock) {
+            shutDown = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            switch (reason) {
+                case TERMINATE:
+                    // Earlier buffers must finish first; the final checkpoint covers all of them
+                    if (awaitInFlightEmits()) {
+                        emit(checkpointer, getOutputRecords(buffer));
+                    }
+                    break;
+                case ZOMBIE:
+                    break;
+                default:
+                    throw new IllegalStateException("invalid shutdown reason");
+            }
+            if (emitExecutor != null) {
+                emitExecutor.shutdownNow();
+            }
+            // Left over after a ZOMBIE shutdown; their buffers are neither failed nor checkpointed
+            for (InFlightEmit inFlight : inFlightEmits) {
+                inFlight.cancel();
+            }
+            LOG.info("shutting down record processor with shardId: " + shardId + " with reason " + reason);
+            emitter.shutdown();
+            if (transformExecutor != null) {
+                transformExecutor.close();
+            }
+            closeBuffer(buffer);
+            for (IBuffer<T> spareBuffer : spareBuffers) {
+                closeBuffer(spareBuffer);
+            }
+        }
+        if (memoryAccount != null) {
+            memoryAccount.close();
+            memoryBudget.close();
+        }
+        if (flushScheduler != null) {
+            flushScheduler.close();
+        }
+        if (flushExecutor != null) {
+            flushExecutor.close();
+        }
+    }
+
+    private void initializeMetricsAware(Object component) {
+        if (metricsFactory != null && component instanceof IMetricsAware) {
+            ((IMetricsAware) component).setMetricsFactory(metricsFactory);
+        }
+    }
+
+    private void initializeShardAware(Object component) {
+        if (component instanceof IShardAware) {
+            ((IShardAware) component).initialize(shardId);
+        }
+    }
+
+    private void closeBuffer(IBuffer<T> toClose) {
+        if (toClose instanceof Closeable) {
+            try {
+                ((Closeable) toClose).close();
+            } catch (IOException e) {
+                LOG.error("Failed to close buffer for shard " + shardId, e);
+            }
         }
-        LOG.info("shutting down record processor with shardId: " + shardId + " with reason " + reason);
-        emitter.shutdown();
     }
 
 }
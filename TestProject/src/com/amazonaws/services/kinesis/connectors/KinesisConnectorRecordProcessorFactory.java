@@ -15,11 +15,8 @@
 package com.amazonaws.services.kinesis.connectors;
 
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorFactory;
-import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
-import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
-import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
 import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
-import com.amazonaws.services.kinesis.connectors.interfaces.ITransformerBase;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 
 /**
  * This class is used to generate KinesisConnectorRecordProcessors that operate using the user's
@@ -31,6 +28,7 @@ public class KinesisConnectorRecordProcessorFactory<T, U> implements IRecordProc
 
     private IKinesisConnectorPipeline<T, U> pipeline;
     private KinesisConnectorConfiguration configuration;
+    private IMetricsFactory metricsFactory;
 
     public KinesisConnectorRecordProcessorFactory(IKinesisConnectorPipeline<T, U> pipeline,
             KinesisConnectorConfiguration configuration) {
@@ -38,15 +36,21 @@ public class KinesisConnectorRecordProcessorFactory<T, U> implements IRecordProc
         this.pipeline = pipeline;
     }
 
+    /**
+     * Sets the metrics factory passed to the record processors created afterwards.
+     * 
+     * @param metricsFactory
+     *        factory used by the record processors to publish their metrics, or null
+     */
+    public void setMetricsFactory(IMetricsFactory metricsFactory) {
+        this.metricsFactory = metricsFactory;
+    }
+
     @Override
     public KinesisConnectorRecordProcessor<T, U> createProcessor() {
         try {
-            IBuffer<T> buffer = pipeline.getBuffer(configuration);
-            IEmitter<U> emitter = pipeline.getEmitter(configuration);
-            ITransformerBase<T, U> transformer = pipeline.getTransformer(configuration);
-            IFilter<T> filter = pipeline.getFilter(configuration);
             KinesisConnectorRecordProcessor<T, U> processor =
-                    new KinesisConnectorRecordProcessor<T, U>(buffer, filter, emitter, transformer, configuration);
+                    new KinesisConnectorRecordProcessor<T, U>(pipeline, configuration, metricsFactory);
             return processor;
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A byte budget shared by the buffers of all record processors of a worker, so that the memory they use stays bounded
+ * by workerBufferByteLimit however many shards the worker holds. Each record processor draws from the budget through
+ * an Account: records count against it from the time they are added to a buffer until the buffer has been emitted and
+ * cleared.
+ * <p>
+ * Once three quarters of the budget are used, the record processor whose buffer holds the most bytes is asked to flush
+ * it early. Once the whole budget is used, record processors wait in awaitCapacity() before adding more records, which
+ * throttles reads from their shards until emits complete. A record processor that passed awaitCapacity() still adds
+ * the records it has read, so the budget can be exceeded by at most one GetRecords batch per record processor.
+ * <p>
+ * Record processors obtain the budget with forConfiguration(), which returns the same budget for the same application
+ * name, and close it when they shut down.
+ */
+public class MemoryBudget implements Closeable {
+    // Budgets shared by the record processors of an application, keyed by application name
+    private static final SharedResources<MemoryBudget> SHARED_BUDGETS = new SharedResources<MemoryBudget>();
+
+    private static final int EARLY_FLUSH_PERCENT = 75;
+    // Waiting record processors recheck the budget, and request early flushes again, this often
+    private static final long THROTTLE_CHECK_MILLIS = 100L;
+
+    private final long limitBytes;
+    private final long earlyFlushBytes;
+
+    // Guarded by this
+    private final List<Account> accounts = new ArrayList<Account>();
+    private long usedBytes;
+
+    private final AtomicLong earlyFlushRequests = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    private MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+        this.earlyFlushBytes = limitBytes / 100 * EARLY_FLUSH_PERCENT;
+    }
+
+    /**
+     * Returns the budget shared by the record processors of the configured application, creating it with
+     * workerBufferByteLimit bytes if needed. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared budget
+     */
+    public static MemoryBudget forConfiguration(final KinesisConnectorConfiguration configuration) {
+        return SHARED_BUDGETS.acquire(configuration.APP_NAME,
+                new SharedResources.Factory<MemoryBudget, RuntimeException>() {
+                    @Override
+                    public MemoryBudget create(String appName) {
+                        return new MemoryBudget(configuration.WORKER_BUFFER_BYTE_LIMIT);
+                    }
+                });
+    }
+
+    /**
+     * Opens an account for the buffer of a record processor.
+     * 
+     * @param flushRequest
+     *        called when the buffer should be flushed early to free part of the budget. It may be called from any
+     *        thread, including record processor threads holding their own locks, so it must not block.
+     * @return the account, which must be closed when the record processor shuts down
+     */
+    public synchronized Account open(Runnable flushRequest) {
+        Account account = new Account(flushRequest);
+        accounts.add(account);
+        return account;
+    }
+
+    /**
+     * @return the number of bytes held by buffers and by emits in progress
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the size of the budget in bytes
+     */
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * @return the number of times a record processor was asked to flush its buffer early
+     */
+    public long getEarlyFlushRequests() {
+        return earlyFlushRequests.get();
+    }
+
+    /**
+     * @return the total time record processors waited in awaitCapacity(), in milliseconds
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * Requests an early flush of the largest buffer if at least the given number of bytes is used.
+     */
+    private void requestFlushAbove(long thresholdBytes) {
+        Account largest = null;
+        synchronized (this) {
+            if (usedBytes < thresholdBytes) {
+                return;
+            }
+            for (Account account : accounts) {
+                if (account.bufferedBytes > 0 && (largest == null || account.bufferedBytes > largest.bufferedBytes)) {
+                    largest = account;
+                }
+            }
+        }
+        if (largest != null) {
+            earlyFlushRequests.incrementAndGet();
+            largest.flushRequest.run();
+        }
+    }
+
+    /**
+     * Closes the budget once every caller of forConfiguration() has closed it, so that a record processor started
+     * later gets a new one.
+     */
+    @Override
+    public void close() {
+        SHARED_BUDGETS.release(this);
+    }
+
+    /**
+     * The share of the budget used by one record processor. Bytes are added when records are buffered, move to the
+     * emit in progress when the buffer is handed to an emitter, and are released when the emit has completed.
+     */
+    public class Account implements Closeable {
+        private final Runnable flushRequest;
+        // Guarded by MemoryBudget.this
+        private long bufferedBytes;
+        private boolean closed;
+
+        private Account(Runnable flushRequest) {
+            this.flushRequest = flushRequest;
+        }
+
+        /**
+         * Charges bytes added to the buffer, and requests an early flush of the largest buffer if the budget is
+         * nearly used up.
+         */
+        public void add(long bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+            synchronized (MemoryBudget.this) {
+                if (closed) {
+                    return;
+                }
+                bufferedBytes += bytes;
+                usedBytes += bytes;
+            }
+            requestFlushAbove(earlyFlushBytes);
+        }
+
+        /**
+         * Marks the bytes of the buffer as being emitted. They are no longer considered for early flushes but remain
+         * charged until release() is called.
+         * 
+         * @return the number of bytes to pass to release() once the emit has completed
+         */
+        public long startEmit() {
+            synchronized (MemoryBudget.this) {
+                long bytes = bufferedBytes;
+                bufferedBytes = 0;
+                return bytes;
+            }
+        }
+
+        /**
+         * Releases the bytes of a completed emit and wakes record processors waiting for capacity.
+         */
+        public void release(long bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+            synchronized (MemoryBudget.this) {
+                usedBytes -= bytes;
+                MemoryBudget.this.notifyAll();
+            }
+        }
+
+        /**
+         * @return the number of bytes in the buffer that are not being emitted
+         */
+        public long getBufferedBytes() {
+            synchronized (MemoryBudget.this) {
+                return bufferedBytes;
+            }
+        }
+
+        /**
+         * Waits until less than the whole budget is used, requesting early flushes of the largest buffers meanwhile.
+         * Must not be called while holding a lock that an early flush needs.
+         * 
+         * @throws InterruptedException
+         *         if the thread was interrupted while waiting
+         */
+        public void awaitCapacity() throws InterruptedException {
+            long start = System.nanoTime();
+            boolean waited = false;
+            try {
+                while (true) {
+                    synchronized (MemoryBudget.this) {
+                        if (usedBytes < limitBytes) {
+                            return;
+                        }
+                    }
+                    waited = true;
+                    requestFlushAbove(limitBytes);
+                    synchronized (MemoryBudget.this) {
+                        if (usedBytes >= limitBytes) {
+                            MemoryBudget.this.wait(THROTTLE_CHECK_MILLIS);
+                        }
+                    }
+                }
+            } finally {
+                if (waited) {
+                    throttledNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        }
+
+        /**
+         * Releases the bytes still in the buffer and closes the account. Bytes of emits in progress are released by
+         * release() as usual.
+         */
+        @Override
+        public void close() {
+            synchronized (MemoryBudget.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                usedBytes -= bufferedBytes;
+                bufferedBytes = 0;
+                accounts.remove(this);
+                MemoryBudget.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A registry of resources shared by the components of a worker, such as thread pools and connection pools, keyed by
+ * a string derived from the configuration. acquire() returns the resource registered under a key, creating it on the
+ * first call, and counts the callers holding it; release() tells the caller whether the resource is no longer held
+ * and must now be closed.
+ * <p>
+ * Resources keep a static registry of their own and release themselves in close(), so that each call to their
+ * forConfiguration() method is matched by a call to close().
+ * 
+ * @param <R>
+ *        the type of the shared resources
+ */
+public class SharedResources<R> {
+
+    /**
+     * Creates the resource for a key on its first acquire().
+     * 
+     * @param <R>
+     *        the type of the shared resources
+     * @param <E>
+     *        the exception thrown if the resource cannot be created
+     */
+    public interface Factory<R, E extends Exception> {
+        /**
+         * @param key
+         *        key the resource is registered under
+         * @return the new resource
+         */
+        public R create(String key) throws E;
+    }
+
+    // Guarded by this
+    private final Map<String, Shared<R>> byKey = new HashMap<String, Shared<R>>();
+    private final Map<R, Shared<R>> byResource = new IdentityHashMap<R, Shared<R>>();
+
+    /**
+     * Returns the resource registered under the key, creating it with the factory if there is none. Each call must be
+     * matched by a call to release().
+     * 
+     * @param key
+     *        key of the resource
+     * @param factory
+     *        creates the resource if needed
+     * @return the shared resource
+     * @throws E
+     *         if the resource had to be created and could not be
+     */
+    public synchronized <E extends Exception> R acquire(String key, Factory<R, E> factory) throws E {
+        Shared<R> shared = byKey.get(key);
+        if (shared == null) {
+            shared = new Shared<R>(key, factory.create(key));
+            byKey.put(key, shared);
+            byResource.put(shared.resource, shared);
+        }
+        shared.references++;
+        return shared.resource;
+    }
+
+    /**
+     * Releases a resource returned by acquire(), unregistering it once every caller has released it.
+     * 
+     * @param resource
+     *        the resource to release
+     * @return true if the resource is no longer held and must be closed, which is also the case for a resource that
+     *         was not obtained from this registry
+     */
+    public synchronized boolean release(R resource) {
+        Shared<R> shared = byResource.get(resource);
+        if (shared == null) {
+            return true;
+        }
+        if (--shared.references > 0) {
+            return false;
+        }
+        byKey.remove(shared.key);
+        byResource.remove(resource);
+        return true;
+    }
+
+    /**
+     * A registered resource and the number of callers holding it.
+     */
+    private static class Shared<R> {
+        private final String key;
+        private final R resource;
+        private int references;
+
+        Shared(String key, R resource) {
+            this.key = key;
+            this.resource = resource;
+        }
+    }
+}
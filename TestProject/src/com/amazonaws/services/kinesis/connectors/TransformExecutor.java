@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of transformThreads threads that the record processors of a worker share to transform large
+ * GetRecords batches in parallel, see KinesisConnectorRecordProcessor. Sharing one pool bounds the number of
+ * transform threads regardless of how many shards the worker holds.
+ * <p>
+ * Record processors obtain the pool with forConfiguration(), which returns the same pool for the same application
+ * name, and close it when they shut down. The threads are stopped once every record processor using the pool has
+ * closed it.
+ */
+public class TransformExecutor implements Closeable {
+    // Pools shared by the record processors of an application, keyed by application name
+    private static final SharedResources<TransformExecutor> SHARED_EXECUTORS = new SharedResources<TransformExecutor>();
+
+    private final ExecutorService executor;
+
+    private TransformExecutor(final String appName, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread =
+                        new Thread(r, "KinesisConnectorTransform-" + appName + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the pool shared by the record processors of the configured application, creating it with
+     * transformThreads threads if needed. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared pool
+     */
+    public static TransformExecutor forConfiguration(final KinesisConnectorConfiguration configuration) {
+        if (configuration.TRANSFORM_THREADS <= 0) {
+            throw new IllegalArgumentException("transformThreads must be positive to use a TransformExecutor");
+        }
+        return SHARED_EXECUTORS.acquire(configuration.APP_NAME,
+                new SharedResources.Factory<TransformExecutor, RuntimeException>() {
+                    @Override
+                    public TransformExecutor create(String appName) {
+                        return new TransformExecutor(appName, configuration.TRANSFORM_THREADS);
+                    }
+                });
+    }
+
+    /**
+     * Submits a task to the pool.
+     * 
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         if the pool has been shut down
+     */
+    public <V> Future<V> submit(Callable<V> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Stops the threads once every caller of forConfiguration() has closed the pool. Running tasks are completed.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_EXECUTORS.release(this)) {
+            return;
+        }
+        executor.shutdown();
+    }
+}
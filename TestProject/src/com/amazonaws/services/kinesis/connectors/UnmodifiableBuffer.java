@@ -14,17 +14,22 @@
  */
 package com.amazonaws.services.kinesis.connectors;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRawBuffer;
 
 /**
  * This class is a wrapper on an IBuffer that limits the functionality of the buffer. This buffer
  * cannot be added to, and retrieving the list of records returns an unmodifiable list. Calling
  * consumeRecord() or clear() will cause an UnathorizedOperationException to be thrown. Calling
  * getRecords() returns the records wrapped in an UnmodifiableList.
+ * <p>
+ * When the wrapped buffer is an IRawBuffer and this buffer holds all of its payloads, getRawData() exposes the
+ * concatenated payloads so that emitters can write them without iterating over the records.
  * 
  * @param <T>
  */
@@ -88,6 +93,22 @@ public class UnmodifiableBuffer<T> implements IBuffer<T> {
         return Collections.unmodifiableList(records);
     }
 
+    /**
+     * Get the concatenated payloads of the records, if they are available without copying.
+     * 
+     * @return a read-only buffer of the concatenated payloads, or null if the wrapped buffer is not an IRawBuffer or
+     *         this buffer only holds some of its records (as on a retry of a partially failed emit)
+     */
+    public ByteBuffer getRawData() {
+        if (buf instanceof IRawBuffer) {
+            IRawBuffer<?> rawBuffer = (IRawBuffer<?>) buf;
+            if (records == rawBuffer.getRawRecords()) {
+                return rawBuffer.getRawData();
+            }
+        }
+        return null;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(buf, records);
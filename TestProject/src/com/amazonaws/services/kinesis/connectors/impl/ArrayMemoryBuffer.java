@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+
+/**
+ * This class is an implementation of the IBuffer interface that stores records in a reusable array, sized up front
+ * from the configured record count limit. Unlike a BasicMemoryBuffer backed by a LinkedList, it does not allocate a
+ * node per record and keeps records contiguous. clear() only resets the write index (dropping the references to the
+ * flushed records) and keeps the array, and getRecords() returns a random access view of the array rather than a
+ * copy, so a steady-state fill and flush cycle allocates nothing beyond the records themselves.
+ * <p>
+ * The list returned by getRecords() reflects the current contents of the buffer and is only valid until the buffer
+ * is cleared. Like BasicMemoryBuffer, this class is not thread-safe.
+ * 
+ * @param <T>
+ */
+public class ArrayMemoryBuffer<T> implements IBuffer<T> {
+
+    // Upper bound on the array allocated up front; the array grows beyond it if needed
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    private final long bytesPerFlush;
+    private final long numMessagesToBuffer;
+    private final long millisecondsToBuffer;
+
+    private Object[] records;
+    private int size;
+    private long byteCount;
+    private final List<T> recordView = new RecordView();
+
+    private String firstSequenceNumber;
+    private String lastSequenceNumber;
+
+    private long previousFlushTimeMillisecond;
+
+    public ArrayMemoryBuffer(KinesisConnectorConfiguration configuration) {
+        bytesPerFlush = configuration.BUFFER_BYTE_SIZE_LIMIT;
+        numMessagesToBuffer = configuration.BUFFER_RECORD_COUNT_LIMIT;
+        millisecondsToBuffer = configuration.BUFFER_MILLISECONDS_LIMIT;
+        records = new Object[(int) Math.max(1, Math.min(numMessagesToBuffer, MAX_INITIAL_CAPACITY))];
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public long getBytesToBuffer() {
+        return bytesPerFlush;
+    }
+
+    @Override
+    public long getNumRecordsToBuffer() {
+        return numMessagesToBuffer;
+    }
+
+    @Override
+    public long getMillisecondsToBuffer() {
+        return millisecondsToBuffer;
+    }
+
+    @Override
+    public void consumeRecord(T record, int recordSize, String sequenceNumber) {
+        if (size == 0) {
+            firstSequenceNumber = sequenceNumber;
+        }
+        lastSequenceNumber = sequenceNumber;
+        if (size == records.length) {
+            grow();
+        }
+        records[size++] = record;
+        byteCount += recordSize;
+    }
+
+    private void grow() {
+        int newCapacity = records.length << 1;
+        if (newCapacity < 0) {
+            newCapacity = Integer.MAX_VALUE - 8;
+        }
+        records = Arrays.copyOf(records, newCapacity);
+    }
+
+    @Override
+    public void clear() {
+        // Release the flushed records but keep the array for the next fill
+        Arrays.fill(records, 0, size, null);
+        size = 0;
+        byteCount = 0;
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public String getFirstSequenceNumber() {
+        return firstSequenceNumber;
+    }
+
+    @Override
+    public String getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * Flush once the number of records or the number of bytes reaches its limit, or once the time limit has passed
+     * since the last flush, as long as the buffer is not empty.
+     */
+    @Override
+    public boolean shouldFlush() {
+        long timelapseMillisecond = getCurrentTimeMilliseconds() - previousFlushTimeMillisecond;
+        return (size > 0)
+                && ((size >= getNumRecordsToBuffer()) || (byteCount >= getBytesToBuffer()) || (timelapseMillisecond >= getMillisecondsToBuffer()));
+    }
+
+    @Override
+    public List<T> getRecords() {
+        return recordView;
+    }
+
+    // This method has protected access for unit testing purposes.
+    protected long getCurrentTimeMilliseconds() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Read-only view of the records currently in the array.
+     */
+    private class RecordView extends AbstractList<T> implements RandomAccess {
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (T) records[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
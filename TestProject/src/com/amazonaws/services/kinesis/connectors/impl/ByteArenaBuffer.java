@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRawBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * This class is an implementation of IRawBuffer that appends record payloads to a single growable ByteBuffer arena,
+ * optionally allocated outside of the Java heap, and keeps the end offset of each record in an int array. Storing a
+ * record is a bulk copy into the arena; clear() resets the offsets and keeps the memory for the next fill. The arena
+ * is allocated when the first record is stored, so idle buffers hold no memory.
+ * <p>
+ * The ITransformer passed to the constructor converts between payloads and objects when the buffer is used through
+ * the IBuffer methods: consumeRecord() serializes the record with fromClass(), and the list returned by getRecords()
+ * deserializes each record with toClass() when it is accessed. Neither is used when records are stored with
+ * consumeRawRecord() and retrieved with getRawRecords() or getRawData().
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @param <T>
+ */
+public class ByteArenaBuffer<T> implements IRawBuffer<T> {
+    private static final Log LOG = LogFactory.getLog(ByteArenaBuffer.class);
+
+    // Upper bound on the arena allocated up front; the arena grows beyond it if needed
+    private static final int MAX_INITIAL_CAPACITY = 64 * 1024 * 1024;
+    private static final int MAX_INITIAL_RECORD_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    private static final ByteBuffer EMPTY_ARENA = ByteBuffer.allocate(0);
+
+    private final long bytesPerFlush;
+    private final long numMessagesToBuffer;
+    private final long millisecondsToBuffer;
+    private final ITransformer<T, byte[]> transformer;
+    private final boolean direct;
+
+    private final int initialCapacity;
+    private ByteBuffer arena = EMPTY_ARENA;
+    private int[] recordEnds;
+    private int size;
+    private final List<T> recordView = new RecordView();
+    private final List<byte[]> rawRecordView = new RawRecordView();
+    // Payloads copied out of the arena by the raw record view, allocated on first access
+    private byte[][] rawRecordCache;
+
+    private String firstSequenceNumber;
+    private String lastSequenceNumber;
+
+    private long previousFlushTimeMillisecond;
+
+    public ByteArenaBuffer(KinesisConnectorConfiguration configuration, ITransformer<T, byte[]> transformer) {
+        this(configuration, transformer, false);
+    }
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the buffer limits
+     * @param transformer
+     *        converts between payloads and records for the IBuffer methods
+     * @param direct
+     *        true to allocate the arena outside of the Java heap
+     */
+    public ByteArenaBuffer(KinesisConnectorConfiguration configuration,
+            ITransformer<T, byte[]> transformer,
+            boolean direct) {
+        bytesPerFlush = configuration.BUFFER_BYTE_SIZE_LIMIT;
+        numMessagesToBuffer = configuration.BUFFER_RECORD_COUNT_LIMIT;
+        millisecondsToBuffer = configuration.BUFFER_MILLISECONDS_LIMIT;
+        this.transformer = transformer;
+        this.direct = direct;
+        initialCapacity = (int) Math.max(1, Math.min(bytesPerFlush, MAX_INITIAL_CAPACITY));
+        recordEnds = new int[(int) Math.max(1, Math.min(numMessagesToBuffer, MAX_INITIAL_RECORD_CAPACITY))];
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public long getBytesToBuffer() {
+        return bytesPerFlush;
+    }
+
+    @Override
+    public long getNumRecordsToBuffer() {
+        return numMessagesToBuffer;
+    }
+
+    @Override
+    public long getMillisecondsToBuffer() {
+        return millisecondsToBuffer;
+    }
+
+    @Override
+    public void consumeRecord(T record, int recordSize, String sequenceNumber) {
+        byte[] data;
+        try {
+            data = transformer.fromClass(record);
+        } catch (IOException e) {
+            LOG.error("Failed to serialize record " + record + ". Dropping it from the buffer.", e);
+            return;
+        }
+        consumeRawRecord(ByteBuffer.wrap(data), sequenceNumber);
+    }
+
+    @Override
+    public void consumeRawRecord(ByteBuffer data, String sequenceNumber) {
+        if (size == 0) {
+            firstSequenceNumber = sequenceNumber;
+        }
+        lastSequenceNumber = sequenceNumber;
+        int length = data.remaining();
+        ensureCapacity(length);
+        if (data.hasArray()) {
+            arena.put(data.array(), data.arrayOffset() + data.position(), length);
+        } else {
+            arena.put(data.duplicate());
+        }
+        recordEnds[size] = arena.position();
+        recordAppended(size, recordEnds[size], sequenceNumber);
+        size++;
+    }
+
+    /**
+     * Called after a record has been appended to the arena. Subclasses may override this method to persist the index.
+     * 
+     * @param index
+     *        index of the record in the buffer
+     * @param end
+     *        offset in the arena just past the last byte of the record
+     * @param sequenceNumber
+     *        Amazon Kinesis sequence identifier of the record
+     */
+    protected void recordAppended(int index, int end, String sequenceNumber) {
+    }
+
+    private void ensureCapacity(int length) {
+        if (size == recordEnds.length) {
+            recordEnds = Arrays.copyOf(recordEnds, grownCapacity(recordEnds.length, recordEnds.length + 1));
+        }
+        if (arena.remaining() < length) {
+            long required = (long) arena.position() + length;
+            if (required > MAX_CAPACITY) {
+                throw new IllegalStateException("Buffer cannot hold more than " + MAX_CAPACITY + " bytes");
+            }
+            int capacity = arena == EMPTY_ARENA
+                    ? Math.max(initialCapacity, (int) required) : grownCapacity(arena.capacity(), (int) required);
+            arena = grow(arena, capacity);
+        }
+    }
+
+    /**
+     * Returns an arena of the given capacity holding the contents of the current arena, positioned after them. The
+     * default implementation allocates a new ByteBuffer and copies the contents into it.
+     * 
+     * @param current
+     *        the current arena, positioned after its contents
+     * @param capacity
+     *        the capacity of the new arena
+     * @return the new arena
+     */
+    protected ByteBuffer grow(ByteBuffer current, int capacity) {
+        ByteBuffer grown = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        current.flip();
+        grown.put(current);
+        return grown;
+    }
+
+    /**
+     * Replaces the contents of the buffer, for example with records recovered from a previous run.
+     * 
+     * @param contents
+     *        arena holding the payloads, positioned after the last one
+     * @param ends
+     *        offset just past the last byte of each record
+     * @param count
+     *        number of records
+     * @param firstSequenceNumber
+     *        sequence number of the first record
+     * @param lastSequenceNumber
+     *        sequence number of the last record
+     */
+    protected void restore(ByteBuffer contents,
+            int[] ends,
+            int count,
+            String firstSequenceNumber,
+            String lastSequenceNumber) {
+        arena = contents;
+        recordEnds = ends.length > 0 ? ends : new int[1];
+        size = count;
+        rawRecordCache = null;
+        this.firstSequenceNumber = firstSequenceNumber;
+        this.lastSequenceNumber = lastSequenceNumber;
+    }
+
+    private static int grownCapacity(int capacity, int required) {
+        int newCapacity = capacity << 1;
+        if (newCapacity < 0 || newCapacity > MAX_CAPACITY) {
+            newCapacity = MAX_CAPACITY;
+        }
+        return Math.max(newCapacity, required);
+    }
+
+    @Override
+    public void clear() {
+        if (rawRecordCache != null) {
+            Arrays.fill(rawRecordCache, 0, Math.min(size, rawRecordCache.length), null);
+        }
+        arena.clear();
+        size = 0;
+        previousFlushTimeMillisecond = getCurrentTimeMilliseconds();
+    }
+
+    @Override
+    public String getFirstSequenceNumber() {
+        return firstSequenceNumber;
+    }
+
+    @Override
+    public String getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * Flush once the number of records or the number of bytes reaches its limit, or once the time limit has passed
+     * since the last flush, as long as the buffer is not empty.
+     */
+    @Override
+    public boolean shouldFlush() {
+        long timelapseMillisecond = getCurrentTimeMilliseconds() - previousFlushTimeMillisecond;
+        return (size > 0)
+                && ((size >= getNumRecordsToBuffer()) || (arena.position() >= getBytesToBuffer()) || (timelapseMillisecond >= getMillisecondsToBuffer()));
+    }
+
+    @Override
+    public List<T> getRecords() {
+        return recordView;
+    }
+
+    @Override
+    public List<byte[]> getRawRecords() {
+        return rawRecordView;
+    }
+
+    @Override
+    public ByteBuffer getRawData() {
+        ByteBuffer data = arena.duplicate();
+        data.flip();
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the number of payload bytes stored in the buffer
+     */
+    public int getByteCount() {
+        return arena.position();
+    }
+
+    // This method has protected access for unit testing purposes.
+    protected long getCurrentTimeMilliseconds() {
+        return System.currentTimeMillis();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private ByteBuffer slice(int index) {
+        checkIndex(index);
+        ByteBuffer data = arena.duplicate();
+        data.limit(recordEnds[index]);
+        data.position(index == 0 ? 0 : recordEnds[index - 1]);
+        return data.slice();
+    }
+
+    /**
+     * Read-only view of the stored records, deserialized on access.
+     */
+    private class RecordView extends AbstractList<T> implements RandomAccess {
+        @Override
+        public T get(int index) {
+            try {
+                return transformer.toClass(new Record().withData(slice(index)));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not deserialize record " + index, e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Read-only view of the stored payloads, each copied into its own array on first access. The array is returned
+     * again by later accesses until the buffer is cleared, so emitters that retry or read the records several times
+     * copy each payload once.
+     */
+    private class RawRecordView extends AbstractList<byte[]> implements RandomAccess {
+        @Override
+        public byte[] get(int index) {
+            checkIndex(index);
+            if (rawRecordCache == null) {
+                rawRecordCache = new byte[recordEnds.length][];
+            } else if (index >= rawRecordCache.length) {
+                rawRecordCache = Arrays.copyOf(rawRecordCache, recordEnds.length);
+            }
+            byte[] bytes = rawRecordCache[index];
+            if (bytes == null) {
+                ByteBuffer data = slice(index);
+                bytes = new byte[data.remaining()];
+                data.get(bytes);
+                rawRecordCache[index] = bytes;
+            }
+            return bytes;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
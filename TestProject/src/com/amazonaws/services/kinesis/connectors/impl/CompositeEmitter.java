@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.EmitterExecutor;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IAsyncEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IMetricsAware;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.interfaces.IShardAware;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+
+/**
+ * An IEmitter that writes each buffer to several child emitters in parallel, so that one read of a stream feeds
+ * several destinations. The first child runs on the calling thread and the others on the EmitterExecutor shared by
+ * the emitters of the worker; children implementing IAsyncEmitter are started with emitAsync() on the calling thread.
+ * A child running on the pool is called with emit() even if it implements IAsyncEmitter, and a CompositeEmitter that
+ * is itself called on the pool runs all its children on the calling thread, so that no pool thread waits for a task
+ * queued behind it on the same pool.
+ * <p>
+ * Each child keeps its own list of unprocessed records and its own retry state, and retries its failed records as
+ * decided by an ExponentialBackoffRetryPolicy built from the configuration, independently of the other children:
+ * <ul>
+ * <li>An optional child that runs out of retries, or throws an IOException, has its failed records passed to its own
+ * fail() method and does not hold up the checkpoint.</li>
+ * <li>A required child that runs out of retries keeps its unprocessed records, which emit() returns so that the
+ * record processor retries the buffer. Only the required children that have not yet succeeded are called again, with
+ * their own unprocessed records. An IOException thrown by a required child is rethrown once all children have
+ * finished.</li>
+ * </ul>
+ * emit() therefore returns an empty list, and the record processor checkpoints, only once every required child has
+ * emitted all records of the buffer. When the record processor gives up on the buffer, fail() passes each required
+ * child that has not succeeded its own unprocessed records.
+ * <p>
+ * Like other emitters, a CompositeEmitter emits one buffer at a time and is not meant to be shared by record
+ * processors. Children implementing IShardAware are initialized with the shard id, and children implementing
+ * IMetricsAware are given the metrics factory of the record processor.
+ * 
+ * @param <T>
+ *        the data type emitted by the children
+ */
+public class CompositeEmitter<T> implements IEmitter<T>, IShardAware, IMetricsAware {
+    private static final Log LOG = LogFactory.getLog(CompositeEmitter.class);
+
+    private final List<Child> children = new ArrayList<Child>();
+    private final KinesisConnectorConfiguration configuration;
+    private final EmitterExecutor emitterExecutor;
+    // Sequence numbers of the buffer the children's state belongs to, or null
+    private String firstSequenceNumber;
+    private String lastSequenceNumber;
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the retry settings of the children
+     * @param required
+     *        children that must emit every record before the buffer is checkpointed
+     * @param optional
+     *        children whose failures do not prevent the checkpoint
+     */
+    public CompositeEmitter(KinesisConnectorConfiguration configuration,
+            List<? extends IEmitter<T>> required,
+            List<? extends IEmitter<T>> optional) {
+        if (required.isEmpty()) {
+            throw new IllegalArgumentException("A CompositeEmitter needs at least one required emitter");
+        }
+        this.configuration = configuration;
+        for (IEmitter<T> emitter : required) {
+            children.add(new Child(emitter, true));
+        }
+        for (IEmitter<T> emitter : optional) {
+            children.add(new Child(emitter, false));
+        }
+        emitterExecutor = children.size() > 1 ? EmitterExecutor.forConfiguration(configuration) : null;
+    }
+
+    /**
+     * @return the child emitters, required children first
+     */
+    public List<IEmitter<T>> getEmitters() {
+        List<IEmitter<T>> emitters = new ArrayList<IEmitter<T>>(children.size());
+        for (Child child : children) {
+            emitters.add(child.emitter);
+        }
+        return emitters;
+    }
+
+    @Override
+    public void initialize(String shardId) {
+        for (Child child : children) {
+            if (child.emitter instanceof IShardAware) {
+                ((IShardAware) child.emitter).initialize(shardId);
+            }
+        }
+    }
+
+    @Override
+    public void setMetricsFactory(IMetricsFactory metricsFactory) {
+        for (Child child : children) {
+            if (child.emitter instanceof IMetricsAware) {
+                ((IMetricsAware) child.emitter).setMetricsFactory(metricsFactory);
+            }
+        }
+    }
+
+    @Override
+    public List<T> emit(UnmodifiableBuffer<T> buffer) throws IOException {
+        if (!isCurrent(buffer)) {
+            firstSequenceNumber = buffer.getFirstSequenceNumber();
+            lastSequenceNumber = buffer.getLastSequenceNumber();
+            for (Child child : children) {
+                child.reset(buffer);
+            }
+        }
+        List<Child> pending = new ArrayList<Child>();
+        for (Child child : children) {
+            if (!child.done) {
+                pending.add(child);
+            }
+        }
+
+        List<Future<Void>> others = new ArrayList<Future<Void>>(pending.size());
+        // On a pool thread, waiting for children queued on the pool could deadlock it
+        int inline = EmitterExecutor.isPoolThread() ? pending.size() : 1;
+        for (int i = inline; i < pending.size(); i++) {
+            final Child child = pending.get(i);
+            try {
+                others.add(emitterExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        child.emit();
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // The pool is shutting down; run the child here
+                child.emit();
+            }
+        }
+        for (int i = 0; i < inline && i < pending.size(); i++) {
+            pending.get(i).emit();
+        }
+        awaitChildren(others);
+
+        IOException error = null;
+        // Records still unprocessed by a required child, once each, in buffer order per child
+        Map<T, Boolean> unprocessed = new IdentityHashMap<T, Boolean>();
+        List<T> unprocessedList = new ArrayList<T>();
+        for (Child child : children) {
+            if (child.done || !child.required) {
+                continue;
+            }
+            if (error == null) {
+                error = child.error;
+            }
+            for (T record : child.unprocessed) {
+                if (unprocessed.put(record, Boolean.TRUE) == null) {
+                    unprocessedList.add(record);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (unprocessedList.isEmpty()) {
+            firstSequenceNumber = null;
+            lastSequenceNumber = null;
+            return Collections.emptyList();
+        }
+        return unprocessedList;
+    }
+
+    private boolean isCurrent(UnmodifiableBuffer<T> buffer) {
+        return firstSequenceNumber != null && firstSequenceNumber.equals(buffer.getFirstSequenceNumber())
+                && lastSequenceNumber.equals(buffer.getLastSequenceNumber());
+    }
+
+    private void awaitChildren(List<Future<Void>> others) {
+        boolean interrupted = false;
+        for (Future<Void> future : others) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Children must finish before their state is read; restore the interrupt afterwards
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    LOG.error("Child emitter failed unexpectedly", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void fail(List<T> records) {
+        for (Child child : children) {
+            if (!child.done) {
+                child.emitter.fail(child.unprocessed);
+                child.done = true;
+            }
+        }
+        firstSequenceNumber = null;
+        lastSequenceNumber = null;
+    }
+
+    @Override
+    public void shutdown() {
+        for (Child child : children) {
+            child.emitter.shutdown();
+        }
+        if (emitterExecutor != null) {
+            emitterExecutor.close();
+        }
+    }
+
+    /**
+     * A child emitter and its state for the current buffer.
+     */
+    private class Child {
+        private final IEmitter<T> emitter;
+        private final boolean required;
+        private final IRetryPolicy retryPolicy;
+        // The buffer as first passed to emit(), holding all its records
+        private UnmodifiableBuffer<T> original;
+        private List<T> records;
+        private List<T> unprocessed;
+        private boolean done;
+        private IOException error;
+        private int retries;
+        private long start;
+
+        Child(IEmitter<T> emitter, boolean required) {
+            this.emitter = emitter;
+            this.required = required;
+            this.retryPolicy = new ExponentialBackoffRetryPolicy(configuration);
+        }
+
+        void reset(UnmodifiableBuffer<T> buffer) {
+            original = buffer;
+            records = buffer.getRecords();
+            unprocessed = records;
+            done = false;
+            error = null;
+            retries = 0;
+            start = System.currentTimeMillis();
+        }
+
+        /**
+         * Emits the unprocessed records, retrying until they are all emitted or the retry policy gives up.
+         */
+        void emit() {
+            error = null;
+            while (true) {
+                List<T> failed;
+                try {
+                    // The buffer itself is passed while all its records are unprocessed, so raw payloads can be used
+                    failed =
+                            emitOnce(unprocessed == records ? original
+                                    : new UnmodifiableBuffer<T>(original, unprocessed));
+                } catch (IOException e) {
+                    if (required) {
+                        error = e;
+                    } else {
+                        LOG.error("Optional emitter " + emitter.getClass().getSimpleName() + " failed", e);
+                        emitter.fail(unprocessed);
+                        done = true;
+                    }
+                    return;
+                }
+                if (failed.isEmpty()) {
+                    unprocessed = Collections.emptyList();
+                    done = true;
+                    return;
+                }
+                // Every record failed; keep the original list so the buffer itself is passed again
+                unprocessed = failed.size() == records.size() ? records : failed;
+                long delay = retryPolicy.getDelayMillis(retries, System.currentTimeMillis() - start);
+                if (delay == IRetryPolicy.NO_RETRY) {
+                    if (!required) {
+                        emitter.fail(unprocessed);
+                        done = true;
+                    }
+                    return;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retries++;
+            }
+        }
+
+        private List<T> emitOnce(UnmodifiableBuffer<T> buffer) throws IOException {
+            // emitAsync() runs on the pool, so a child already running there emits synchronously
+            if (!(emitter instanceof IAsyncEmitter) || EmitterExecutor.isPoolThread()) {
+                return emitter.emit(buffer);
+            }
+            Future<List<T>> future = ((IAsyncEmitter<T>) emitter).emitAsync(buffer);
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                // Shutting down; the records stay unprocessed and emit() returns before retrying
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                return buffer.getRecords();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
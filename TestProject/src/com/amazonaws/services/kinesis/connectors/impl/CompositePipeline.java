@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformerBase;
+
+/**
+ * An IKinesisConnectorPipeline that feeds the destinations of several pipelines from one read of the stream. The
+ * buffer, transformer and filter are those of the first required pipeline; the emitter is a CompositeEmitter writing
+ * each buffer to the emitters of all pipelines. The pipelines must therefore agree on the data model and output types,
+ * for example an Amazon S3 pipeline and an Amazon Redshift pipeline both emitting byte[].
+ * 
+ * @param <T>
+ *        the data type stored in the record
+ * @param <U>
+ *        the data type to emit
+ */
+public class CompositePipeline<T, U> implements IKinesisConnectorPipeline<T, U> {
+    private final List<IKinesisConnectorPipeline<T, U>> required;
+    private final List<IKinesisConnectorPipeline<T, U>> optional;
+
+    /**
+     * @param required
+     *        pipelines whose emitters must succeed before a buffer is checkpointed; the first one also provides the
+     *        buffer, transformer and filter
+     * @param optional
+     *        pipelines whose emitters may fail without preventing the checkpoint
+     */
+    public CompositePipeline(List<? extends IKinesisConnectorPipeline<T, U>> required,
+            List<? extends IKinesisConnectorPipeline<T, U>> optional) {
+        if (required.isEmpty()) {
+            throw new IllegalArgumentException("A CompositePipeline needs at least one required pipeline");
+        }
+        this.required = new ArrayList<IKinesisConnectorPipeline<T, U>>(required);
+        this.optional = new ArrayList<IKinesisConnectorPipeline<T, U>>(optional);
+    }
+
+    /**
+     * Creates a pipeline in which every destination is required.
+     */
+    public CompositePipeline(List<? extends IKinesisConnectorPipeline<T, U>> required) {
+        this(required, Collections.<IKinesisConnectorPipeline<T, U>> emptyList());
+    }
+
+    @Override
+    public IEmitter<U> getEmitter(KinesisConnectorConfiguration configuration) {
+        return new CompositeEmitter<U>(configuration, getEmitters(required, configuration), getEmitters(optional,
+                configuration));
+    }
+
+    private List<IEmitter<U>> getEmitters(List<IKinesisConnectorPipeline<T, U>> pipelines,
+            KinesisConnectorConfiguration configuration) {
+        List<IEmitter<U>> emitters = new ArrayList<IEmitter<U>>(pipelines.size());
+        for (IKinesisConnectorPipeline<T, U> pipeline : pipelines) {
+            emitters.add(pipeline.getEmitter(configuration));
+        }
+        return emitters;
+    }
+
+    @Override
+    public IBuffer<T> getBuffer(KinesisConnectorConfiguration configuration) {
+        return required.get(0).getBuffer(configuration);
+    }
+
+    @Override
+    public ITransformerBase<T, U> getTransformer(KinesisConnectorConfiguration configuration) {
+        return required.get(0).getTransformer(configuration);
+    }
+
+    @Override
+    public IFilter<T> getFilter(KinesisConnectorConfiguration configuration) {
+        return required.get(0).getFilter(configuration);
+    }
+}
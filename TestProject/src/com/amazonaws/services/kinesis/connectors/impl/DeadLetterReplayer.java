@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+
+/**
+ * Feeds the records of the closed segments of a DeadLetterSpool back through an IEmitter, oldest segment first, in
+ * batches of at most bufferRecordCountLimit records and bufferByteSizeLimit bytes. Records an emit returns as not
+ * emitted are retried with the backoff of the configuration. A segment is deleted once all its records have been
+ * emitted; if some cannot be emitted, replay stops and the segment is kept, so records may be emitted again by the
+ * next replay. IEmitter.fail() is never called.
+ * <p>
+ * The buffer handed to the emitter has sequence numbers made of the segment name and the position of the record in the
+ * segment, so emitters that name their output after the sequence numbers, such as the S3Emitter, write the same
+ * objects when a segment is replayed again. The spool does not keep the time records were first buffered, however, so
+ * an S3Emitter whose key layout has a time partition places replayed records under the time of the replay, and a
+ * segment replayed twice in different time partitions is written twice.
+ * <p>
+ * The main method replays the spool of one emitter of a connector from the command line:
+ * 
+ * <pre>
+ * DeadLetterReplayer &lt;properties file&gt; &lt;IKinesisConnectorPipeline class&gt; &lt;emitter name&gt; [utf8]
+ * </pre>
+ * 
+ * where the emitter name is the simple class name of the emitter that spooled the records, such as S3Emitter. The
+ * records are replayed through the emitter of the pipeline, or, if it is a CompositeEmitter, through its child of that
+ * class only. utf8 is given for emitters that take strings, such as the RedshiftManifestEmitter.
+ */
+public class DeadLetterReplayer {
+    private static final Log LOG = LogFactory.getLog(DeadLetterReplayer.class);
+
+    private final File directory;
+    private final KinesisConnectorConfiguration configuration;
+    private final IRetryPolicy retryPolicy;
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration with a deadLetterDirectory
+     * @param emitterName
+     *        name of the emitter whose spool is replayed, see DeadLetterSpool.getDirectory()
+     */
+    public DeadLetterReplayer(KinesisConnectorConfiguration configuration, String emitterName) {
+        this(DeadLetterSpool.getDirectory(configuration, emitterName), configuration);
+    }
+
+    /**
+     * @param directory
+     *        directory holding the segments
+     * @param configuration
+     *        Amazon Kinesis connector configuration providing the batch limits and retry settings
+     */
+    public DeadLetterReplayer(File directory, KinesisConnectorConfiguration configuration) {
+        this.directory = directory;
+        this.configuration = configuration;
+        this.retryPolicy = new ExponentialBackoffRetryPolicy(configuration);
+    }
+
+    /**
+     * Replays the closed segments through an emitter of byte arrays.
+     * 
+     * @return the number of records emitted
+     * @throws IOException
+     *         if a segment could not be read or the emitter failed; earlier segments have been replayed and deleted
+     */
+    public long replay(IEmitter<byte[]> emitter) throws IOException {
+        return replay(emitter, false);
+    }
+
+    /**
+     * Replays the closed segments through an emitter of strings, decoding the records as UTF-8.
+     * 
+     * @return the number of records emitted
+     * @throws IOException
+     *         if a segment could not be read or the emitter failed; earlier segments have been replayed and deleted
+     */
+    public long replayStrings(IEmitter<String> emitter) throws IOException {
+        return replay(emitter, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <U> long replay(IEmitter<U> emitter, boolean utf8) throws IOException {
+        long replayed = 0;
+        for (File segment : DeadLetterSpool.listSegments(directory, DeadLetterSpool.CLOSED_SUFFIX)) {
+            List<byte[]> records = DeadLetterSpool.readSegment(segment);
+            String name = segment.getName();
+            String sequencePrefix = name.substring(0, name.length() - DeadLetterSpool.CLOSED_SUFFIX.length()) + "-";
+            BasicMemoryBuffer<U> buffer = new BasicMemoryBuffer<U>(configuration);
+            long bytes = 0;
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                U item = utf8 ? (U) new String(record, StandardCharsets.UTF_8) : (U) record;
+                buffer.consumeRecord(item, record.length, sequencePrefix + i);
+                bytes += record.length;
+                if (buffer.getRecords().size() >= configuration.BUFFER_RECORD_COUNT_LIMIT
+                        || bytes >= configuration.BUFFER_BYTE_SIZE_LIMIT) {
+                    emit(emitter, buffer, segment);
+                    buffer.clear();
+                    bytes = 0;
+                }
+            }
+            if (!buffer.getRecords().isEmpty()) {
+                emit(emitter, buffer, segment);
+            }
+            replayed += records.size();
+            if (!segment.delete()) {
+                throw new IOException("Replayed dead letter segment " + segment + " but could not delete it");
+            }
+            LOG.info("Replayed " + records.size() + " records from dead letter segment " + segment);
+        }
+        return replayed;
+    }
+
+    private <U> void emit(IEmitter<U> emitter, BasicMemoryBuffer<U> buffer, File segment) throws IOException {
+        List<U> items = new ArrayList<U>(buffer.getRecords());
+        List<U> unprocessed = items;
+        long start = System.currentTimeMillis();
+        for (int retries = 0;; retries++) {
+            unprocessed = emitter.emit(new UnmodifiableBuffer<U>(buffer, unprocessed));
+            if (unprocessed.isEmpty()) {
+                return;
+            }
+            long delay = retryPolicy.getDelayMillis(retries, System.currentTimeMillis() - start);
+            if (delay == IRetryPolicy.NO_RETRY) {
+                throw new IOException(unprocessed.size() + " records of dead letter segment " + segment
+                        + " could not be emitted");
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying dead letter segment " + segment);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || args.length > 4 || (args.length == 4 && !"utf8".equals(args[3]))) {
+            System.err.println("Usage: DeadLetterReplayer <properties file> <IKinesisConnectorPipeline class>"
+                    + " <emitter name> [utf8]");
+            System.exit(1);
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        KinesisConnectorConfiguration configuration =
+                new KinesisConnectorConfiguration(properties, new DefaultAWSCredentialsProviderChain());
+        IKinesisConnectorPipeline<?, ?> pipeline =
+                (IKinesisConnectorPipeline<?, ?>) Class.forName(args[1]).newInstance();
+        String emitterName = args[2];
+        IEmitter<?> emitter = pipeline.getEmitter(configuration);
+        try {
+            IEmitter<?> target = findEmitter(emitter, emitterName);
+            if (target == null) {
+                throw new IllegalArgumentException("Neither the emitter of " + args[1]
+                        + " nor its children are a " + emitterName);
+            }
+            DeadLetterReplayer replayer = new DeadLetterReplayer(configuration, emitterName);
+            long replayed =
+                    args.length == 4 ? replayer.replayStrings((IEmitter<String>) target)
+                            : replayer.replay((IEmitter<byte[]>) target);
+            LOG.info("Replayed " + replayed + " records from " + replayer.directory);
+        } finally {
+            emitter.shutdown();
+        }
+    }
+
+    /**
+     * @return the emitter, or the child of a CompositeEmitter, whose simple class name is emitterName, or null
+     */
+    private static IEmitter<?> findEmitter(IEmitter<?> emitter, String emitterName) {
+        if (emitter.getClass().getSimpleName().equals(emitterName)) {
+            return emitter;
+        }
+        if (emitter instanceof CompositeEmitter) {
+            for (IEmitter<?> child : ((CompositeEmitter<?>) emitter).getEmitters()) {
+                IEmitter<?> found = findEmitter(child, emitterName);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+
+/**
+ * Handles the records passed to IEmitter.fail() by an emitter. If a deadLetterDirectory is configured, the records are
+ * appended to the DeadLetterSpool of the emitter's name in the application, which is opened on the first failure, so
+ * that emitters that never fail, such as the one used by a DeadLetterReplayer, do not touch the directory. Otherwise, or if the records
+ * cannot be spooled, only their number is logged as an error; the records themselves are logged at debug level.
+ */
+public class DeadLetterSink implements Closeable {
+    private final KinesisConnectorConfiguration configuration;
+    private final String emitterName;
+    private final Log log;
+    private final boolean spoolEnabled;
+    // Guarded by this
+    private DeadLetterSpool spool;
+    private boolean closed;
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param emitterName
+     *        name of the emitter, selecting its spool directory, see DeadLetterSpool.getDirectory()
+     * @param log
+     *        log of the emitter
+     */
+    public DeadLetterSink(KinesisConnectorConfiguration configuration, String emitterName, Log log) {
+        this.configuration = configuration;
+        this.emitterName = emitterName;
+        this.log = log;
+        this.spoolEnabled = configuration.DEAD_LETTER_DIRECTORY != null;
+    }
+
+    /**
+     * Spools or logs failed records.
+     * 
+     * @param records
+     *        records the emitter could not emit
+     */
+    public void fail(List<byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (spoolEnabled) {
+            try {
+                getSpool().append(records);
+                log.error(records.size() + " records failed and were written to the dead letter spool");
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to write " + records.size() + " failed records to the dead letter spool", e);
+            }
+        }
+        log.error(records.size() + " records failed");
+        if (log.isDebugEnabled()) {
+            for (byte[] record : records) {
+                log.debug("Record failed: " + new String(record, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Spools or logs failed records, encoded in UTF-8.
+     * 
+     * @param records
+     *        records the emitter could not emit
+     */
+    public void failStrings(List<String> records) {
+        List<byte[]> encoded = new ArrayList<byte[]>(records.size());
+        for (String record : records) {
+            encoded.add(record.getBytes(StandardCharsets.UTF_8));
+        }
+        fail(encoded);
+    }
+
+    private synchronized DeadLetterSpool getSpool() throws IOException {
+        if (closed) {
+            throw new IOException("Dead letter sink is closed");
+        }
+        if (spool == null) {
+            spool = DeadLetterSpool.forConfiguration(configuration, emitterName);
+        }
+        return spool;
+    }
+
+    /**
+     * Releases the spool if it was opened.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (spool != null) {
+            spool.close();
+            spool = null;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.SharedResources;
+
+/**
+ * An append-only log of records that an IEmitter could not emit, so that they can be replayed later with a
+ * DeadLetterReplayer instead of being written to the error log one by one. The log is a sequence of segment files in
+ * the directory deadLetterDirectory/appName/emitterName, so that the emitters of a CompositeEmitter, which take
+ * different records, each have their own spool. A segment is laid out as
+ * 
+ * <pre>
+ * segment = magic entry*
+ * entry   = length crc byte{length}    length and the CRC32 of the payload are 4-byte big-endian integers
+ * </pre>
+ * 
+ * Each call to append() writes its records with one sequential write. The segment is forced to disk at most once per
+ * deadLetterSyncInterval milliseconds, on the first append after the interval has elapsed, and when it is closed, so
+ * records spooled since the last sync survive a crash of the process but may be lost if the host crashes. A segment
+ * is closed once it holds at least deadLetterSegmentBytes bytes; a batch is never split across segments.
+ * <p>
+ * The segment being written has the suffix .open and is renamed to .dlq when it is closed. Only .dlq segments are
+ * replayed. Segments left open by a process that stopped without closing the spool are closed when the spool is next
+ * opened for the same directory; a torn entry at their end is skipped on replay.
+ * <p>
+ * Emitters obtain their spool with forConfiguration(), which returns the same spool for the same directory, and close
+ * it when they shut down. This class is thread-safe, but only one process may use a directory at a time.
+ */
+public class DeadLetterSpool implements Closeable {
+    private static final Log LOG = LogFactory.getLog(DeadLetterSpool.class);
+
+    static final int SEGMENT_MAGIC = 0x4B43444C;
+    static final String SEGMENT_PREFIX = "deadletter-";
+    static final String CLOSED_SUFFIX = ".dlq";
+    static final String OPEN_SUFFIX = ".open";
+    static final int ENTRY_HEADER_SIZE = 8;
+
+    // Spools shared by the emitters of a process, keyed by directory
+    private static final SharedResources<DeadLetterSpool> SHARED_SPOOLS = new SharedResources<DeadLetterSpool>();
+
+    private final File directory;
+    private final long segmentBytes;
+    private final long syncIntervalMillis;
+
+    // Guarded by this
+    private long nextSegmentNumber;
+    private File segment;
+    private FileChannel channel;
+    private long segmentSize;
+    private long lastSyncMillis;
+    private boolean closed;
+
+    private final AtomicLong recordsSpooled = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * @param directory
+     *        directory holding the segments, created if needed
+     * @param segmentBytes
+     *        size at which a segment is closed and the next one started
+     * @param syncIntervalMillis
+     *        minimum time between two syncs of the segment being written; 0 syncs after every append
+     */
+    public DeadLetterSpool(File directory, long segmentBytes, long syncIntervalMillis) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create dead letter directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalMillis = syncIntervalMillis;
+        for (File left : listSegments(directory, OPEN_SUFFIX)) {
+            File closedSegment = closedName(left);
+            if (left.renameTo(closedSegment)) {
+                LOG.info("Closed dead letter segment " + closedSegment + " left open by a previous run");
+            } else {
+                LOG.error("Unable to close dead letter segment " + left + " left open by a previous run");
+            }
+        }
+        File[] all = directory.listFiles(new SegmentFilter(null));
+        for (File file : all == null ? new File[0] : all) {
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+        }
+    }
+
+    /**
+     * Returns the spool shared by the emitters with the given name using the configured dead letter directory and
+     * application. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration with a deadLetterDirectory
+     * @param emitterName
+     *        name of the emitter, see getDirectory()
+     * @return the shared spool
+     */
+    public static DeadLetterSpool forConfiguration(final KinesisConnectorConfiguration configuration,
+            String emitterName) {
+        final File directory = getDirectory(configuration, emitterName);
+        return SHARED_SPOOLS.acquire(directory.getAbsolutePath(),
+                new SharedResources.Factory<DeadLetterSpool, RuntimeException>() {
+                    @Override
+                    public DeadLetterSpool create(String key) {
+                        return new DeadLetterSpool(directory, configuration.DEAD_LETTER_SEGMENT_BYTES,
+                                configuration.DEAD_LETTER_SYNC_INTERVAL);
+                    }
+                });
+    }
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration with a deadLetterDirectory
+     * @param emitterName
+     *        name of the emitter; the emitters of the connector library use their simple class name
+     * @return the directory holding the segments of the emitter in the configured application
+     */
+    public static File getDirectory(KinesisConnectorConfiguration configuration, String emitterName) {
+        if (configuration.DEAD_LETTER_DIRECTORY == null) {
+            throw new IllegalArgumentException(KinesisConnectorConfiguration.PROP_DEAD_LETTER_DIRECTORY
+                    + " is not set");
+        }
+        return new File(new File(configuration.DEAD_LETTER_DIRECTORY, configuration.APP_NAME), emitterName);
+    }
+
+    /**
+     * Appends records to the spool.
+     * 
+     * @param records
+     *        the records to append
+     * @throws IOException
+     *         if the records could not be written
+     */
+    public void append(List<byte[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteBuffer headers = ByteBuffer.allocate(ENTRY_HEADER_SIZE * records.size());
+        ByteBuffer[] entries = new ByteBuffer[2 * records.size()];
+        CRC32 crc = new CRC32();
+        long batchBytes = 0;
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            crc.reset();
+            crc.update(record, 0, record.length);
+            headers.putInt(record.length);
+            headers.putInt((int) crc.getValue());
+            ByteBuffer header = headers.duplicate();
+            header.position(ENTRY_HEADER_SIZE * i);
+            header.limit(ENTRY_HEADER_SIZE * (i + 1));
+            entries[2 * i] = header;
+            entries[2 * i + 1] = ByteBuffer.wrap(record);
+            batchBytes += ENTRY_HEADER_SIZE + record.length;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Dead letter spool " + directory + " is closed");
+            }
+            if (channel != null && segmentSize + batchBytes > segmentBytes) {
+                closeSegment();
+            }
+            if (channel == null) {
+                openSegment();
+            }
+            long written = 0;
+            while (written < batchBytes) {
+                written += channel.write(entries);
+            }
+            segmentSize += batchBytes;
+            long now = System.currentTimeMillis();
+            if (now - lastSyncMillis >= syncIntervalMillis) {
+                sync(now);
+            }
+        }
+        recordsSpooled.addAndGet(records.size());
+    }
+
+    /**
+     * Appends records to the spool, encoded in UTF-8.
+     * 
+     * @param records
+     *        the records to append
+     * @throws IOException
+     *         if the records could not be written
+     */
+    public void appendStrings(List<String> records) throws IOException {
+        List<byte[]> encoded = new ArrayList<byte[]>(records.size());
+        for (String record : records) {
+            encoded.add(record.getBytes(StandardCharsets.UTF_8));
+        }
+        append(encoded);
+    }
+
+    // Called with the lock held
+    private void openSegment() throws IOException {
+        segment = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentNumber++, OPEN_SUFFIX));
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        channel = file.getChannel();
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        magic.putInt(0, SEGMENT_MAGIC);
+        while (magic.hasRemaining()) {
+            channel.write(magic);
+        }
+        segmentSize = magic.capacity();
+    }
+
+    // Called with the lock held
+    private void closeSegment() throws IOException {
+        try {
+            sync(System.currentTimeMillis());
+        } finally {
+            channel.close();
+            channel = null;
+        }
+        File closedSegment = closedName(segment);
+        if (!segment.renameTo(closedSegment)) {
+            throw new IOException("Could not rename dead letter segment " + segment + " to " + closedSegment);
+        }
+        segment = null;
+    }
+
+    // Called with the lock held
+    private void sync(long now) throws IOException {
+        channel.force(false);
+        lastSyncMillis = now;
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Closes the segment being written, so that it can be replayed while the spool is in use.
+     * 
+     * @throws IOException
+     *         if the segment could not be closed
+     */
+    public synchronized void rotate() throws IOException {
+        if (channel != null) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * @return the number of records appended to the spool
+     */
+    public long getRecordsSpooled() {
+        return recordsSpooled.get();
+    }
+
+    /**
+     * @return the number of times the segment being written was forced to disk
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Closes the segment being written once every caller of forConfiguration() has closed the spool.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_SPOOLS.release(this)) {
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            try {
+                rotate();
+            } catch (IOException e) {
+                LOG.error("Unable to close dead letter segment " + segment, e);
+            }
+        }
+    }
+
+    /**
+     * @return the segments of the directory having the given suffix, oldest first
+     */
+    static File[] listSegments(File directory, String suffix) {
+        File[] segments = directory.listFiles(new SegmentFilter(suffix));
+        if (segments == null) {
+            return new File[0];
+        }
+        // Segment numbers are zero-padded, so names sort in the order the segments were written
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Reads the records of a closed segment, stopping at a torn or corrupt entry.
+     * 
+     * @return the records of the segment
+     * @throws IOException
+     *         if the segment could not be read or is not a dead letter segment
+     */
+    static List<byte[]> readSegment(File segment) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+        try {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException(segment + " is not a dead letter segment");
+            }
+            long remaining = segment.length() - 4;
+            CRC32 crc = new CRC32();
+            while (remaining >= ENTRY_HEADER_SIZE) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > remaining - ENTRY_HEADER_SIZE) {
+                    LOG.warn("Skipping torn entry at the end of dead letter segment " + segment);
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Skipping corrupt entries at the end of dead letter segment " + segment);
+                    break;
+                }
+                records.add(record);
+                remaining -= ENTRY_HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            LOG.warn("Skipping torn entry at the end of dead letter segment " + segment);
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    private static File closedName(File openSegment) {
+        String name = openSegment.getName();
+        return new File(openSegment.getParentFile(), name.substring(0, name.length() - OPEN_SUFFIX.length())
+                + CLOSED_SUFFIX);
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.lastIndexOf('.')));
+    }
+
+    private static class SegmentFilter implements FilenameFilter {
+        private final String suffix;
+
+        SegmentFilter(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public boolean accept(File dir, String name) {
+            if (!name.startsWith(SEGMENT_PREFIX)) {
+                return false;
+            }
+            if (suffix != null) {
+                return name.endsWith(suffix);
+            }
+            return name.endsWith(OPEN_SUFFIX) || name.endsWith(CLOSED_SUFFIX);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+
+/**
+ * An IRetryPolicy with exponential backoff and full jitter: before retry n (counting from 0), it waits a random time
+ * between 0 and min(maxBackoff, initialBackoff * 2^n). Randomizing the whole delay spreads out the retries of shards
+ * that failed at the same time, for example because a destination throttled them all. Retries stop after maxRetries
+ * retries, or once timeBudget has elapsed since the first attempt; no delay extends past the budget.
+ */
+public class ExponentialBackoffRetryPolicy implements IRetryPolicy {
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxRetries;
+    private final long timeBudgetMillis;
+
+    /**
+     * Creates the policy used to retry emits and puts: retryInitialBackoff doubling up to backoffInterval, within a
+     * budget of retryTimeBudget and, if retryLimit is set, at most retryLimit attempts in total.
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     */
+    public ExponentialBackoffRetryPolicy(KinesisConnectorConfiguration configuration) {
+        this(configuration.RETRY_INITIAL_BACKOFF,
+                configuration.BACKOFF_INTERVAL,
+                Math.max(1, configuration.RETRY_LIMIT) - 1,
+                configuration.RETRY_TIME_BUDGET);
+    }
+
+    /**
+     * @param initialBackoffMillis
+     *        upper bound of the delay before the first retry
+     * @param maxBackoffMillis
+     *        upper bound of any delay
+     * @param maxRetries
+     *        maximum number of retries
+     * @param timeBudgetMillis
+     *        time after the first attempt after which no retry is started
+     */
+    public ExponentialBackoffRetryPolicy(long initialBackoffMillis,
+            long maxBackoffMillis,
+            int maxRetries,
+            long timeBudgetMillis) {
+        this.initialBackoffMillis = Math.max(1L, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.maxRetries = maxRetries;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    @Override
+    public long getDelayMillis(int retries, long elapsedMillis) {
+        if (retries >= maxRetries || elapsedMillis >= timeBudgetMillis) {
+            return NO_RETRY;
+        }
+        // Doubling stops once it reaches the maximum, so it cannot overflow
+        long ceiling = initialBackoffMillis;
+        for (int i = 0; i < retries && ceiling < maxBackoffMillis; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxBackoffMillis);
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.min(delay, timeBudgetMillis - elapsedMillis);
+    }
+}
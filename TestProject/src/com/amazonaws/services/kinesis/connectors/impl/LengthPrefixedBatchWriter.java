@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames payloads into batches in the length-prefixed batch format, for putting many small records into one Amazon
+ * Kinesis record. The format is
+ * 
+ * <pre>
+ * batch   = count payload*
+ * count   = varint                 number of payloads in the batch
+ * payload = length byte{length}    length is a varint, followed by that many bytes
+ * </pre>
+ * 
+ * where a varint is an unsigned LEB128 integer: 7 bits per byte, least significant group first, with the high bit
+ * set on every byte but the last. Payloads are opaque; the samples use JSON. Batches are read with a
+ * LengthPrefixedCollectionTransformer.
+ * <p>
+ * Each payload is copied once, into the batch being built. A batch is sealed when the next payload would take it over
+ * the size limit. The count is written into space reserved at the start of the batch when it is sealed, so sealing
+ * does not copy the payloads again.
+ */
+public class LengthPrefixedBatchWriter {
+    /** Maximum number of bytes of a varint encoding an int */
+    public static final int MAX_VARINT_BYTES = 5;
+    // An Amazon Kinesis record holds at most 1 MB; larger batches grow as needed
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private final int maxBatchBytes;
+    private byte[] buf;
+    private int count;
+    private int payloads;
+
+    /**
+     * @param maxBatchBytes
+     *        size limit of a batch; a single payload larger than this is sent in a batch of its own
+     */
+    public LengthPrefixedBatchWriter(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Adds a payload to the current batch.
+     * 
+     * @param payload
+     *        the payload
+     * @return the previous batch, sealed because the payload did not fit in it, or null
+     */
+    public ByteBuffer add(byte[] payload) {
+        return add(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Adds the remaining bytes of a payload to the current batch. The position of the payload is not changed.
+     * 
+     * @param payload
+     *        the payload
+     * @return the previous batch, sealed because the payload did not fit in it, or null
+     */
+    public ByteBuffer add(ByteBuffer payload) {
+        int length = payload.remaining();
+        int framedLength = varintSize(length) + length;
+        ByteBuffer batch = null;
+        if (payloads > 0 && batchSize(payloads + 1, count + framedLength) > maxBatchBytes) {
+            batch = seal();
+        }
+        if (buf == null) {
+            buf = new byte[Math.max(Math.min(maxBatchBytes, MAX_INITIAL_CAPACITY), framedLength) + MAX_VARINT_BYTES];
+            count = MAX_VARINT_BYTES;
+        } else if (count + framedLength > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length * 2, count + framedLength)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+        count = writeVarint(buf, count, length);
+        payload.duplicate().get(buf, count, length);
+        count += length;
+        payloads++;
+        return batch;
+    }
+
+    /**
+     * Seals the current batch.
+     * 
+     * @return the batch, or null if no payloads were added since the last batch was sealed
+     */
+    public ByteBuffer seal() {
+        if (payloads == 0) {
+            return null;
+        }
+        int start = MAX_VARINT_BYTES - varintSize(payloads);
+        writeVarint(buf, start, payloads);
+        ByteBuffer batch = ByteBuffer.wrap(buf, start, count - start).slice();
+        buf = null;
+        count = 0;
+        payloads = 0;
+        return batch;
+    }
+
+    private static int batchSize(int payloads, int end) {
+        return varintSize(payloads) + end - MAX_VARINT_BYTES;
+    }
+
+    /**
+     * @return the number of bytes of the varint encoding of value
+     */
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the varint encoding of value.
+     * 
+     * @return the offset following the varint
+     */
+    private static int writeVarint(byte[] dest, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            dest[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.interfaces.ICollectionTransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * An ICollectionTransformer for records holding a batch in the format written by the LengthPrefixedBatchWriter. Each
+ * payload of the batch is transformed by the given ITransformer, which also transforms the records to the output
+ * type.
+ * <p>
+ * toClass() checks the framing of the batch and returns a collection that transforms the payloads as it is iterated.
+ * Each payload is passed to the payload transformer as a Record whose data is a slice of the batch, so the payload
+ * bytes are not copied, with the sequence number and partition key of the batch record. A payload the payload
+ * transformer cannot transform is logged and skipped, so the collection can yield fewer elements than its size().
+ * 
+ * @param <T>
+ *        the data type stored in the payloads
+ * @param <U>
+ *        the data type to emit
+ */
+public class LengthPrefixedCollectionTransformer<T, U> implements ICollectionTransformer<T, U> {
+    private static final Log LOG = LogFactory.getLog(LengthPrefixedCollectionTransformer.class);
+
+    private final ITransformer<T, U> payloadTransformer;
+
+    /**
+     * @param payloadTransformer
+     *        transformer for the payloads of the batches
+     */
+    public LengthPrefixedCollectionTransformer(ITransformer<T, U> payloadTransformer) {
+        this.payloadTransformer = payloadTransformer;
+    }
+
+    @Override
+    public Collection<T> toClass(Record record) throws IOException {
+        ByteBuffer data = record.getData().duplicate();
+        int count = readVarint(data);
+        // Check the framing up front, so that a malformed batch fails here rather than while it is iterated
+        ByteBuffer payloads = data.duplicate();
+        for (int i = 0; i < count; i++) {
+            int length = readVarint(payloads);
+            if (length > payloads.remaining()) {
+                throw new IOException("Payload " + i + " of " + length + " bytes overruns batch record "
+                        + record.getSequenceNumber());
+            }
+            payloads.position(payloads.position() + length);
+        }
+        if (payloads.hasRemaining()) {
+            throw new IOException(payloads.remaining() + " trailing bytes after " + count
+                    + " payloads in batch record " + record.getSequenceNumber());
+        }
+        return new Payloads(record, data, count);
+    }
+
+    @Override
+    public U fromClass(T record) throws IOException {
+        return payloadTransformer.fromClass(record);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint that fits in a non-negative int.
+     */
+    private static int readVarint(ByteBuffer data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!data.hasRemaining()) {
+                throw new IOException("Truncated varint in batch record");
+            }
+            byte b = data.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in batch record");
+    }
+
+    /**
+     * The payloads of a batch record, transformed as they are iterated.
+     */
+    private class Payloads extends AbstractCollection<T> {
+        private final Record record;
+        private final ByteBuffer payloads;
+        private final int count;
+
+        Payloads(Record record, ByteBuffer payloads, int count) {
+            this.record = record;
+            this.payloads = payloads;
+            this.count = count;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private final ByteBuffer data = payloads.duplicate();
+                private int remaining = count;
+                private T next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && remaining > 0) {
+                        remaining--;
+                        next = transformNext();
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    T result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private T transformNext() {
+                    ByteBuffer payload;
+                    try {
+                        int length = readVarint(data);
+                        payload = data.slice();
+                        payload.limit(length);
+                        data.position(data.position() + length);
+                    } catch (IOException e) {
+                        // Cannot happen, the framing was checked by toClass()
+                        throw new IllegalStateException(e);
+                    }
+                    Record payloadRecord =
+                            new Record().withData(payload)
+                                    .withSequenceNumber(record.getSequenceNumber())
+                                    .withPartitionKey(record.getPartitionKey());
+                    try {
+                        return payloadTransformer.toClass(payloadRecord);
+                    } catch (IOException e) {
+                        LOG.error("Skipping payload of batch record " + record.getSequenceNumber(), e);
+                        return null;
+                    }
+                }
+            };
+        }
+    }
+}
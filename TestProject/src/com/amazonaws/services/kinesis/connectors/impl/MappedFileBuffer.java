@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.interfaces.IShardAware;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+
+/**
+ * This class is a ByteArenaBuffer whose arena is a memory-mapped segment file rather than heap or direct memory, so
+ * that large values of bufferByteSizeLimit do not increase the heap used per shard. Each buffer uses a segment file
+ * (.seg) holding the record payloads and an index file (.idx) holding the number of records, the end offset of each
+ * record, the first and last sequence numbers and the index of the first record having the last sequence number. Both
+ * files are created in a directory named after the application under the configured bufferSpillDirectory, and are named
+ * after the shard. The emitter is handed a read-only view of the mapped segment by getRawData().
+ * <p>
+ * The buffer must be initialized with a shard id before use, which the KinesisConnectorRecordProcessor does through the
+ * IShardAware interface. When the first record arrives, the buffer looks for a segment left behind for the same shard
+ * by a previous run on this host. If a segment starts with that record, which is the case when the record processor
+ * resumed from the checkpoint preceding that segment, its records are recovered and incoming records up to its last
+ * sequence number are skipped. User records of an aggregated record share its sequence number, so of the incoming
+ * records having the last sequence number, only as many as the segment ends with are skipped. All other segments of the
+ * shard are discarded. Recovery covers a crash of the process; the files are not forced to disk, so after a crash of
+ * the host a segment may be incomplete, in which case it is discarded or its missing records are read again from the
+ * stream.
+ * <p>
+ * Closing the buffer deletes its files if it is empty, and otherwise keeps them for recovery. This class is not
+ * thread-safe.
+ * 
+ * @param <T>
+ */
+public class MappedFileBuffer<T> extends ByteArenaBuffer<T> implements IShardAware, Closeable {
+    private static final Log LOG = LogFactory.getLog(MappedFileBuffer.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    // Index file layout: magic, record count, first and last sequence numbers, index of the first record having the
+    // last sequence number, then the end offset of each record
+    private static final int INDEX_MAGIC = 0x4B434247;
+    private static final int MAX_SEQUENCE_NUMBER_LENGTH = 128;
+    private static final int COUNT_OFFSET = 4;
+    private static final int FIRST_SEQUENCE_NUMBER_OFFSET = 8;
+    private static final int LAST_SEQUENCE_NUMBER_OFFSET = FIRST_SEQUENCE_NUMBER_OFFSET + 2 + MAX_SEQUENCE_NUMBER_LENGTH;
+    private static final int LAST_GROUP_START_OFFSET = LAST_SEQUENCE_NUMBER_OFFSET + 2 + MAX_SEQUENCE_NUMBER_LENGTH;
+    private static final int HEADER_SIZE = LAST_GROUP_START_OFFSET + 4;
+    private static final int INITIAL_INDEX_RECORDS = 1024;
+
+    // Segments in use by buffers of this process, so that two buffers never map the same files
+    private static final Set<String> CLAIMED_SEGMENTS =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final File directory;
+    private String shardId;
+    private File segmentBase;
+    private RandomAccessFile segmentFile;
+    private RandomAccessFile indexFile;
+    private MappedByteBuffer index;
+    // Sequence number of the last recovered record; incoming records up to it are already in the buffer
+    private BigInteger recoveredUpTo;
+    // Number of incoming records having the sequence number recoveredUpTo that are still to be skipped
+    private int recoveredRemaining;
+    private String lastAppendedSequenceNumber;
+
+    public MappedFileBuffer(KinesisConnectorConfiguration configuration, ITransformer<T, byte[]> transformer) {
+        super(configuration, transformer);
+        directory = new File(configuration.BUFFER_SPILL_DIRECTORY, configuration.APP_NAME);
+    }
+
+    @Override
+    public void initialize(String shardId) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create buffer spill directory " + directory);
+        }
+        this.shardId = shardId;
+        for (int slot = 0; segmentBase == null; slot++) {
+            File base = new File(directory, shardId + "." + slot);
+            if (CLAIMED_SEGMENTS.add(base.getPath())) {
+                segmentBase = base;
+            }
+        }
+    }
+
+    @Override
+    public void consumeRawRecord(ByteBuffer data, String sequenceNumber) {
+        if (index == null) {
+            open(sequenceNumber);
+        }
+        if (recoveredUpTo != null) {
+            int comparison = new BigInteger(sequenceNumber).compareTo(recoveredUpTo);
+            if (comparison < 0 || (comparison == 0 && recoveredRemaining-- > 0)) {
+                return;
+            }
+            recoveredUpTo = null;
+        }
+        super.consumeRawRecord(data, sequenceNumber);
+    }
+
+    /**
+     * Opens the segment files, recovering a segment left behind for this shard that starts with the given record.
+     */
+    private void open(String firstSequenceNumber) {
+        if (segmentBase == null) {
+            throw new IllegalStateException("MappedFileBuffer must be initialized with a shard id before use");
+        }
+        try {
+            File recovered = null;
+            File[] indexFiles = directory.listFiles();
+            for (File file : indexFiles == null ? new File[0] : indexFiles) {
+                String name = file.getName();
+                if (!name.startsWith(shardId + ".") || !name.endsWith(INDEX_SUFFIX)) {
+                    continue;
+                }
+                File base = new File(directory, name.substring(0, name.length() - INDEX_SUFFIX.length()));
+                boolean own = base.equals(segmentBase);
+                if (!own && !CLAIMED_SEGMENTS.add(base.getPath())) {
+                    // In use by another buffer of this process
+                    continue;
+                }
+                if (recovered == null && startsWith(base, firstSequenceNumber)) {
+                    recovered = base;
+                } else if (!own) {
+                    LOG.info("Discarding buffer segment " + base + " left behind for shard " + shardId);
+                    delete(base);
+                    CLAIMED_SEGMENTS.remove(base.getPath());
+                }
+            }
+            if (recovered != null && !recovered.equals(segmentBase)) {
+                CLAIMED_SEGMENTS.remove(segmentBase.getPath());
+                delete(segmentBase);
+                segmentBase = recovered;
+            }
+
+            segmentFile = new RandomAccessFile(new File(segmentBase.getPath() + SEGMENT_SUFFIX), "rw");
+            indexFile = new RandomAccessFile(new File(segmentBase.getPath() + INDEX_SUFFIX), "rw");
+            if (recovered != null) {
+                recover();
+            } else {
+                segmentFile.setLength(0);
+                indexFile.setLength(0);
+                index = mapIndex(INITIAL_INDEX_RECORDS);
+                index.putInt(0, INDEX_MAGIC);
+                index.putInt(COUNT_OFFSET, 0);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open buffer segment " + segmentBase, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        FileChannel indexChannel = indexFile.getChannel();
+        index = indexChannel.map(MapMode.READ_WRITE, 0, indexChannel.size());
+        int count = index.getInt(COUNT_OFFSET);
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            ends[i] = index.getInt(HEADER_SIZE + 4 * i);
+        }
+        String first = getSequenceNumber(index, FIRST_SEQUENCE_NUMBER_OFFSET);
+        String last = getSequenceNumber(index, LAST_SEQUENCE_NUMBER_OFFSET);
+        FileChannel segmentChannel = segmentFile.getChannel();
+        ByteBuffer contents = segmentChannel.map(MapMode.READ_WRITE, 0, segmentChannel.size());
+        contents.position(ends[count - 1]);
+        restore(contents, ends, count, first, last);
+        recoveredUpTo = new BigInteger(last);
+        recoveredRemaining = count - Math.min(Math.max(index.getInt(LAST_GROUP_START_OFFSET), 0), count);
+        lastAppendedSequenceNumber = last;
+        LOG.info("Recovered " + count + " records from " + first + " to " + last + " for shard " + shardId
+                + " from buffer segment " + segmentBase);
+    }
+
+    /**
+     * @return true if the segment is complete and its first record has the given sequence number
+     */
+    private static boolean startsWith(File base, String sequenceNumber) throws IOException {
+        File segment = new File(base.getPath() + SEGMENT_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(new File(base.getPath() + INDEX_SUFFIX), "r")) {
+            if (!segment.isFile() || file.length() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            file.getChannel().read(header, 0);
+            int count = header.getInt(COUNT_OFFSET);
+            if (header.getInt(0) != INDEX_MAGIC || count <= 0 || file.length() < HEADER_SIZE + 4L * count) {
+                return false;
+            }
+            file.seek(HEADER_SIZE + 4L * (count - 1));
+            return file.readInt() <= segment.length()
+                    && sequenceNumber.equals(getSequenceNumber(header, FIRST_SEQUENCE_NUMBER_OFFSET))
+                    && !getSequenceNumber(header, LAST_SEQUENCE_NUMBER_OFFSET).isEmpty();
+        }
+    }
+
+    private static void delete(File base) {
+        new File(base.getPath() + SEGMENT_SUFFIX).delete();
+        new File(base.getPath() + INDEX_SUFFIX).delete();
+    }
+
+    /**
+     * Maps a larger region of the segment file. Earlier mappings stay valid, so the contents are not copied.
+     */
+    @Override
+    protected ByteBuffer grow(ByteBuffer current, int capacity) {
+        try {
+            MappedByteBuffer grown = segmentFile.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+            grown.position(current.position());
+            return grown;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not extend buffer segment " + segmentBase + " to " + capacity
+                    + " bytes", e);
+        }
+    }
+
+    @Override
+    protected void recordAppended(int recordIndex, int end, String sequenceNumber) {
+        int offset = HEADER_SIZE + 4 * recordIndex;
+        if (offset + 4 > index.capacity()) {
+            index = mapIndex(2 * (index.capacity() - HEADER_SIZE) / 4);
+        }
+        index.putInt(offset, end);
+        if (recordIndex == 0) {
+            putSequenceNumber(FIRST_SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+        }
+        if (recordIndex == 0 || !sequenceNumber.equals(lastAppendedSequenceNumber)) {
+            index.putInt(LAST_GROUP_START_OFFSET, recordIndex);
+            lastAppendedSequenceNumber = sequenceNumber;
+        }
+        // The count is updated before the last sequence number, so a crash in between can only cause duplicates
+        index.putInt(COUNT_OFFSET, recordIndex + 1);
+        putSequenceNumber(LAST_SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+    }
+
+    private MappedByteBuffer mapIndex(int records) {
+        try {
+            return indexFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + 4L * records);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map buffer index " + segmentBase + INDEX_SUFFIX, e);
+        }
+    }
+
+    private void putSequenceNumber(int offset, String sequenceNumber) {
+        int length = sequenceNumber.length();
+        if (length > MAX_SEQUENCE_NUMBER_LENGTH) {
+            throw new IllegalArgumentException("Sequence number is longer than " + MAX_SEQUENCE_NUMBER_LENGTH
+                    + " characters: " + sequenceNumber);
+        }
+        // Sequence numbers are decimal digits, stored one byte per character
+        index.putShort(offset, (short) length);
+        for (int i = 0; i < length; i++) {
+            index.put(offset + 2 + i, (byte) sequenceNumber.charAt(i));
+        }
+    }
+
+    private static String getSequenceNumber(ByteBuffer header, int offset) {
+        int length = Math.min(Math.max(header.getShort(offset), 0), MAX_SEQUENCE_NUMBER_LENGTH);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = header.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        recoveredUpTo = null;
+        lastAppendedSequenceNumber = null;
+        if (index != null) {
+            index.putInt(COUNT_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Closes the segment files, deleting them if the buffer is empty.
+     */
+    @Override
+    public void close() throws IOException {
+        if (segmentBase == null) {
+            return;
+        }
+        boolean empty = index == null || index.getInt(COUNT_OFFSET) == 0;
+        index = null;
+        try {
+            if (segmentFile != null) {
+                segmentFile.close();
+            }
+            if (indexFile != null) {
+                indexFile.close();
+            }
+        } finally {
+            if (empty) {
+                delete(segmentBase);
+            }
+            CLAIMED_SEGMENTS.remove(segmentBase.getPath());
+            segmentBase = null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+/**
+ * IAsyncEmitter is an IEmitter that can start an emit without waiting for it to finish. When asyncEmit is enabled
+ * and the pipeline's emitter implements IAsyncEmitter, the KinesisConnectorRecordProcessor calls emitAsync() on its
+ * own thread instead of handing the buffer to a per-shard emit thread, and checks the returned future for completion
+ * each time it processes records. Retries of failed records are started the same way, once their backoff has elapsed,
+ * and the buffer is checkpointed once its future and those of all earlier buffers have completed.
+ * <p>
+ * The synchronous emit() method is still used when asyncEmit is disabled and for the final emit at shutdown.
+ * 
+ * @param <T>
+ *        the data type stored in the record
+ */
+public interface IAsyncEmitter<T> extends IEmitter<T> {
+
+    /**
+     * Starts emitting the set of filtered records. The buffer is not modified or reused until the returned future has
+     * completed. This method should not block.
+     * 
+     * @param buffer
+     *        The full buffer of records
+     * @return A future completing with the list of records that were not emitted successfully, to be retried, or
+     *         failing with an IOException if a failure was reached that is not recoverable, in which case no retry
+     *         will occur and the fail method will be called
+     */
+    Future<List<T>> emitAsync(UnmodifiableBuffer<T> buffer);
+}
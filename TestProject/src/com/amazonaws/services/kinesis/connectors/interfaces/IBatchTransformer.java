@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * IBatchTransformer is used to transform all the Amazon Kinesis Records passed to one processRecords() call to the
+ * data model class (T) at once, and from the data model class to the output type (U) for the emitter. Transforming a
+ * whole batch lets an implementation set up its parser and scratch buffers once per batch rather than once per record.
+ * <p>
+ * When a transformer implements IBatchTransformer as well as ITransformer, the record processor uses the batch method.
+ * 
+ * @param <T>
+ *        the data type stored in the record
+ * @param <U>
+ *        the data type to emit
+ */
+public interface IBatchTransformer<T, U> extends ITransformerBase<T, U> {
+    /**
+     * Transform records into objects of their original class. The returned list has one element per record, in the
+     * same order. A record that cannot be transformed yields a null element and is skipped by the record processor.
+     * 
+     * @param records
+     *        raw records from the Amazon Kinesis stream
+     * @return data as its original class, with null for records that could not be transformed
+     * @throws IOException
+     *         could not convert the batch, in which case all of its records are skipped
+     */
+    public List<T> toClass(List<Record> records) throws IOException;
+}
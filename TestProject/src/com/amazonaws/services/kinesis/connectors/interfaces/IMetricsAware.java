@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+
+/**
+ * IMetricsAware may be implemented by the IBuffer, IFilter, IEmitter or ITransformer of an IKinesisConnectorPipeline
+ * that publishes metrics of its own. The KinesisConnectorRecordProcessor calls setMetricsFactory() on each of them
+ * when it is created with a metrics factory, and on any buffer it obtains from the pipeline after that.
+ */
+public interface IMetricsAware {
+
+    /**
+     * Invoked with the metrics factory of the record processor.
+     * 
+     * @param metricsFactory
+     *        factory used to publish metrics
+     */
+    public void setMetricsFactory(IMetricsFactory metricsFactory);
+}
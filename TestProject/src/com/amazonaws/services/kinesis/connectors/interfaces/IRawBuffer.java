@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * IRawBuffer is an IBuffer that stores the payload bytes of records rather than transformed objects. When the
+ * pipeline's buffer is an IRawBuffer, the KinesisConnectorRecordProcessor passes the data of each Amazon Kinesis
+ * Record straight to consumeRawRecord(), only deserializing it with the ITransformer if the IFilter needs to inspect
+ * it, and emits the stored payloads unchanged. The ITransformer.fromClass() method is therefore not called, and an
+ * IRawBuffer may only be used in pipelines whose output type is byte[].
+ * 
+ * @param <T>
+ *        the data type of the records, used when the records are retrieved as objects
+ */
+public interface IRawBuffer<T> extends IBuffer<T> {
+
+    /**
+     * Stores the payload of a record in the buffer. The position of the data is not modified.
+     * 
+     * @param data
+     *        payload of the record
+     * @param sequenceNumber
+     *        Amazon Kinesis sequence identifier
+     */
+    public void consumeRawRecord(ByteBuffer data, String sequenceNumber);
+
+    /**
+     * Get the payloads stored in the buffer, one entry per record. The same list instance is returned until the
+     * buffer is cleared, and it is only valid until then.
+     * 
+     * @return the payloads stored in the buffer
+     */
+    public List<byte[]> getRawRecords();
+
+    /**
+     * Get the concatenation of all payloads stored in the buffer, without copying them.
+     * 
+     * @return a read-only buffer positioned at the first byte of the first payload
+     */
+    public ByteBuffer getRawData();
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+/**
+ * IRetryPolicy decides whether and when a failed operation, such as an IEmitter.emit() call that left records
+ * unprocessed, is attempted again. Implementations must be thread-safe, as one policy is shared by the threads
+ * retrying operations.
+ */
+public interface IRetryPolicy {
+    /** Returned by getDelayMillis() when the operation must not be retried */
+    public static final long NO_RETRY = -1L;
+
+    /**
+     * @param retries
+     *        number of retries made so far, 0 after the first attempt failed
+     * @param elapsedMillis
+     *        time since the first attempt started, in milliseconds
+     * @return the time to wait before the next attempt in milliseconds, or NO_RETRY
+     */
+    public long getDelayMillis(int retries, long elapsedMillis);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.interfaces;
+
+/**
+ * IShardAware may be implemented by the IBuffer, IFilter, IEmitter or ITransformer of an IKinesisConnectorPipeline
+ * that needs to know which shard it is processing. The KinesisConnectorRecordProcessor calls initialize() on each of
+ * them when the record processor itself is initialized, before any records are processed, and on any buffer it
+ * obtains from the pipeline after that.
+ */
+public interface IShardAware {
+
+    /**
+     * Invoked with the shard the record processor has been assigned.
+     * 
+     * @param shardId
+     *        Amazon Kinesis shard identifier
+     */
+    public void initialize(String shardId);
+}
@@ -26,6 +26,8 @@ import java.io.IOException;
  * - Use ITransformer if each Amazon Kinesis Record contains one object of type T.
  * - Use ICollectionTransformer if each Amazon Kinesis Record contains a Collection<T>
  * (batched PutRecordRequests).
+ * - Use IBatchTransformer, usually alongside ITransformer, to transform all the records
+ * of a processRecords() call at once.
  * 
  * @param <T>
  *        the data type stored in the record
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.kinesis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * The aggregated record format of the Amazon Kinesis Producer Library, which packs many user records, each with its
+ * own partition key, into one Amazon Kinesis record. An aggregated record is
+ * 
+ * <pre>
+ * magic (F3 89 9A C2) | protobuf AggregatedRecord | MD5 of the protobuf (16 bytes)
+ * 
+ * message AggregatedRecord {
+ *     repeated string partition_key_table = 1;
+ *     repeated string explicit_hash_key_table = 2;
+ *     repeated Record records = 3;
+ * }
+ * message Record {
+ *     required uint64 partition_key_index = 1;
+ *     optional uint64 explicit_hash_key_index = 2;
+ *     required bytes data = 3;
+ *     repeated Tag tags = 4;
+ * }
+ * </pre>
+ * 
+ * Records are written by a RecordAggregator and read with deaggregate(). A record that does not start with the magic
+ * bytes or whose checksum does not match is a plain record.
+ */
+public final class AggregatedRecords {
+    static final byte[] MAGIC = { (byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2 };
+    static final int DIGEST_LENGTH = 16;
+
+    // Protobuf tags (field number << 3 | wire type)
+    static final int PARTITION_KEY_TABLE_TAG = 1 << 3 | 2;
+    static final int EXPLICIT_HASH_KEY_TABLE_TAG = 2 << 3 | 2;
+    static final int RECORDS_TAG = 3 << 3 | 2;
+    static final int PARTITION_KEY_INDEX_TAG = 1 << 3;
+    static final int EXPLICIT_HASH_KEY_INDEX_TAG = 2 << 3;
+    static final int DATA_TAG = 3 << 3 | 2;
+
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private AggregatedRecords() {
+    }
+
+    /**
+     * Splits an aggregated record into its user records. The data of each user record is a slice of the aggregated
+     * record, so it is not copied. All user records carry the sequence number of the aggregated record.
+     * 
+     * @param record
+     *        a record read from Amazon Kinesis
+     * @return the user records, or null if the record is not an aggregated record
+     * @throws IOException
+     *         if the record has a valid checksum but cannot be parsed
+     */
+    public static List<Record> deaggregate(Record record) throws IOException {
+        ByteBuffer data = record.getData();
+        int start = data.position();
+        int end = data.limit() - DIGEST_LENGTH;
+        if (end - start < MAGIC.length) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(start + i) != MAGIC[i]) {
+                return null;
+            }
+        }
+        ByteBuffer body = data.duplicate();
+        body.position(start + MAGIC.length).limit(end);
+        if (!digest(body.duplicate()).equals(ByteBuffer.wrap(digestBytes(data, end)))) {
+            return null;
+        }
+
+        List<String> partitionKeys = new ArrayList<String>();
+        List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+        List<Integer> partitionKeyIndexes = new ArrayList<Integer>();
+        while (body.hasRemaining()) {
+            int tag = (int) readVarint(body);
+            if (tag == PARTITION_KEY_TABLE_TAG) {
+                partitionKeys.add(StandardCharsets.UTF_8.decode(readLengthDelimited(body)).toString());
+            } else if (tag == RECORDS_TAG) {
+                ByteBuffer message = readLengthDelimited(body);
+                long partitionKeyIndex = -1;
+                ByteBuffer payload = null;
+                while (message.hasRemaining()) {
+                    int field = (int) readVarint(message);
+                    if (field == PARTITION_KEY_INDEX_TAG) {
+                        partitionKeyIndex = readVarint(message);
+                    } else if (field == DATA_TAG) {
+                        payload = readLengthDelimited(message);
+                    } else {
+                        skipField(message, field);
+                    }
+                }
+                if (partitionKeyIndex < 0 || partitionKeyIndex > Integer.MAX_VALUE || payload == null) {
+                    throw new IOException("Malformed user record in aggregated record " + record.getSequenceNumber());
+                }
+                partitionKeyIndexes.add((int) partitionKeyIndex);
+                payloads.add(payload);
+            } else {
+                skipField(body, tag);
+            }
+        }
+
+        List<Record> userRecords = new ArrayList<Record>(payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            int partitionKeyIndex = partitionKeyIndexes.get(i);
+            if (partitionKeyIndex >= partitionKeys.size()) {
+                throw new IOException("Partition key index " + partitionKeyIndex + " out of range in aggregated record "
+                        + record.getSequenceNumber());
+            }
+            userRecords.add(new Record().withData(payloads.get(i))
+                    .withPartitionKey(partitionKeys.get(partitionKeyIndex))
+                    .withSequenceNumber(record.getSequenceNumber()));
+        }
+        return userRecords;
+    }
+
+    /**
+     * @return the MD5 digest of the remaining bytes of the buffer, which are consumed
+     */
+    static ByteBuffer digest(ByteBuffer body) {
+        MessageDigest md5 = MD5.get();
+        md5.update(body);
+        return ByteBuffer.wrap(md5.digest());
+    }
+
+    private static byte[] digestBytes(ByteBuffer data, int offset) {
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            digest[i] = data.get(offset + i);
+        }
+        return digest;
+    }
+
+    private static long readVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated varint in aggregated record");
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in aggregated record");
+    }
+
+    /**
+     * @return a slice holding the next length-delimited field, whose bytes are consumed
+     */
+    private static ByteBuffer readLengthDelimited(ByteBuffer buffer) throws IOException {
+        long length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Length-delimited field of " + length + " bytes overruns aggregated record");
+        }
+        ByteBuffer field = buffer.slice();
+        field.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return field;
+    }
+
+    private static void skipField(ByteBuffer buffer, int tag) throws IOException {
+        switch (tag & 7) {
+            case 0:
+                readVarint(buffer);
+                break;
+            case 1:
+                skip(buffer, 8);
+                break;
+            case 2:
+                readLengthDelimited(buffer);
+                break;
+            case 5:
+                skip(buffer, 4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + (tag & 7) + " in aggregated record");
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Field overruns aggregated record");
+        }
+        buffer.position(buffer.position() + length);
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.kinesis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.impl.ExponentialBackoffRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+
+/**
+ * Puts records to an Amazon Kinesis stream in PutRecords batches instead of one PutRecord call per record. Records
+ * passed to put() are collected until the batch holds kinesisProducerMaxBatchRecords records or
+ * kinesisProducerMaxBatchBytes bytes, and are then sent by the calling thread. A batch that is not full is sent once
+ * its oldest record has waited kinesisProducerLingerMillis, or when flush() or close() is called.
+ * <p>
+ * PutRecords may reject some records of a batch, for example when a shard is throttled. Only the rejected records are
+ * sent again, with the same ExponentialBackoffRetryPolicy as emits between attempts: within retryTimeBudget and, if
+ * set, up to retryLimit attempts in total. If records are still rejected, or a request keeps failing, the put(),
+ * flush() or close() call that sent them throws an IOException. A failure of a batch sent because of the linger time
+ * is thrown by the next call.
+ * <p>
+ * With kinesisProducerAggregationEnabled, records are first packed by a RecordAggregator into aggregated records of up
+ * to kinesisProducerAggregationMaxBytes bytes, one per partition key, which are then batched like plain records. An
+ * aggregated record only holds records of its partition key, so every record goes to the shard of its own key. Once
+ * the open aggregated records could fill a batch, they are all sealed and added to it. Consumers split them again,
+ * see AggregatedRecords. Counters count Amazon Kinesis records, so an aggregated record counts once.
+ * <p>
+ * This class is thread safe. Batches are taken out under the producer's lock and sent, retry backoff included, without
+ * holding it, so a slow or throttled request does not stall other threads calling put().
+ */
+public class KinesisBatchProducer implements Closeable {
+    private static final Log LOG = LogFactory.getLog(KinesisBatchProducer.class);
+
+    /** Maximum number of records in a PutRecords request */
+    public static final int MAX_RECORDS_PER_REQUEST = 500;
+    /** Maximum size of a PutRecords request, counting data and partition keys */
+    public static final int MAX_BYTES_PER_REQUEST = 5 * 1024 * 1024;
+    /** Maximum size of a record, counting data and partition key */
+    public static final int MAX_BYTES_PER_RECORD = 1024 * 1024;
+
+    private final AmazonKinesisClient kinesisClient;
+    private final String streamName;
+    private final int maxBatchRecords;
+    private final int maxBatchBytes;
+    private final long lingerMillis;
+    private final IRetryPolicy retryPolicy;
+    private final ScheduledExecutorService lingerTimer;
+    private final RecordAggregator aggregator;
+
+    // Guarded by this. Batches are taken out under the lock and sent without it.
+    private List<PutRecordsRequestEntry> pending;
+    private int pendingBytes;
+    private long oldestPendingTime;
+    private IOException lingerFailure;
+    private int batchesInFlight;
+
+    private final AtomicLong recordsSent = new AtomicLong();
+    private final AtomicLong recordsRetried = new AtomicLong();
+    private final AtomicLong requestsSent = new AtomicLong();
+
+    /**
+     * @param kinesisClient
+     *        client used to put the records
+     * @param streamName
+     *        name of the Amazon Kinesis stream to put the records to
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the batch limits, linger time and retry settings
+     */
+    public KinesisBatchProducer(AmazonKinesisClient kinesisClient,
+            String streamName,
+            KinesisConnectorConfiguration configuration) {
+        this.kinesisClient = kinesisClient;
+        this.streamName = streamName;
+        maxBatchRecords =
+                Math.max(1, Math.min(MAX_RECORDS_PER_REQUEST, configuration.KINESIS_PRODUCER_MAX_BATCH_RECORDS));
+        maxBatchBytes = Math.max(1, Math.min(MAX_BYTES_PER_REQUEST, configuration.KINESIS_PRODUCER_MAX_BATCH_BYTES));
+        lingerMillis = configuration.KINESIS_PRODUCER_LINGER_MILLIS;
+        retryPolicy = new ExponentialBackoffRetryPolicy(configuration);
+        pending = new ArrayList<PutRecordsRequestEntry>(maxBatchRecords);
+        if (configuration.KINESIS_PRODUCER_AGGREGATION_ENABLED) {
+            aggregator = new RecordAggregator(Math.max(1,
+                    Math.min(MAX_BYTES_PER_RECORD, configuration.KINESIS_PRODUCER_AGGREGATION_MAX_BYTES)));
+        } else {
+            aggregator = null;
+        }
+        if (lingerMillis > 0) {
+            lingerTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "KinesisBatchProducerLinger-" + KinesisBatchProducer.this.streamName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(1L, lingerMillis / 2);
+            lingerTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sendLingeringBatch();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            lingerTimer = null;
+        }
+    }
+
+    /**
+     * Adds a record to the current batch, sending the batch if it is full. The batch is sent without holding the
+     * producer's lock, so other threads can keep adding records meanwhile.
+     * 
+     * @param data
+     *        record data; its remaining bytes are sent, and it must not be modified until the record has been sent
+     * @param partitionKey
+     *        partition key of the record
+     * @throws IOException
+     *         if a batch sent by this call or because of the linger time could not be put
+     */
+    public void put(ByteBuffer data, String partitionKey) throws IOException {
+        // Partition keys are counted as one byte per character, which is exact for the usual ASCII keys
+        int size = data.remaining() + partitionKey.length();
+        if (size > MAX_BYTES_PER_RECORD) {
+            throw new IllegalArgumentException("Record of " + size + " bytes exceeds the limit of "
+                    + MAX_BYTES_PER_RECORD + " bytes");
+        }
+        List<List<PutRecordsRequestEntry>> full = new ArrayList<List<PutRecordsRequestEntry>>(1);
+        synchronized (this) {
+            throwLingerFailure();
+            if (aggregator == null) {
+                enqueue(new PutRecordsRequestEntry().withData(data).withPartitionKey(partitionKey), full);
+            } else {
+                if (pending.isEmpty() && aggregator.isEmpty()) {
+                    oldestPendingTime = System.currentTimeMillis();
+                }
+                PutRecordsRequestEntry aggregated = aggregator.add(partitionKey, data);
+                if (aggregated != null) {
+                    enqueue(aggregated, full);
+                }
+                if (aggregator.getAggregateCount() >= maxBatchRecords || aggregator.size() >= maxBatchBytes) {
+                    sealAggregate(full);
+                }
+            }
+            batchesInFlight += full.size();
+        }
+        send(full);
+    }
+
+    /**
+     * Adds an Amazon Kinesis record to the current batch, moving the batch to the full batches first if the record
+     * does not fit, and after if the batch reached maxBatchRecords.
+     */
+    private void enqueue(PutRecordsRequestEntry entry, List<List<PutRecordsRequestEntry>> full) {
+        int size = entry.getData().remaining() + entry.getPartitionKey().length();
+        if (!pending.isEmpty() && pendingBytes + size > maxBatchBytes) {
+            full.add(takePending());
+        }
+        if (pending.isEmpty() && (aggregator == null || aggregator.isEmpty())) {
+            oldestPendingTime = System.currentTimeMillis();
+        }
+        pending.add(entry);
+        pendingBytes += size;
+        if (pending.size() >= maxBatchRecords) {
+            full.add(takePending());
+        }
+    }
+
+    /**
+     * Moves the open aggregated records, if any, to the current batch.
+     */
+    private void sealAggregate(List<List<PutRecordsRequestEntry>> full) {
+        if (aggregator != null) {
+            for (PutRecordsRequestEntry aggregated : aggregator.seal()) {
+                enqueue(aggregated, full);
+            }
+        }
+    }
+
+    /**
+     * Moves the open aggregated records and the current batch to the full batches.
+     */
+    private void takeAll(List<List<PutRecordsRequestEntry>> full) {
+        sealAggregate(full);
+        if (!pending.isEmpty()) {
+            full.add(takePending());
+        }
+    }
+
+    private List<PutRecordsRequestEntry> takePending() {
+        List<PutRecordsRequestEntry> batch = pending;
+        pending = new ArrayList<PutRecordsRequestEntry>(maxBatchRecords);
+        pendingBytes = 0;
+        return batch;
+    }
+
+    /**
+     * Sends the current batch, and waits until the batches other threads are sending have been put.
+     * 
+     * @throws IOException
+     *         if the batch, or a batch sent because of the linger time, could not be put
+     */
+    public void flush() throws IOException {
+        List<List<PutRecordsRequestEntry>> full = new ArrayList<List<PutRecordsRequestEntry>>(1);
+        synchronized (this) {
+            throwLingerFailure();
+            takeAll(full);
+            batchesInFlight += full.size();
+        }
+        send(full);
+        synchronized (this) {
+            try {
+                while (batchesInFlight > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for records to be put to " + streamName);
+            }
+            throwLingerFailure();
+        }
+    }
+
+    /**
+     * Sends the current batch and stops the linger timer. The client is not shut down.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (lingerTimer != null) {
+                lingerTimer.shutdown();
+            }
+        }
+    }
+
+    private void sendLingeringBatch() {
+        List<List<PutRecordsRequestEntry>> full = new ArrayList<List<PutRecordsRequestEntry>>(1);
+        synchronized (this) {
+            if ((pending.isEmpty() && (aggregator == null || aggregator.isEmpty())) || lingerFailure != null
+                    || System.currentTimeMillis() - oldestPendingTime < lingerMillis) {
+                return;
+            }
+            takeAll(full);
+            batchesInFlight += full.size();
+        }
+        try {
+            send(full);
+        } catch (IOException e) {
+            LOG.error("Failed to put records to " + streamName, e);
+            synchronized (this) {
+                lingerFailure = e;
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void throwLingerFailure() throws IOException {
+        if (lingerFailure != null) {
+            IOException e = lingerFailure;
+            lingerFailure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the full batches taken by the caller, which counted them in batchesInFlight. Every batch is sent even if
+     * an earlier one fails; the first failure is thrown.
+     */
+    private void send(List<List<PutRecordsRequestEntry>> full) throws IOException {
+        if (full.isEmpty()) {
+            return;
+        }
+        IOException failure = null;
+        try {
+            for (List<PutRecordsRequestEntry> batch : full) {
+                try {
+                    sendBatch(batch);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                batchesInFlight -= full.size();
+                notifyAll();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Puts the batch, re-sending only the rejected records until all are accepted or the retry policy gives up.
+     */
+    private void sendBatch(List<PutRecordsRequestEntry> batch) throws IOException {
+        long start = System.currentTimeMillis();
+        for (int attempt = 0;; attempt++) {
+            PutRecordsResult result;
+            try {
+                requestsSent.incrementAndGet();
+                result = kinesisClient.putRecords(new PutRecordsRequest().withStreamName(streamName)
+                        .withRecords(batch));
+            } catch (AmazonClientException e) {
+                long delay = retryPolicy.getDelayMillis(attempt, System.currentTimeMillis() - start);
+                if (delay == IRetryPolicy.NO_RETRY) {
+                    throw new IOException("Failed to put " + batch.size() + " records to " + streamName, e);
+                }
+                LOG.warn("Failed to put " + batch.size() + " records to " + streamName + ". Retrying.", e);
+                backoff(delay);
+                continue;
+            }
+            Integer failedRecordCount = result.getFailedRecordCount();
+            if (failedRecordCount == null || failedRecordCount == 0) {
+                recordsSent.addAndGet(batch.size());
+                return;
+            }
+            List<PutRecordsRequestEntry> failed = new ArrayList<PutRecordsRequestEntry>(failedRecordCount);
+            List<PutRecordsResultEntry> results = result.getRecords();
+            PutRecordsResultEntry lastError = null;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).getErrorCode() != null) {
+                    failed.add(batch.get(i));
+                    lastError = results.get(i);
+                }
+            }
+            recordsSent.addAndGet(batch.size() - failed.size());
+            long delay = retryPolicy.getDelayMillis(attempt, System.currentTimeMillis() - start);
+            if (delay == IRetryPolicy.NO_RETRY) {
+                throw new IOException(failed.size() + " records were rejected by " + streamName + " after "
+                        + attempt + " retries: " + lastError.getErrorCode() + " " + lastError.getErrorMessage());
+            }
+            recordsRetried.addAndGet(failed.size());
+            batch = failed;
+            backoff(delay);
+        }
+    }
+
+    private void backoff(long delayMillis) throws IOException {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry putting records to " + streamName);
+        }
+    }
+
+    /**
+     * @return the number of records accepted by Amazon Kinesis
+     */
+    public long getRecordsSent() {
+        return recordsSent.get();
+    }
+
+    /**
+     * @return the number of rejected records that were sent again
+     */
+    public long getRecordsRetried() {
+        return recordsRetried.get();
+    }
+
+    /**
+     * @return the number of PutRecords requests made
+     */
+    public long getRequestsSent() {
+        return requestsSent.get();
+    }
+}
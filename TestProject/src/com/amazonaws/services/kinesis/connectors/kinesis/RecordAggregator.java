@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.kinesis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+
+/**
+ * Packs user records into aggregated records in the format described in AggregatedRecords, so that many small records
+ * are sent as one Amazon Kinesis record. One aggregated record is kept open per partition key, so an aggregated record
+ * only holds user records of its own partition key and goes to the same shard as they would. An aggregated record is
+ * sealed when the next user record of its key would make it larger than maxBytes. An aggregate holding a single user
+ * record is sent as that plain record.
+ * <p>
+ * This class is not thread safe.
+ */
+public class RecordAggregator {
+    private final int maxBytes;
+
+    // Open aggregated records by partition key, in the order they were opened
+    private final Map<String, Aggregate> aggregates = new LinkedHashMap<String, Aggregate>();
+    // Sum of the sizes of the open aggregated records
+    private int size;
+
+    /**
+     * @param maxBytes
+     *        maximum size of an aggregated record, including its partition key
+     */
+    public RecordAggregator(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a user record to the open aggregated record of its partition key.
+     * 
+     * @param partitionKey
+     *        partition key of the user record
+     * @param data
+     *        user record data; its remaining bytes are added, and it must not be modified until the record is sealed
+     * @return the previous aggregated record of the partition key if adding the user record sealed it, otherwise null
+     */
+    public PutRecordsRequestEntry add(String partitionKey, ByteBuffer data) {
+        PutRecordsRequestEntry sealed = null;
+        Aggregate aggregate = aggregates.get(partitionKey);
+        if (aggregate != null && aggregate.sizeWith(data) > maxBytes) {
+            aggregates.remove(partitionKey);
+            size -= aggregate.size();
+            sealed = aggregate.seal();
+            aggregate = null;
+        }
+        if (aggregate == null) {
+            aggregate = new Aggregate(partitionKey);
+            aggregates.put(partitionKey, aggregate);
+        } else {
+            size -= aggregate.size();
+        }
+        aggregate.add(data);
+        size += aggregate.size();
+        return sealed;
+    }
+
+    /**
+     * Seals all open aggregated records.
+     * 
+     * @return the aggregated records, in the order they were opened; empty if no user records were added since the
+     *         last ones were sealed
+     */
+    public List<PutRecordsRequestEntry> seal() {
+        List<PutRecordsRequestEntry> sealed = new ArrayList<PutRecordsRequestEntry>(aggregates.size());
+        for (Aggregate aggregate : aggregates.values()) {
+            sealed.add(aggregate.seal());
+        }
+        aggregates.clear();
+        size = 0;
+        return sealed;
+    }
+
+    /**
+     * @return true if no user records were added since the aggregated records were last sealed
+     */
+    public boolean isEmpty() {
+        return aggregates.isEmpty();
+    }
+
+    /**
+     * @return the number of open aggregated records, which is the number of distinct partition keys added since the
+     *         aggregated records were last sealed
+     */
+    public int getAggregateCount() {
+        return aggregates.size();
+    }
+
+    /**
+     * @return the total size the open aggregated records would have when sealed, including their partition keys; an
+     *         aggregated record holding a single user record is counted at its aggregated size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The open aggregated record of one partition key. Its partition key table holds only that key, at index 0.
+     */
+    private static class Aggregate {
+        private final String partitionKey;
+        private final byte[] partitionKeyBytes;
+        private final List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+        // Size of the protobuf body of the aggregated record
+        private int bodySize;
+
+        Aggregate(String partitionKey) {
+            this.partitionKey = partitionKey;
+            partitionKeyBytes = partitionKey.getBytes(StandardCharsets.UTF_8);
+            bodySize = 1 + lengthDelimitedSize(partitionKeyBytes.length);
+        }
+
+        void add(ByteBuffer data) {
+            payloads.add(data);
+            bodySize += addedBodySize(data);
+        }
+
+        int size() {
+            return sizeWith(0);
+        }
+
+        int sizeWith(ByteBuffer data) {
+            return sizeWith(addedBodySize(data));
+        }
+
+        private int sizeWith(int additionalBodySize) {
+            // Aggregated records are only built from ASCII partition keys in practice, see KinesisBatchProducer
+            return AggregatedRecords.MAGIC.length + bodySize + additionalBodySize + AggregatedRecords.DIGEST_LENGTH
+                    + partitionKey.length();
+        }
+
+        /**
+         * @return the number of bytes the user record adds to the protobuf body
+         */
+        private static int addedBodySize(ByteBuffer data) {
+            return 1 + lengthDelimitedSize(userRecordSize(0, data.remaining()));
+        }
+
+        PutRecordsRequestEntry seal() {
+            if (payloads.size() == 1) {
+                return new PutRecordsRequestEntry().withData(payloads.get(0)).withPartitionKey(partitionKey);
+            }
+            return new PutRecordsRequestEntry().withData(ByteBuffer.wrap(encode())).withPartitionKey(partitionKey);
+        }
+
+        private byte[] encode() {
+            byte[] bytes = new byte[AggregatedRecords.MAGIC.length + bodySize + AggregatedRecords.DIGEST_LENGTH];
+            ByteBuffer out = ByteBuffer.wrap(bytes);
+            out.put(AggregatedRecords.MAGIC);
+            out.put((byte) AggregatedRecords.PARTITION_KEY_TABLE_TAG);
+            writeVarint(out, partitionKeyBytes.length);
+            out.put(partitionKeyBytes);
+            for (ByteBuffer data : payloads) {
+                ByteBuffer payload = data.duplicate();
+                out.put((byte) AggregatedRecords.RECORDS_TAG);
+                writeVarint(out, userRecordSize(0, payload.remaining()));
+                out.put((byte) AggregatedRecords.PARTITION_KEY_INDEX_TAG);
+                writeVarint(out, 0);
+                out.put((byte) AggregatedRecords.DATA_TAG);
+                writeVarint(out, payload.remaining());
+                out.put(payload);
+            }
+            ByteBuffer body = ByteBuffer.wrap(bytes, AggregatedRecords.MAGIC.length, bodySize);
+            out.put(AggregatedRecords.digest(body));
+            return bytes;
+        }
+    }
+
+    private static int userRecordSize(int partitionKeyIndex, int dataSize) {
+        return 1 + varintSize(partitionKeyIndex) + 1 + lengthDelimitedSize(dataSize);
+    }
+
+    private static int lengthDelimitedSize(int length) {
+        return varintSize(length) + length;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
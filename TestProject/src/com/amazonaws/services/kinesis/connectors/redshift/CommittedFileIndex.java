@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.SharedResources;
+
+/**
+ * A worker-local index of the file names committed to the Amazon Redshift file table, used by the
+ * RedshiftManifestEmitter to avoid querying the file table for files that cannot have been copied yet.
+ * <p>
+ * The index combines a Bloom filter holding every file name it has seen, sized for redshiftFileIndexExpectedFiles
+ * names with a 1% false positive rate, and an LRU set of the redshiftFileIndexSize most recently seen names. A file
+ * name that is not in the Bloom filter has not been committed; a name in the LRU set has been committed; only the
+ * remaining names need to be looked up in the file table. The Bloom filter never forgets a name, so once it holds
+ * more names than expected it only answers "maybe" more often, and the lookups fall back to the file table.
+ * <p>
+ * The index is warmed from the file table with warm() and updated with addCommitted() after each successful commit.
+ * It only knows about files committed by other workers as of its last warm, so an emitter warms the index when it
+ * takes a shard, which may have been processed by another worker until then. As that worker may still commit files
+ * after the warm, emitters do not rely on the index to rule files out until they have moved past the records it may
+ * have left unchecked. A warm reads the whole file
+ * table, which keeps growing, so each lease taken costs one full scan of it; emitters starting together share a single
+ * warm. Where that scan is too expensive the index can be disabled by setting redshiftFileIndexExpectedFiles to 0.
+ * <p>
+ * Emitters share the index returned by forConfiguration() for the same URL and file table; it is released once every
+ * emitter using it has closed it.
+ */
+public class CommittedFileIndex implements Closeable {
+    private static final Log LOG = LogFactory.getLog(CommittedFileIndex.class);
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int WARM_FETCH_SIZE = 10000;
+
+    // Indexes shared by emitters created from a configuration, keyed by URL and file table
+    private static final SharedResources<CommittedFileIndex> SHARED_INDEXES = new SharedResources<CommittedFileIndex>();
+
+    private final String fileTable;
+    private final String fileKeyColumn;
+    private final int expectedFiles;
+
+    // Guarded by this
+    private final long[] bloomBits;
+    private final long bloomBitCount;
+    private final int bloomHashCount;
+    private final LinkedHashMap<String, Boolean> recentFiles;
+    private long bloomFileCount;
+
+    // Guarded by warmLock
+    private final Object warmLock = new Object();
+    private long lastWarmStart = Long.MIN_VALUE;
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the file table and the index sizes
+     */
+    public CommittedFileIndex(KinesisConnectorConfiguration configuration) {
+        fileTable = configuration.REDSHIFT_FILE_TABLE;
+        fileKeyColumn = configuration.REDSHIFT_FILE_KEY_COLUMN;
+        expectedFiles = Math.max(1, configuration.REDSHIFT_FILE_INDEX_EXPECTED_FILES);
+        // Optimal Bloom filter size and hash count for the expected number of names and false positive rate
+        long bits = (long) Math.ceil(-expectedFiles * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        bloomBits = new long[(int) ((bits + 63) / 64)];
+        bloomBitCount = bloomBits.length * 64L;
+        bloomHashCount = Math.max(1, (int) Math.round((double) bloomBitCount / expectedFiles * Math.log(2)));
+        final int maxRecentFiles = Math.max(0, configuration.REDSHIFT_FILE_INDEX_SIZE);
+        recentFiles = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxRecentFiles;
+            }
+        };
+    }
+
+    /**
+     * Get the index shared by all callers using the same Amazon Redshift URL and file table. Each call must be matched
+     * by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared index
+     */
+    public static CommittedFileIndex forConfiguration(final KinesisConnectorConfiguration configuration) {
+        String key =
+                configuration.REDSHIFT_URL + "|" + configuration.REDSHIFT_FILE_TABLE + "|"
+                        + configuration.REDSHIFT_FILE_KEY_COLUMN;
+        return SHARED_INDEXES.acquire(key, new SharedResources.Factory<CommittedFileIndex, RuntimeException>() {
+            @Override
+            public CommittedFileIndex create(String key) {
+                return new CommittedFileIndex(configuration);
+            }
+        });
+    }
+
+    /**
+     * Loads every file name of the file table into the index, unless a warm started at or after notBefore already did.
+     * Concurrent callers wait for the running warm instead of starting their own. The whole file table is read, so the
+     * cost grows with the table.
+     * 
+     * @param conn
+     *        connection to the Amazon Redshift cluster
+     * @param notBefore
+     *        time in milliseconds after which the warm must have started
+     * @throws SQLException
+     *         if the file table could not be read
+     */
+    public void warm(Connection conn, long notBefore) throws SQLException {
+        synchronized (warmLock) {
+            if (lastWarmStart >= notBefore) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int count = 0;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.setFetchSize(WARM_FETCH_SIZE);
+                try (ResultSet resultSet = stmt.executeQuery("SELECT " + fileKeyColumn + " FROM " + fileTable + ";")) {
+                    while (resultSet.next()) {
+                        add(resultSet.getString(1));
+                        count++;
+                    }
+                }
+            }
+            lastWarmStart = start;
+            LOG.info("Loaded " + count + " file names from " + fileTable + " into the committed file index in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * @param file
+     *        file name
+     * @return true if the file is known to have been committed
+     */
+    public synchronized boolean isCommitted(String file) {
+        return recentFiles.get(file) != null;
+    }
+
+    /**
+     * @param file
+     *        file name
+     * @return false if the file has certainly not been committed, true if it may have been
+     */
+    public synchronized boolean mightBeCommitted(String file) {
+        long hash = hash(file);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= bloomHashCount; i++) {
+            long bit = bitIndex(h1, h2, i);
+            if ((bloomBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records files that have been committed to the file table.
+     * 
+     * @param files
+     *        file names
+     */
+    public synchronized void addCommitted(Collection<String> files) {
+        for (String file : files) {
+            add(file);
+        }
+    }
+
+    private synchronized void add(String file) {
+        recentFiles.put(file, Boolean.TRUE);
+        long hash = hash(file);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= bloomHashCount; i++) {
+            long bit = bitIndex(h1, h2, i);
+            bloomBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        if (++bloomFileCount == expectedFiles) {
+            LOG.warn("The committed file index holds " + expectedFiles + " file names. Increase "
+                    + KinesisConnectorConfiguration.PROP_REDSHIFT_FILE_INDEX_EXPECTED_FILES
+                    + " to keep its false positive rate at " + FALSE_POSITIVE_RATE);
+        }
+    }
+
+    /**
+     * Position of the bit set by the i-th hash function, derived from two hashes by double hashing.
+     */
+    private long bitIndex(int h1, int h2, int i) {
+        int combined = h1 + i * h2;
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % bloomBitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of the file name. The two halves seed the Bloom filter hash functions.
+     */
+    private static long hash(String file) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < file.length(); i++) {
+            hash ^= file.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Releases the index. For a shared index, this only happens once every caller of forConfiguration() has closed it.
+     */
+    @Override
+    public void close() {
+        SHARED_INDEXES.release(this);
+    }
+}
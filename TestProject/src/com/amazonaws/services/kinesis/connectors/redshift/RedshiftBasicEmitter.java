@@ -16,20 +16,22 @@ package com.amazonaws.services.kinesis.connectors.redshift;
 
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IMetricsAware;
 import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.s3.AmazonS3Client;
 
 /**
  * This class is an implementation of IEmitter that emits records into Amazon Redshift one by one. It
@@ -45,53 +47,117 @@ import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
  * <li>file table and key column (file table is used to store file names to prevent duplicate entries)</li>
  * <li>the delimiter used for string parsing when inserting entries into Redshift</li>
  * <br>
+ * Files compressed with the configured s3CompressionCodec are loaded with the matching COPY option; codecs that
+ * Amazon Redshift cannot load are rejected.
+ * <br>
+ * Connections are borrowed from a RedshiftConnectionPool, which also limits the number of concurrent COPY commands.
+ * <br>
+ * If the key layout splits a buffer into several files, they are copied in one transaction, so a failed emit leaves
+ * none of them loaded.
+ * <br>
  * NOTE: The Amazon S3 bucket and the Amazon Redshift cluster need to be in the same region.
  */
-public class RedshiftBasicEmitter extends S3Emitter {
+public class RedshiftBasicEmitter extends S3Emitter implements IMetricsAware {
     private static final Log LOG = LogFactory.getLog(RedshiftBasicEmitter.class);
     private final String s3bucket;
     private final String redshiftTable;
-    private final String redshiftURL;
     private final char redshiftDelimiter;
-    private final Properties loginProperties;
+    private final RedshiftConnectionPool connectionPool;
+    private final boolean closePoolOnShutdown;
     private final String accessKey;
     private final String secretKey;
 
     public RedshiftBasicEmitter(KinesisConnectorConfiguration configuration) {
-        super(configuration);
+        this(configuration,
+                new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER),
+                RedshiftConnectionPool.forConfiguration(configuration),
+                true);
+    }
+
+    /**
+     * Create an emitter using the given Amazon S3 client and borrowing its connections from the given pool, which
+     * remains owned by the caller.
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param s3client
+     *        the Amazon S3 client to upload the files with
+     * @param connectionPool
+     *        pool of connections to the Amazon Redshift cluster
+     */
+    public RedshiftBasicEmitter(KinesisConnectorConfiguration configuration,
+            AmazonS3Client s3client,
+            RedshiftConnectionPool connectionPool) {
+        this(configuration, s3client, connectionPool, false);
+    }
+
+    private RedshiftBasicEmitter(KinesisConnectorConfiguration configuration,
+            AmazonS3Client s3client,
+            RedshiftConnectionPool connectionPool,
+            boolean closePoolOnShutdown) {
+        super(configuration, s3client);
         s3bucket = configuration.S3_BUCKET;
         redshiftTable = configuration.REDSHIFT_DATA_TABLE;
         redshiftDelimiter = configuration.REDSHIFT_DATA_DELIMITER;
-        redshiftURL = configuration.REDSHIFT_URL;
-        loginProperties = new Properties();
-        loginProperties.setProperty("user", configuration.REDSHIFT_USERNAME);
-        loginProperties.setProperty("password", configuration.REDSHIFT_PASSWORD);
+        this.connectionPool = connectionPool;
+        this.closePoolOnShutdown = closePoolOnShutdown;
         accessKey = configuration.AWS_CREDENTIALS_PROVIDER.getCredentials().getAWSAccessKeyId();
         secretKey = configuration.AWS_CREDENTIALS_PROVIDER.getCredentials().getAWSSecretKey();
+        if (compressionCodec.getRedshiftCopyOption() == null) {
+            throw new IllegalArgumentException("Amazon Redshift cannot load files compressed with "
+                    + configuration.S3_COMPRESSION_CODEC);
+        }
     }
 
     @Override
     public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
-        List<byte[]> failed = super.emit(buffer);
+        List<String> s3Files = new ArrayList<String>();
+        List<byte[]> failed = upload(buffer, s3Files);
         if (!failed.isEmpty()) {
             return buffer.getRecords();
         }
         Connection conn = null;
+        boolean broken = false;
         try {
-            conn = DriverManager.getConnection(redshiftURL, loginProperties);
-            String s3File = getS3FileName(buffer.getFirstSequenceNumber(), buffer.getLastSequenceNumber());
-            executeStatement(generateCopyStatement(s3File), conn);
-            LOG.info("Successfully copied " + getNumberOfCopiedRecords(conn)
-                    + " records to Amazon Redshift from file s3://" + s3Bucket + "/" + s3File);
-            closeConnection(conn);
+            conn = connectionPool.getConnection();
+            boolean transaction = s3Files.size() > 1;
+            if (transaction) {
+                // The pool turns auto-commit back on when the connection is released
+                conn.setAutoCommit(false);
+            }
+            connectionPool.beginCopy();
+            try {
+                for (String s3File : s3Files) {
+                    executeStatement(generateCopyStatement(s3File), conn);
+                    LOG.info("Copied " + getNumberOfCopiedRecords(conn) + " records to Amazon Redshift from file s3://"
+                            + s3Bucket + "/" + s3File);
+                }
+                if (transaction) {
+                    conn.commit();
+                }
+            } finally {
+                connectionPool.endCopy();
+            }
+            LOG.info("Successfully copied " + buffer.getRecords().size() + " records to Amazon Redshift from "
+                    + s3Files.size() + " files");
             return Collections.emptyList();
         } catch (IOException | SQLException e) {
             LOG.error(e);
-            closeConnection(conn);
+            broken = true;
             return buffer.getRecords();
+        } finally {
+            if (conn != null) {
+                connectionPool.releaseConnection(conn, broken);
+            }
         }
     }
 
+    @Override
+    public void setMetricsFactory(IMetricsFactory metricsFactory) {
+        // Lets a shared pool publish its wait times
+        connectionPool.useMetricsFactory(metricsFactory);
+    }
+
     @Override
     public void fail(List<byte[]> records) {
         super.fail(records);
@@ -100,13 +166,8 @@ public class RedshiftBasicEmitter extends S3Emitter {
     @Override
     public void shutdown() {
         super.shutdown();
-    }
-
-    private void closeConnection(Connection conn) {
-        try {
-            conn.close();
-        } catch (Exception e) {
-            LOG.error(e);
+        if (closePoolOnShutdown) {
+            connectionPool.close();
         }
     }
 
@@ -117,6 +178,9 @@ public class RedshiftBasicEmitter extends S3Emitter {
         exec.append("CREDENTIALS 'aws_access_key_id=" + accessKey);
         exec.append(";aws_secret_access_key=" + secretKey + "' ");
         exec.append("DELIMITER '" + redshiftDelimiter + "'");
+        if (!compressionCodec.getRedshiftCopyOption().isEmpty()) {
+            exec.append(" " + compressionCodec.getRedshiftCopyOption());
+        }
         exec.append(";");
         return exec.toString();
     }
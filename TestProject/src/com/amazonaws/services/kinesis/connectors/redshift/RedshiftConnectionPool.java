@@ -0,0 +1,305 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.redshift;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.SharedResources;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+
+/**
+ * A bounded pool of JDBC connections to an Amazon Redshift cluster, shared by the Amazon Redshift emitters of all
+ * shards processed by a worker. At most redshiftMaxConnections connections are open or borrowed at once, and at most
+ * redshiftMaxConcurrentCopies COPY commands run at once, so that a worker holding many shards does not overload the
+ * cluster. Idle connections are reused most recent first; a connection that has been idle for longer than
+ * redshiftConnectionValidationInterval is validated with Connection.isValid() before it is handed out.
+ * <p>
+ * The time spent waiting for a connection and for a COPY slot is available from the getters of this class and, if a
+ * metrics factory is given, is published as the RedshiftConnectionWaitTime and RedshiftCopyWaitTime metrics. A shared
+ * pool has no factory of its own; it uses the one its emitters pass to useMetricsFactory(), which they do with the
+ * metrics factory of their record processor.
+ * <p>
+ * Emitters created with only a KinesisConnectorConfiguration share the pool returned by forConfiguration() for the
+ * same URL and user; it is closed once every emitter using it has closed it. A pool created with the constructor is
+ * owned by the caller, which passes it to the emitters and closes it when the worker shuts down.
+ */
+public class RedshiftConnectionPool implements Closeable {
+    private static final Log LOG = LogFactory.getLog(RedshiftConnectionPool.class);
+
+    private static final String CONNECTION_WAIT_METRIC = "RedshiftConnectionWaitTime";
+    private static final String COPY_WAIT_METRIC = "RedshiftCopyWaitTime";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // Pools shared by emitters created from a configuration, keyed by URL and user
+    private static final SharedResources<RedshiftConnectionPool> SHARED_POOLS =
+            new SharedResources<RedshiftConnectionPool>();
+
+    private final String url;
+    private final Properties loginProperties;
+    private final long validationIntervalMillis;
+    private volatile IMetricsFactory metricsFactory;
+    private final Semaphore connectionPermits;
+    private final Semaphore copyPermits;
+
+    // Guarded by this
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<IdleConnection>();
+    private boolean closed;
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionWaitNanos = new AtomicLong();
+    private final AtomicLong copyWaitNanos = new AtomicLong();
+
+    /**
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the Amazon Redshift URL, credentials and pool limits
+     * @param metricsFactory
+     *        factory used to publish wait time metrics, or null
+     */
+    public RedshiftConnectionPool(KinesisConnectorConfiguration configuration, IMetricsFactory metricsFactory) {
+        url = configuration.REDSHIFT_URL;
+        loginProperties = new Properties();
+        loginProperties.setProperty("user", configuration.REDSHIFT_USERNAME);
+        loginProperties.setProperty("password", configuration.REDSHIFT_PASSWORD);
+        validationIntervalMillis = configuration.REDSHIFT_CONNECTION_VALIDATION_INTERVAL;
+        this.metricsFactory = metricsFactory;
+        connectionPermits = new Semaphore(Math.max(1, configuration.REDSHIFT_MAX_CONNECTIONS), true);
+        copyPermits = new Semaphore(Math.max(1, configuration.REDSHIFT_MAX_CONCURRENT_COPIES), true);
+    }
+
+    /**
+     * Get the pool shared by all callers using the same Amazon Redshift URL and user. Each call must be matched by a
+     * call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared pool
+     */
+    public static RedshiftConnectionPool forConfiguration(final KinesisConnectorConfiguration configuration) {
+        String key = configuration.REDSHIFT_URL + "|" + configuration.REDSHIFT_USERNAME;
+        return SHARED_POOLS.acquire(key, new SharedResources.Factory<RedshiftConnectionPool, RuntimeException>() {
+            @Override
+            public RedshiftConnectionPool create(String key) {
+                return new RedshiftConnectionPool(configuration, null);
+            }
+        });
+    }
+
+    /**
+     * Publishes the wait time metrics with the given factory, unless the pool already has one.
+     * 
+     * @param metricsFactory
+     *        factory used to publish wait time metrics
+     */
+    public synchronized void useMetricsFactory(IMetricsFactory metricsFactory) {
+        if (this.metricsFactory == null) {
+            this.metricsFactory = metricsFactory;
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting if redshiftMaxConnections connections are borrowed. The connection must be
+     * returned with releaseConnection() rather than closed.
+     * 
+     * @return an open connection
+     * @throws SQLException
+     *         if a connection could not be opened, or the thread was interrupted while waiting
+     */
+    public Connection getConnection() throws SQLException {
+        acquire(connectionPermits, CONNECTION_WAIT_METRIC, connectionWaitNanos);
+        try {
+            while (true) {
+                IdleConnection idle;
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("Connection pool for " + url + " is closed");
+                    }
+                    idle = idleConnections.pollFirst();
+                }
+                if (idle == null) {
+                    break;
+                }
+                if (isUsable(idle)) {
+                    return idle.connection;
+                }
+                LOG.info("Discarding idle Amazon Redshift connection that is no longer valid");
+                closeQuietly(idle.connection);
+            }
+            Connection connection = DriverManager.getConnection(url, loginProperties);
+            connectionsOpened.incrementAndGet();
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            connectionPermits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(IdleConnection idle) {
+        try {
+            if (System.currentTimeMillis() - idle.idleSince < validationIntervalMillis) {
+                return !idle.connection.isClosed();
+            }
+            return idle.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. A transaction left open on the connection is rolled back.
+     * 
+     * @param connection
+     *        connection obtained from getConnection()
+     * @param broken
+     *        true if the connection should be closed rather than reused, for example after an error
+     */
+    public void releaseConnection(Connection connection, boolean broken) {
+        try {
+            if (!broken && !connection.isClosed()) {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                synchronized (this) {
+                    if (!closed) {
+                        idleConnections.addFirst(new IdleConnection(connection));
+                        connection = null;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Unable to reset Amazon Redshift connection. Closing it.", e);
+        } finally {
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * Waits until fewer than redshiftMaxConcurrentCopies COPY commands are running. Each call must be matched by a
+     * call to endCopy().
+     * 
+     * @throws SQLException
+     *         if the thread was interrupted while waiting
+     */
+    public void beginCopy() throws SQLException {
+        acquire(copyPermits, COPY_WAIT_METRIC, copyWaitNanos);
+    }
+
+    /**
+     * Marks the end of a COPY command started after beginCopy().
+     */
+    public void endCopy() {
+        copyPermits.release();
+    }
+
+    private void acquire(Semaphore permits, String metricName, AtomicLong waitNanos) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for " + metricName + " on " + url, e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        IMetricsFactory metricsFactory = this.metricsFactory;
+        if (metricsFactory != null) {
+            IMetricsScope scope = metricsFactory.createMetrics();
+            scope.addData(metricName, TimeUnit.NANOSECONDS.toMillis(waited), StandardUnit.Milliseconds);
+            scope.end();
+        }
+    }
+
+    /**
+     * @return the number of connections opened by this pool
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for a connection
+     */
+    public long getConnectionWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(connectionWaitNanos.get());
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting to start a COPY command
+     */
+    public long getCopyWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(copyWaitNanos.get());
+    }
+
+    /**
+     * @return the number of idle connections held by the pool
+     */
+    public synchronized int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Closes the idle connections of the pool. Borrowed connections are closed when they are released. For a shared
+     * pool, this only happens once every caller of forConfiguration() has closed it.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_POOLS.release(this)) {
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            for (IdleConnection idle : idleConnections) {
+                closeQuietly(idle.connection);
+            }
+            idleConnections.clear();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            LOG.error("Unable to close Amazon Redshift connection.", e);
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+}
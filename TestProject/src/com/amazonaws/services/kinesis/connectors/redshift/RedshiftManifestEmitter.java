@@ -17,15 +17,14 @@ package com.amazonaws.services.kinesis.connectors.redshift;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -37,7 +36,12 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.DeadLetterSink;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IMetricsAware;
+import com.amazonaws.services.kinesis.connectors.interfaces.IShardAware;
+import com.amazonaws.services.kinesis.connectors.s3.CompressionCodecs;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 
@@ -66,11 +70,22 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
  * <li>file table and key column (file table is used to store file names to prevent duplicate entries)</li>
  * <li>mandatory flag for Amazon Redshift copy</li>
  * <li>the delimiter used for string parsing when inserting entries into Amazon Redshift</li>
+ * <li>the s3CompressionCodec used by the S3ManifestEmitter that wrote the files, which selects the COPY option</li>
  * </ul>
+ * Files already committed are ruled in or out with a worker-local CommittedFileIndex where possible, so that the file
+ * table is only queried for the files the index is unsure about. The index is warmed with the files committed up to
+ * the time the shard was taken, but the worker that held the shard before may still commit the files of the records
+ * it did not checkpoint after that. So after initialize(), every file is looked up in the file table, and the index
+ * is only trusted to rule files out once a buffer with none of its files already committed has been copied.
+ * <br>
+ * Connections are borrowed from a RedshiftConnectionPool, which also limits the number of concurrent COPY commands.
+ * <br>
+ * File names passed to fail() are written to the dead letter spool named after the class of the emitter if a
+ * deadLetterDirectory is configured, see DeadLetterSink.
  * <br>
  * NOTE: Amazon S3 bucket and Amazon Redshift table must be in the same region for Manifest Copy.
  */
-public class RedshiftManifestEmitter implements IEmitter<String> {
+public class RedshiftManifestEmitter implements IEmitter<String>, IShardAware, IMetricsAware {
     private static final Log LOG = LogFactory.getLog(RedshiftManifestEmitter.class);
     private final String s3Bucket;
     private final String dataTable;
@@ -81,11 +96,37 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     private final String s3Endpoint;
     private final AmazonS3Client s3Client;
     private final boolean copyMandatory;
-    private final Properties loginProps;
-    private final String redshiftURL;
+    private final RedshiftConnectionPool connectionPool;
+    private final boolean closePoolOnShutdown;
+    private final CommittedFileIndex fileIndex;
+    // Time the shard was taken, or the emitter created if it is not initialized with a shard
+    private long initializedAt;
+    private boolean fileIndexWarmed;
+    // Whether the index may rule out files without a lookup in the file table
+    private boolean fileIndexTrusted;
+    private final String copyOption;
+    private final DeadLetterSink deadLetters;
     private static final String MANIFEST_PREFIX = "manifests/";
 
     public RedshiftManifestEmitter(KinesisConnectorConfiguration configuration) {
+        this(configuration, RedshiftConnectionPool.forConfiguration(configuration), true);
+    }
+
+    /**
+     * Create an emitter borrowing its connections from the given pool, which remains owned by the caller.
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param connectionPool
+     *        pool of connections to the Amazon Redshift cluster
+     */
+    public RedshiftManifestEmitter(KinesisConnectorConfiguration configuration, RedshiftConnectionPool connectionPool) {
+        this(configuration, connectionPool, false);
+    }
+
+    private RedshiftManifestEmitter(KinesisConnectorConfiguration configuration,
+            RedshiftConnectionPool connectionPool,
+            boolean closePoolOnShutdown) {
         dataTable = configuration.REDSHIFT_DATA_TABLE;
         fileTable = configuration.REDSHIFT_FILE_TABLE;
         fileKeyColumn = configuration.REDSHIFT_FILE_KEY_COLUMN;
@@ -98,10 +139,20 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
             s3Client.setEndpoint(s3Endpoint);
         }
         credentialsProvider = configuration.AWS_CREDENTIALS_PROVIDER;
-        loginProps = new Properties();
-        loginProps.setProperty("user", configuration.REDSHIFT_USERNAME);
-        loginProps.setProperty("password", configuration.REDSHIFT_PASSWORD);
-        redshiftURL = configuration.REDSHIFT_URL;
+        this.connectionPool = connectionPool;
+        this.closePoolOnShutdown = closePoolOnShutdown;
+        if (configuration.REDSHIFT_FILE_INDEX_EXPECTED_FILES > 0) {
+            fileIndex = CommittedFileIndex.forConfiguration(configuration);
+        } else {
+            fileIndex = null;
+        }
+        initializedAt = System.currentTimeMillis();
+        copyOption = CompressionCodecs.forName(configuration.S3_COMPRESSION_CODEC).getRedshiftCopyOption();
+        if (copyOption == null) {
+            throw new IllegalArgumentException("Amazon Redshift cannot load files compressed with "
+                    + configuration.S3_COMPRESSION_CODEC);
+        }
+        deadLetters = new DeadLetterSink(configuration, getClass().getSimpleName(), LOG);
     }
 
     @Override
@@ -112,14 +163,18 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
         String manifestFileName = getManifestFile(records);
         // Copy to Amazon Redshift using manifest file
         try {
-            conn = DriverManager.getConnection(redshiftURL, loginProps);
+            conn = connectionPool.getConnection();
             conn.setAutoCommit(false);
+            if (fileIndex != null && !fileIndexWarmed) {
+                // Pick up the files committed by the worker that processed this shard before
+                fileIndex.warm(conn, initializedAt);
+                fileIndexWarmed = true;
+            }
             List<String> deduplicatedRecords = checkForExistingFiles(conn, records);
             if (deduplicatedRecords.isEmpty()) {
                 LOG.info("All the files in this set were already copied to Redshift.");
                 // All of these files were already written
                 rollbackAndCloseConnection(conn);
-                records.clear();
                 return Collections.emptyList();
             }
 
@@ -128,21 +183,34 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
             }
             // Write manifest file to Amazon S3
             try {
-                writeManifestToS3(manifestFileName, records);
+                writeManifestToS3(manifestFileName, deduplicatedRecords);
             } catch (Exception e) {
                 LOG.error("Error writing file " + manifestFileName + " to S3. Failing this emit attempt.", e);
+                rollbackAndCloseConnection(conn);
                 return buffer.getRecords();
             }
 
             LOG.info("Inserting " + deduplicatedRecords.size() + " rows into the files table.");
             insertRecords(conn, deduplicatedRecords);
             LOG.info("Initiating Amazon Redshift manifest copy of " + deduplicatedRecords.size() + " files.");
-            redshiftCopy(conn, manifestFileName);
-            conn.commit();
+            connectionPool.beginCopy();
+            try {
+                redshiftCopy(conn, manifestFileName);
+                conn.commit();
+            } finally {
+                connectionPool.endCopy();
+            }
+            if (fileIndex != null) {
+                fileIndex.addCommitted(deduplicatedRecords);
+                if (deduplicatedRecords.size() == records.size()) {
+                    // Past the records redelivered from the previous owner of the shard
+                    fileIndexTrusted = true;
+                }
+            }
             LOG.info("Successful Amazon Redshift manifest copy of " + getNumberOfCopiedRecords(conn) + " records from "
                     + deduplicatedRecords.size() + " files using manifest s3://" + s3Bucket + "/"
                     + getManifestFile(records));
-            closeConnection(conn);
+            releaseConnection(conn, false);
             return Collections.emptyList();
         } catch (SQLException | IOException e) {
             LOG.error("Error copying data from manifest file " + manifestFileName
@@ -158,31 +226,47 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     }
 
     private void rollbackAndCloseConnection(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        boolean broken = false;
         try {
-            if ((conn != null) && (!conn.isClosed())) {
+            if (!conn.isClosed()) {
                 conn.rollback();
             }
         } catch (Exception e) {
             LOG.error("Unable to rollback Amazon Redshift transaction.", e);
+            broken = true;
         }
-        closeConnection(conn);
+        releaseConnection(conn, broken);
     }
 
-    private void closeConnection(Connection conn) {
-        try {
-            if ((conn != null) && (!conn.isClosed())) {
-                conn.close();
-            }
-        } catch (Exception e) {
-            LOG.error("Unable to close Amazon Redshift connection.", e);
+    /**
+     * Returns the connection to the pool, which closes it instead when it is broken.
+     */
+    private void releaseConnection(Connection conn, boolean broken) {
+        if (conn != null) {
+            connectionPool.releaseConnection(conn, broken);
         }
     }
 
+    @Override
+    public void initialize(String shardId) {
+        // A new lease: the previous owner of the shard may commit files after the index was last warmed
+        initializedAt = System.currentTimeMillis();
+        fileIndexWarmed = false;
+        fileIndexTrusted = false;
+    }
+
+    @Override
+    public void setMetricsFactory(IMetricsFactory metricsFactory) {
+        // Lets a shared pool publish its wait times
+        connectionPool.useMetricsFactory(metricsFactory);
+    }
+
     @Override
     public void fail(List<String> records) {
-        for (String record : records) {
-            LOG.error("Record failed: " + record);
-        }
+        deadLetters.failStrings(records);
     }
 
     /**
@@ -221,17 +305,36 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     }
 
     /**
-     * Selects the count of files that are already present in Amazon Redshift using a SQL Query in the
-     * format: SELECT COUNT(*) FROM fileTable WHERE fileKeyColumn IN ('f1','f2',...);
+     * Selects the files that are already present in Amazon Redshift using a SQL Query in the
+     * format: SELECT fileKeyColumn FROM fileTable WHERE fileKeyColumn IN ('f1','f2',...);
+     * <p>
+     * When the committed file index is enabled, files it knows to be committed are left out without a query. Files it
+     * rules out are not queried either, once the index is trusted.
      * 
      * @param records
      * @return Deduplicated list of files
      * @throws IOException
      */
-
     private List<String> checkForExistingFiles(Connection conn, List<String> records) throws IOException {
         SortedSet<String> recordSet = new TreeSet<>(records);
-        String files = getCollectionString(recordSet, "(", ",", ")");
+        Collection<String> candidates = recordSet;
+        if (fileIndex != null) {
+            candidates = new ArrayList<String>();
+            Iterator<String> it = recordSet.iterator();
+            while (it.hasNext()) {
+                String file = it.next();
+                if (fileIndex.isCommitted(file)) {
+                    LOG.info("File " + file + " has already been copied. Leaving it out.");
+                    it.remove();
+                } else if (!fileIndexTrusted || fileIndex.mightBeCommitted(file)) {
+                    candidates.add(file);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return new ArrayList<String>(recordSet);
+            }
+        }
+        String files = getCollectionString(candidates, "(", ",", ")");
         StringBuilder selectExisting = new StringBuilder();
         selectExisting.append("SELECT " + fileKeyColumn + " FROM ");
         selectExisting.append(fileTable);
@@ -240,6 +343,7 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
         selectExisting.append(" IN ");
         selectExisting.append(files);
         selectExisting.append(";");
+        List<String> existingFiles = new ArrayList<String>();
         Statement stmt = null;
         ResultSet resultSet = null;
         try {
@@ -250,6 +354,10 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
                 String existingFile = resultSet.getString(1);
                 LOG.info("File " + existingFile + " has already been copied. Leaving it out.");
                 recordSet.remove(existingFile);
+                existingFiles.add(existingFile);
+            }
+            if (fileIndex != null) {
+                fileIndex.addCommitted(existingFiles);
             }
             resultSet.close();
             stmt.close();
@@ -297,7 +405,7 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
      * Executes a, Amazon Redshift copy from Amazon S3 using a Manifest file with a command in the format: COPY
      * dataTable FROM 's3://s3Bucket/manifestFile' CREDENTIALS
      * 'aws_access_key_id=accessKey;aws_secret_access_key=secretKey' DELIMITER dataDelimiter
-     * MANIFEST;
+     * [GZIP] MANIFEST;
      * 
      * @param Name of manifest file
      * @throws IOException
@@ -317,6 +425,9 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
         }
         redshiftCopy.append("' ");
         redshiftCopy.append("DELIMITER '" + dataDelimiter + "' ");
+        if (!copyOption.isEmpty()) {
+            redshiftCopy.append(copyOption + " ");
+        }
         redshiftCopy.append("MANIFEST");
         redshiftCopy.append(";");
         executeStatement(conn, redshiftCopy.toString());
@@ -422,6 +533,13 @@ public class RedshiftManifestEmitter implements IEmitter<String> {
     @Override
     public void shutdown() {
         s3Client.shutdown();
+        if (closePoolOnShutdown) {
+            connectionPool.close();
+        }
+        if (fileIndex != null) {
+            fileIndex.close();
+        }
+        deadLetters.close();
     }
 
 }
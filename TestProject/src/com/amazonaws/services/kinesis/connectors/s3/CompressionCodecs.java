@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+/**
+ * Resolves the value of the s3CompressionCodec property to an ICompressionCodec.
+ */
+public final class CompressionCodecs {
+
+    public static final String NONE = "none";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * @param name
+     *        "none", "gzip", "deflate", or the name of a class implementing ICompressionCodec
+     * @return the codec
+     * @throws IllegalArgumentException
+     *         if the name does not resolve to a codec
+     */
+    public static ICompressionCodec forName(String name) {
+        String codec = name == null ? NONE : name.trim();
+        if (codec.isEmpty() || NONE.equalsIgnoreCase(codec)) {
+            return new NoCompressionCodec();
+        } else if (GZIP.equalsIgnoreCase(codec)) {
+            return new GzipCompressionCodec();
+        } else if (DEFLATE.equalsIgnoreCase(codec)) {
+            return new DeflateCompressionCodec();
+        }
+        try {
+            return Class.forName(codec).asSubclass(ICompressionCodec.class).newInstance();
+        } catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown compression codec: " + codec, e);
+        }
+    }
+}
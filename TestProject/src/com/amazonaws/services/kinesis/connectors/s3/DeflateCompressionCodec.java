@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class is an implementation of ICompressionCodec that writes objects in the zlib format. Amazon Redshift cannot
+ * load these files, so this codec cannot be used with the Amazon Redshift emitters.
+ */
+public class DeflateCompressionCodec implements ICompressionCodec {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        // The stream owns its Deflater, so it is released when the stream is closed
+        return new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".deflate";
+    }
+
+    @Override
+    public String getRedshiftCopyOption() {
+        return null;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ICompressionCodec compresses the objects written to Amazon S3 by the S3Emitter. It is selected with the
+ * s3CompressionCodec property, which takes either one of the names known to CompressionCodecs or the name of a class
+ * implementing this interface with a public no-argument constructor.
+ */
+public interface ICompressionCodec {
+
+    /**
+     * Wraps the stream that the object is written to. Closing the returned stream must finish the compressed data and
+     * close the given stream.
+     * 
+     * @param out
+     *        stream receiving the compressed object
+     * @return the stream to write the uncompressed object to
+     */
+    public OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Get the suffix appended to the Amazon S3 file name, such as ".gz"
+     * 
+     * @return the file name suffix, or an empty String
+     */
+    public String getFileExtension();
+
+    /**
+     * Get the option telling the Amazon Redshift COPY command how the file is compressed, such as "GZIP"
+     * 
+     * @return the COPY option, an empty String if no option is needed, or null if Amazon Redshift cannot load files
+     *         compressed with this codec
+     */
+    public String getRedshiftCopyOption();
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+/**
+ * IS3KeyLayout decides where in the bucket the S3Emitter stores the objects it writes. The name of an object is still
+ * made of the first and last sequence numbers of its buffer; the layout adds a prefix to it, such as a hash for
+ * spreading requests or a date for partitioning, and may split a buffer into several objects by a value of each
+ * record.
+ * <p>
+ * It is selected with the s3KeyLayout property, which takes the name of a class implementing this interface with a
+ * public constructor taking a KinesisConnectorConfiguration or no arguments. Implementations must be thread-safe.
+ */
+public interface IS3KeyLayout {
+
+    /**
+     * @return true if getRecordPartition() is to be called for each record, false to write each buffer to one object
+     */
+    public boolean isPartitioningRecords();
+
+    /**
+     * Get the partition of a record. The records of a buffer that have the same partition are written to one object.
+     * 
+     * @param record
+     *        the record, as emitted
+     * @return the partition, which must not be null
+     */
+    public String getRecordPartition(byte[] record);
+
+    /**
+     * Get the prefix of the object holding the records of a buffer, or of one partition of them. It must always be the
+     * same for the same arguments, so that retries overwrite the objects of earlier attempts.
+     * 
+     * @param fileName
+     *        the name of the object, from the first and last sequence numbers of the buffer
+     * @param bufferTimeMillis
+     *        the time the buffer was first emitted, which is kept for its retries
+     * @param recordPartition
+     *        the partition of the records, or null if the layout does not partition records
+     * @return the prefix, ending with a '/', or an empty String to store the object at the root of the bucket
+     */
+    public String getPrefix(String fileName, long bufferTimeMillis, String recordPartition);
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.SharedResources;
+import com.amazonaws.services.kinesis.connectors.impl.ExponentialBackoffRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.interfaces.IRetryPolicy;
+import com.amazonaws.services.kinesis.connectors.kinesis.KinesisBatchProducer;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+
+/**
+ * Puts the file names written by the S3ManifestEmitters of a worker to the manifest stream in PutRecords batches.
+ * An emitter hands each file name to publish(), which blocks until Amazon Kinesis has accepted the record. A background
+ * thread sends all records waiting at that time in one request, up to kinesisProducerMaxBatchRecords records and
+ * kinesisProducerMaxBatchBytes bytes. The manifest records of many flushes and shards therefore share one round trip.
+ * With s3ManifestLingerMillis above 0, the thread waits up to that long for a batch to fill.
+ * <p>
+ * A request carries at most one record per source shard. A record rejected by PutRecords is sent again before any
+ * later record of its shard. So the manifest records of a shard reach the stream in the order its files were written.
+ * Rejected records are retried under the same ExponentialBackoffRetryPolicy as emits. If that policy gives up,
+ * publish() throws an IOException.
+ * <p>
+ * s3ManifestPartitionKey selects the partition key:
+ * <ul>
+ * <li>stream: the stream name. Every manifest record goes to one shard, as in earlier versions.</li>
+ * <li>shard: the source shard id. Each source shard maps to one manifest shard.</li>
+ * <li>file: the file name. Manifest records spread evenly over the shards of the stream.</li>
+ * </ul>
+ * <p>
+ * Emitters obtain a publisher with forConfiguration(). It returns the same publisher for the same application name
+ * and manifest stream. Emitters close the publisher when they shut down. The thread stops and the client is shut down
+ * after every emitter has closed it.
+ */
+public class ManifestPublisher implements Closeable {
+    private static final Log LOG = LogFactory.getLog(ManifestPublisher.class);
+
+    /** s3ManifestPartitionKey value that partitions manifest records by stream name */
+    public static final String PARTITION_KEY_STREAM = "stream";
+    /** s3ManifestPartitionKey value that partitions manifest records by source shard */
+    public static final String PARTITION_KEY_SHARD = "shard";
+    /** s3ManifestPartitionKey value that partitions manifest records by file name */
+    public static final String PARTITION_KEY_FILE = "file";
+
+    // Publishers shared by the emitters of an application, keyed by application name and manifest stream
+    private static final SharedResources<ManifestPublisher> SHARED_PUBLISHERS =
+            new SharedResources<ManifestPublisher>();
+
+    // Whether the publisher is shared, and then owns its client
+    private final boolean shared;
+    private final AmazonKinesisClient kinesisClient;
+    private final String streamName;
+    private final String partitionKey;
+    private final int maxBatchRecords;
+    private final int maxBatchBytes;
+    private final long lingerMillis;
+    private final IRetryPolicy retryPolicy;
+    private final Thread flusher;
+
+    // Guarded by this
+    private final LinkedList<Entry> queue = new LinkedList<Entry>();
+    private boolean closed;
+    private long recordsSent;
+    private long recordsRetried;
+    private long requestsSent;
+
+    /**
+     * Creates a publisher that is not shared. close() stops its thread but does not shut down the client.
+     * 
+     * @param kinesisClient
+     *        client used to put the records
+     * @param streamName
+     *        name of the manifest stream
+     * @param configuration
+     *        Amazon Kinesis connector configuration, providing the partition key, batch limits, linger time and
+     *        retry policy
+     */
+    public ManifestPublisher(AmazonKinesisClient kinesisClient,
+            String streamName,
+            KinesisConnectorConfiguration configuration) {
+        this(false, kinesisClient, streamName, configuration);
+    }
+
+    private ManifestPublisher(boolean shared,
+            AmazonKinesisClient kinesisClient,
+            final String streamName,
+            KinesisConnectorConfiguration configuration) {
+        partitionKey = configuration.S3_MANIFEST_PARTITION_KEY;
+        if (!PARTITION_KEY_STREAM.equals(partitionKey) && !PARTITION_KEY_SHARD.equals(partitionKey)
+                && !PARTITION_KEY_FILE.equals(partitionKey)) {
+            throw new IllegalArgumentException("Unknown " + KinesisConnectorConfiguration.PROP_S3_MANIFEST_PARTITION_KEY
+                    + ": " + partitionKey);
+        }
+        this.shared = shared;
+        this.kinesisClient = kinesisClient;
+        this.streamName = streamName;
+        maxBatchRecords =
+                Math.max(1, Math.min(KinesisBatchProducer.MAX_RECORDS_PER_REQUEST,
+                        configuration.KINESIS_PRODUCER_MAX_BATCH_RECORDS));
+        maxBatchBytes =
+                Math.max(1, Math.min(KinesisBatchProducer.MAX_BYTES_PER_REQUEST,
+                        configuration.KINESIS_PRODUCER_MAX_BATCH_BYTES));
+        lingerMillis = configuration.S3_MANIFEST_LINGER_MILLIS;
+        retryPolicy = new ExponentialBackoffRetryPolicy(configuration);
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<Entry> batch;
+                while ((batch = nextBatch()) != null) {
+                    send(batch);
+                }
+            }
+        }, "ManifestPublisher-" + streamName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Returns the publisher shared by the emitters of the configured application for the kinesisOutputStream, creating
+     * it and its client if needed. Each call must be matched by a call to close().
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @return the shared publisher
+     */
+    public static ManifestPublisher forConfiguration(final KinesisConnectorConfiguration configuration) {
+        String key = configuration.APP_NAME + "/" + configuration.KINESIS_OUTPUT_STREAM;
+        return SHARED_PUBLISHERS.acquire(key, new SharedResources.Factory<ManifestPublisher, RuntimeException>() {
+            @Override
+            public ManifestPublisher create(String key) {
+                AmazonKinesisClient kinesisClient = new AmazonKinesisClient(configuration.AWS_CREDENTIALS_PROVIDER);
+                kinesisClient.setEndpoint(configuration.KINESIS_ENDPOINT);
+                return new ManifestPublisher(true, kinesisClient, configuration.KINESIS_OUTPUT_STREAM, configuration);
+            }
+        });
+    }
+
+    /**
+     * Puts the name of a file to the manifest stream, blocking until it has been accepted.
+     * 
+     * @param shardId
+     *        the source shard the file was written for, or null if it is not known
+     * @param fileName
+     *        name of the Amazon S3 file
+     * @throws IOException
+     *         if the record was still rejected after the last retry, or the publisher is closed
+     */
+    public void publish(String shardId, String fileName) throws IOException {
+        String key;
+        if (PARTITION_KEY_FILE.equals(partitionKey)) {
+            key = fileName;
+        } else if (PARTITION_KEY_SHARD.equals(partitionKey) && shardId != null) {
+            key = shardId;
+        } else {
+            key = streamName;
+        }
+        Entry entry = new Entry(shardId == null ? "" : shardId, key, ByteBuffer.wrap(fileName.getBytes()));
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Manifest publisher for " + streamName + " is closed");
+            }
+            queue.add(entry);
+            notifyAll();
+        }
+        try {
+            entry.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing " + fileName + " to " + streamName);
+        }
+        if (entry.error != null) {
+            throw new IOException("Failed to publish " + fileName + " to " + streamName, entry.error);
+        }
+    }
+
+    /**
+     * Waits until a batch is ready to be sent and removes it from the queue.
+     * 
+     * @return the batch, or null once the publisher is closed and every record has been sent or failed
+     */
+    private synchronized List<Entry> nextBatch() {
+        while (true) {
+            if (closed && queue.isEmpty()) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            long wakeUp = Long.MAX_VALUE;
+            List<Entry> batch = new ArrayList<Entry>();
+            Set<String> shards = new HashSet<String>();
+            int bytes = 0;
+            boolean full = false;
+            long oldest = Long.MAX_VALUE;
+            for (Entry entry : queue) {
+                // A shard's later records wait while its first record is sent or backs off
+                if (!shards.add(entry.shardId)) {
+                    continue;
+                }
+                if (entry.notBefore > now) {
+                    wakeUp = Math.min(wakeUp, entry.notBefore);
+                    continue;
+                }
+                if (!batch.isEmpty() && bytes + entry.size > maxBatchBytes) {
+                    full = true;
+                    break;
+                }
+                batch.add(entry);
+                bytes += entry.size;
+                oldest = Math.min(oldest, entry.created);
+                if (batch.size() >= maxBatchRecords) {
+                    full = true;
+                    break;
+                }
+            }
+            if (!batch.isEmpty()) {
+                if (full || closed || now - oldest >= lingerMillis) {
+                    queue.removeAll(new HashSet<Entry>(batch));
+                    return batch;
+                }
+                wakeUp = Math.min(wakeUp, oldest + lingerMillis);
+            }
+            try {
+                if (wakeUp == Long.MAX_VALUE) {
+                    wait();
+                } else {
+                    wait(Math.max(1L, wakeUp - now));
+                }
+            } catch (InterruptedException e) {
+                // Only close() stops the thread, so that no waiting publish() is left behind
+                LOG.warn("Interrupted while waiting for manifest records of " + streamName);
+            }
+        }
+    }
+
+    /**
+     * Puts the batch, completing the accepted records and queueing the rejected ones for a retry.
+     */
+    private void send(List<Entry> batch) {
+        List<PutRecordsRequestEntry> records = new ArrayList<PutRecordsRequestEntry>(batch.size());
+        for (Entry entry : batch) {
+            records.add(new PutRecordsRequestEntry().withData(entry.data.duplicate())
+                    .withPartitionKey(entry.partitionKey));
+        }
+        List<Entry> rejected = new ArrayList<Entry>();
+        Exception cause = null;
+        try {
+            PutRecordsResult result =
+                    kinesisClient.putRecords(new PutRecordsRequest().withStreamName(streamName).withRecords(records));
+            List<PutRecordsResultEntry> results = result.getRecords();
+            for (int i = 0; i < batch.size(); i++) {
+                PutRecordsResultEntry resultEntry = results.get(i);
+                if (resultEntry.getErrorCode() == null) {
+                    batch.get(i).complete(null);
+                } else {
+                    rejected.add(batch.get(i));
+                    cause = new IOException(resultEntry.getErrorCode() + " " + resultEntry.getErrorMessage());
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to put " + batch.size() + " manifest records to " + streamName, e);
+            rejected.clear();
+            rejected.addAll(batch);
+            cause = e;
+        }
+        synchronized (this) {
+            requestsSent++;
+            recordsSent += batch.size() - rejected.size();
+            long now = System.currentTimeMillis();
+            // Rejected records go back to the front in their original order, ahead of later records of their shards
+            for (int i = rejected.size() - 1; i >= 0; i--) {
+                Entry entry = rejected.get(i);
+                long delay = retryPolicy.getDelayMillis(entry.retries, now - entry.created);
+                if (delay == IRetryPolicy.NO_RETRY) {
+                    entry.complete(cause);
+                } else {
+                    entry.retries++;
+                    entry.notBefore = now + delay;
+                    queue.addFirst(entry);
+                    recordsRetried++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the waiting records and stops the thread once every caller of forConfiguration() has closed the
+     * publisher. The client of a shared publisher is shut down as well.
+     */
+    @Override
+    public void close() {
+        if (!SHARED_PUBLISHERS.release(this)) {
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (shared) {
+            kinesisClient.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of manifest records accepted by Amazon Kinesis
+     */
+    public synchronized long getRecordsSent() {
+        return recordsSent;
+    }
+
+    /**
+     * @return the number of rejected manifest records that were sent again
+     */
+    public synchronized long getRecordsRetried() {
+        return recordsRetried;
+    }
+
+    /**
+     * @return the number of PutRecords requests made
+     */
+    public synchronized long getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * A manifest record waiting to be accepted.
+     */
+    private static class Entry {
+        final String shardId;
+        final String partitionKey;
+        final ByteBuffer data;
+        final int size;
+        final long created = System.currentTimeMillis();
+        final CountDownLatch done = new CountDownLatch(1);
+        // Guarded by the publisher
+        int retries;
+        long notBefore;
+        // Written before done is counted down
+        Exception error;
+
+        Entry(String shardId, String partitionKey, ByteBuffer data) {
+            this.shardId = shardId;
+            this.partitionKey = partitionKey;
+            this.data = data;
+            size = data.remaining() + partitionKey.length();
+        }
+
+        void complete(Exception error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+}
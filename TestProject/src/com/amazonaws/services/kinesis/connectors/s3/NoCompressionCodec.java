@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.OutputStream;
+
+/**
+ * This class is an implementation of ICompressionCodec that writes objects uncompressed.
+ */
+public class NoCompressionCodec implements ICompressionCodec {
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        return out;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "";
+    }
+
+    @Override
+    public String getRedshiftCopyOption() {
+        return "";
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The IS3KeyLayout used by default. It builds the prefix of an object from up to three parts, each of which is
+ * optional. With none of them configured, objects are stored at the root of the bucket as before.
+ * <ol>
+ * <li>s3KeyHashPrefixLength: that many hex digits, up to 8, of a hash of the file name. This spreads the requests
+ * of a busy stream over many key prefixes. Listing a time range or field value then takes one listing per hash
+ * prefix, so keep it short.</li>
+ * <li>s3KeyTimeFormat: the time the buffer was first emitted, in UTC, formatted with this SimpleDateFormat pattern,
+ * for example yyyy/MM/dd/HH.</li>
+ * <li>s3KeyPartitionField: the value of this top-level field of the records, as field=value. The records are
+ * expected to be JSON objects, as written by JsonToByteArrayTransformer. The records of a buffer are split into one
+ * object per value. Records without the field, or that cannot be parsed, go to field=__HIVE_DEFAULT_PARTITION__.</li>
+ * </ol>
+ * For example: 3f/2014/06/01/13/country=DE/49538441-49538977.gz. The field=value form lets Hive-compatible engines
+ * prune partitions.
+ */
+public class PartitionedS3KeyLayout implements IS3KeyLayout {
+    /** Partition of the records that do not have the partition field */
+    public static final String DEFAULT_PARTITION_VALUE = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final int MAX_HASH_PREFIX_LENGTH = 8;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int hashPrefixLength;
+    private final String timeFormat;
+    private final String partitionField;
+
+    public PartitionedS3KeyLayout(KinesisConnectorConfiguration configuration) {
+        this(configuration.S3_KEY_HASH_PREFIX_LENGTH, configuration.S3_KEY_TIME_FORMAT,
+                configuration.S3_KEY_PARTITION_FIELD);
+    }
+
+    /**
+     * @param hashPrefixLength
+     *        number of hex digits of the hash prefix, 0 for none
+     * @param timeFormat
+     *        SimpleDateFormat pattern of the time prefix, or null for none
+     * @param partitionField
+     *        name of the JSON field to partition the records by, or null for none
+     * @throws IllegalArgumentException
+     *         if the time format is not a valid pattern
+     */
+    public PartitionedS3KeyLayout(int hashPrefixLength, String timeFormat, String partitionField) {
+        this.hashPrefixLength = Math.max(0, Math.min(MAX_HASH_PREFIX_LENGTH, hashPrefixLength));
+        this.timeFormat = timeFormat == null || timeFormat.trim().isEmpty() ? null : timeFormat.trim();
+        if (this.timeFormat != null) {
+            // Fail on a bad pattern when the emitter is created rather than on its first emit
+            new SimpleDateFormat(this.timeFormat);
+        }
+        this.partitionField =
+                partitionField == null || partitionField.trim().isEmpty() ? null : partitionField.trim();
+    }
+
+    @Override
+    public boolean isPartitioningRecords() {
+        return partitionField != null;
+    }
+
+    @Override
+    public String getRecordPartition(byte[] record) {
+        String value = readPartitionField(record);
+        if (value == null || value.isEmpty()) {
+            value = DEFAULT_PARTITION_VALUE;
+        } else {
+            try {
+                // Keeps '/' and other characters with a meaning in keys out of the partition
+                value = URLEncoder.encode(value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return partitionField + "=" + value;
+    }
+
+    /**
+     * Get the value of the partition field, reading only up to the field.
+     * 
+     * @return the text of the value, or null if the field is missing, not a scalar, or the record is not JSON
+     */
+    private String readPartitionField(byte[] record) {
+        try (JsonParser parser = JSON_FACTORY.createParser(record)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (partitionField.equals(name)) {
+                    return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getPrefix(String fileName, long bufferTimeMillis, String recordPartition) {
+        StringBuilder prefix = new StringBuilder();
+        if (hashPrefixLength > 0) {
+            prefix.append(String.format("%08x", hash(fileName)), 0, hashPrefixLength).append('/');
+        }
+        if (timeFormat != null) {
+            SimpleDateFormat format = new SimpleDateFormat(timeFormat);
+            format.setTimeZone(UTC);
+            prefix.append(format.format(new Date(bufferTimeMillis))).append('/');
+        }
+        if (recordPartition != null) {
+            prefix.append(recordPartition).append('/');
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Mixes the bits of the String hash, whose high bits barely change between file names sharing a long prefix.
+     */
+    private static int hash(String fileName) {
+        int h = fileName.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
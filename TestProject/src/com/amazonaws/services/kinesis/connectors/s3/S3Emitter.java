@@ -17,17 +17,31 @@ package com.amazonaws.services.kinesis.connectors.s3;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.DeadLetterSink;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 
 /**
  * This implementation of IEmitter is used to store files from an Amazon Kinesis stream in S3. The use of
@@ -35,25 +49,127 @@ import com.amazonaws.services.s3.AmazonS3Client;
  * class's emit method adds the contents of the buffer to Amazon S3 as one file. The filename is generated
  * from the first and last sequence numbers of the records contained in that file separated by a
  * dash. This class requires the configuration of an Amazon S3 bucket and endpoint.
+ * <p>
+ * If the records come from an IRawBuffer, the concatenated payloads held by the buffer are uploaded directly instead
+ * of being copied record by record.
+ * <p>
+ * If s3MultipartUpload is enabled, the records are instead written to an S3MultipartOutputStream, which uploads the
+ * object in parts of s3MultipartPartSize bytes as it is written, up to s3MultipartUploadThreads parts at a time. The
+ * part uploads of all emits of this emitter share one pool of that many threads.
+ * <p>
+ * The object is compressed while it is written with the ICompressionCodec named by s3CompressionCodec, and the file
+ * extension of the codec is appended to the file name.
+ * <p>
+ * The file name is prefixed by the IS3KeyLayout named by s3KeyLayout, by default a PartitionedS3KeyLayout. If the
+ * layout partitions records, the records of a buffer are written to one object per partition. Subclasses that act on
+ * the objects written call upload() to learn their names.
+ * <p>
+ * Records passed to fail() are written to the dead letter spool named after the class of the emitter if a
+ * deadLetterDirectory is configured, see DeadLetterSink.
  */
 public class S3Emitter implements IEmitter<byte[]> {
     private static final Log LOG = LogFactory.getLog(S3Emitter.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
     protected final String s3Bucket;
     protected final String s3Endpoint;
 
     protected final AmazonS3Client s3client;
 
+    protected final ICompressionCodec compressionCodec;
+    private final boolean compressed;
+
+    private final boolean multipartUpload;
+    private final int multipartPartSize;
+    private final int multipartUploadThreads;
+    private ExecutorService multipartExecutor;
+
+    private static final int MAX_BUFFER_TIMES = 64;
+    protected final IS3KeyLayout keyLayout;
+    // Time each buffer was first emitted, keyed by file name, so that retries write to the same keys. Guarded by
+    // itself; the eldest entries are dropped, as buffers that are given up on are never removed.
+    private final Map<String, Long> bufferTimes = new LinkedHashMap<String, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_BUFFER_TIMES;
+        }
+    };
+
+    private final DeadLetterSink deadLetters;
+
     public S3Emitter(KinesisConnectorConfiguration configuration) {
+        this(configuration, new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER));
+    }
+
+    /**
+     * Create an emitter using the given client, for example one connected to a local Amazon S3 stand-in. The
+     * endpoint and path-style access settings of the configuration are applied to the client.
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param s3client
+     *        the Amazon S3 client to upload the files with
+     */
+    public S3Emitter(KinesisConnectorConfiguration configuration, AmazonS3Client s3client) {
+        this(configuration, s3client, createKeyLayout(configuration));
+    }
+
+    /**
+     * Create an emitter using the given client and key layout.
+     * 
+     * @param configuration
+     *        Amazon Kinesis connector configuration
+     * @param s3client
+     *        the Amazon S3 client to upload the files with
+     * @param keyLayout
+     *        the layout of the keys of the objects written
+     */
+    public S3Emitter(KinesisConnectorConfiguration configuration, AmazonS3Client s3client, IS3KeyLayout keyLayout) {
+        this.keyLayout = keyLayout;
         s3Bucket = configuration.S3_BUCKET;
         s3Endpoint = configuration.S3_ENDPOINT;
-        s3client = new AmazonS3Client(configuration.AWS_CREDENTIALS_PROVIDER);
+        this.s3client = s3client;
         if (s3Endpoint != null) {
             s3client.setEndpoint(s3Endpoint);
         }
+        if (configuration.S3_PATH_STYLE_ACCESS) {
+            s3client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+        }
+        compressionCodec = CompressionCodecs.forName(configuration.S3_COMPRESSION_CODEC);
+        compressed = !(compressionCodec instanceof NoCompressionCodec);
+        multipartUpload = configuration.S3_MULTIPART_UPLOAD;
+        multipartPartSize = Math.max(S3MultipartOutputStream.MIN_PART_SIZE, configuration.S3_MULTIPART_PART_SIZE);
+        multipartUploadThreads = Math.max(1, configuration.S3_MULTIPART_UPLOAD_THREADS);
+        deadLetters = new DeadLetterSink(configuration, getClass().getSimpleName(), LOG);
+    }
+
+    /**
+     * Creates the IS3KeyLayout named by s3KeyLayout, or a PartitionedS3KeyLayout if it is not set.
+     * 
+     * @throws IllegalArgumentException
+     *         if the name does not resolve to a layout
+     */
+    private static IS3KeyLayout createKeyLayout(KinesisConnectorConfiguration configuration) {
+        String name = configuration.S3_KEY_LAYOUT;
+        if (name == null || name.trim().isEmpty()) {
+            return new PartitionedS3KeyLayout(configuration);
+        }
+        try {
+            Class<? extends IS3KeyLayout> layout = Class.forName(name.trim()).asSubclass(IS3KeyLayout.class);
+            try {
+                return layout.getConstructor(KinesisConnectorConfiguration.class).newInstance(configuration);
+            } catch (NoSuchMethodException e) {
+                return layout.newInstance();
+            }
+        } catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IllegalArgumentException("Unknown S3 key layout: " + name, e);
+        }
     }
 
     protected String getS3FileName(String firstSeq, String lastSeq) {
-        return firstSeq + "-" + lastSeq;
+        return firstSeq + "-" + lastSeq + compressionCodec.getFileExtension();
     }
 
     protected String getS3URI(String s3FileName) {
@@ -62,26 +178,110 @@ public class S3Emitter implements IEmitter<byte[]> {
 
     @Override
     public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
+        return upload(buffer, new ArrayList<String>());
+    }
+
+    /**
+     * Writes the records of the buffer to Amazon S3: to one object, or to one object per partition if the key layout
+     * partitions records.
+     * 
+     * @param buffer
+     *        the buffer to write
+     * @param s3FileNames
+     *        receives the keys of the objects written
+     * @return the records that could not be written
+     */
+    protected List<byte[]> upload(UnmodifiableBuffer<byte[]> buffer, List<String> s3FileNames) {
+        String fileName = getS3FileName(buffer.getFirstSequenceNumber(), buffer.getLastSequenceNumber());
+        long bufferTime = getBufferTime(fileName);
+        if (!keyLayout.isPartitioningRecords()) {
+            String s3FileName = keyLayout.getPrefix(fileName, bufferTime, null) + fileName;
+            List<byte[]> failed = uploadObject(buffer, s3FileName);
+            if (failed.isEmpty()) {
+                s3FileNames.add(s3FileName);
+                releaseBufferTime(fileName);
+            }
+            return failed;
+        }
+        Map<String, List<byte[]>> partitions = new LinkedHashMap<String, List<byte[]>>();
+        for (byte[] record : buffer.getRecords()) {
+            String partition = keyLayout.getRecordPartition(record);
+            List<byte[]> records = partitions.get(partition);
+            if (records == null) {
+                records = new ArrayList<byte[]>();
+                partitions.put(partition, records);
+            }
+            records.add(record);
+        }
+        List<byte[]> failed = new ArrayList<byte[]>();
+        for (Map.Entry<String, List<byte[]>> partition : partitions.entrySet()) {
+            String s3FileName = keyLayout.getPrefix(fileName, bufferTime, partition.getKey()) + fileName;
+            // A buffer of one partition is written as it is, which keeps its raw data available
+            UnmodifiableBuffer<byte[]> partitionBuffer =
+                    partitions.size() == 1 ? buffer : new UnmodifiableBuffer<byte[]>(buffer, partition.getValue());
+            List<byte[]> partitionFailed = uploadObject(partitionBuffer, s3FileName);
+            if (partitionFailed.isEmpty()) {
+                s3FileNames.add(s3FileName);
+            } else {
+                failed.addAll(partitionFailed);
+            }
+        }
+        if (failed.isEmpty()) {
+            releaseBufferTime(fileName);
+        }
+        return failed;
+    }
+
+    private long getBufferTime(String fileName) {
+        synchronized (bufferTimes) {
+            Long time = bufferTimes.get(fileName);
+            if (time == null) {
+                time = System.currentTimeMillis();
+                bufferTimes.put(fileName, time);
+            }
+            return time;
+        }
+    }
+
+    private void releaseBufferTime(String fileName) {
+        synchronized (bufferTimes) {
+            bufferTimes.remove(fileName);
+        }
+    }
+
+    /**
+     * Writes all records of the buffer to one object.
+     */
+    private List<byte[]> uploadObject(UnmodifiableBuffer<byte[]> buffer, String s3FileName) {
+        if (multipartUpload) {
+            return emitMultipart(buffer, s3FileName);
+        }
         List<byte[]> records = buffer.getRecords();
-        // Write all of the records to a compressed output stream
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        for (byte[] record : records) {
-            try {
-                baos.write(record);
+        InputStream object;
+        long contentLength;
+        ByteBuffer rawData = buffer.getRawData();
+        if (rawData != null && !compressed) {
+            // The payloads are already concatenated in the buffer; upload them without copying
+            object = new ByteBufferBackedInputStream(rawData);
+            contentLength = rawData.remaining();
+        } else {
+            // Write all of the records to a compressed output stream
+            ObjectBytesOutputStream baos = new ObjectBytesOutputStream();
+            try (OutputStream out = compressionCodec.compress(baos)) {
+                writeRecords(buffer, out);
             } catch (Exception e) {
-                LOG.error("Error writing record to output stream. Failing this emit attempt. Record: "
-                        + Arrays.toString(record),
-                        e);
+                LOG.error("Error writing records to output stream. Failing this emit attempt.", e);
                 return buffer.getRecords();
             }
+            object = baos.toInputStream();
+            contentLength = baos.size();
         }
-        // Get the Amazon S3 filename
-        String s3FileName = getS3FileName(buffer.getFirstSequenceNumber(), buffer.getLastSequenceNumber());
         String s3URI = getS3URI(s3FileName);
         try {
-            ByteArrayInputStream object = new ByteArrayInputStream(baos.toByteArray());
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(contentLength);
             LOG.debug("Starting upload of file " + s3URI + " to Amazon S3 containing " + records.size() + " records.");
-            s3client.putObject(s3Bucket, s3FileName, object, null);
+            s3client.putObject(s3Bucket, s3FileName, object, metadata);
             LOG.info("Successfully emitted " + buffer.getRecords().size() + " records to Amazon S3 in " + s3URI);
             return Collections.emptyList();
         } catch (Exception e) {
@@ -90,16 +290,104 @@ public class S3Emitter implements IEmitter<byte[]> {
         }
     }
 
+    private List<byte[]> emitMultipart(UnmodifiableBuffer<byte[]> buffer, String s3FileName) {
+        List<byte[]> records = buffer.getRecords();
+        String s3URI = getS3URI(s3FileName);
+        LOG.debug("Starting multipart upload of file " + s3URI + " to Amazon S3 containing " + records.size()
+                + " records.");
+        S3MultipartOutputStream object = new S3MultipartOutputStream(s3client,
+                s3Bucket,
+                s3FileName,
+                multipartPartSize,
+                getMultipartExecutor(),
+                multipartUploadThreads);
+        OutputStream out = null;
+        try {
+            out = compressionCodec.compress(object);
+            writeRecords(buffer, out);
+            // Closing the compressed stream finishes it and closes the object, which completes the upload
+            out.close();
+            LOG.info("Successfully emitted " + records.size() + " records (" + object.size()
+                    + " bytes) to Amazon S3 in " + s3URI);
+            return Collections.emptyList();
+        } catch (Exception e) {
+            object.abort();
+            closeQuietly(out);
+            LOG.error("Caught exception when uploading file " + s3URI + "to Amazon S3. Failing this emit attempt.", e);
+            return buffer.getRecords();
+        }
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        if (out != null) {
+            try {
+                // Releases the resources of the codec; the aborted object rejects any remaining data
+                out.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Writes the records of the buffer to the stream, using the concatenated payloads of the buffer if available.
+     */
+    private static void writeRecords(UnmodifiableBuffer<byte[]> buffer, OutputStream out) throws IOException {
+        ByteBuffer rawData = buffer.getRawData();
+        if (rawData == null) {
+            for (byte[] record : buffer.getRecords()) {
+                out.write(record);
+            }
+        } else if (out instanceof S3MultipartOutputStream) {
+            ((S3MultipartOutputStream) out).write(rawData);
+        } else {
+            byte[] chunk = new byte[(int) Math.min(COPY_BUFFER_SIZE, rawData.remaining())];
+            while (rawData.hasRemaining()) {
+                int length = Math.min(chunk.length, rawData.remaining());
+                rawData.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getMultipartExecutor() {
+        if (multipartExecutor == null) {
+            multipartExecutor = Executors.newFixedThreadPool(multipartUploadThreads, new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "S3EmitterPartUpload-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return multipartExecutor;
+    }
+
+    /**
+     * A ByteArrayOutputStream whose contents can be read back without copying them.
+     */
+    private static class ObjectBytesOutputStream extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
     @Override
     public void fail(List<byte[]> records) {
-        for (byte[] record : records) {
-            LOG.error("Record failed: " + Arrays.toString(record));
-        }
+        deadLetters.fail(records);
     }
 
     @Override
     public void shutdown() {
+        synchronized (this) {
+            if (multipartExecutor != null) {
+                multipartExecutor.shutdownNow();
+            }
+        }
         s3client.shutdown();
+        deadLetters.close();
     }
 
 }
@@ -15,18 +15,24 @@
 package com.amazonaws.services.kinesis.connectors.s3;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.connectors.EmitterExecutor;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
-import com.amazonaws.services.kinesis.model.PutRecordRequest;
+import com.amazonaws.services.kinesis.connectors.interfaces.IAsyncEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IShardAware;
 
 /**
  * This implementaion of IEmitter inserts records into Amazon S3 and emits filenames into a separate
@@ -40,58 +46,136 @@ import com.amazonaws.services.kinesis.model.PutRecordRequest;
  * <li>Puts all records into a single file in S3</li>
  * <li>Puts the single file name into the manifest stream</li>
  * </ol>
+ * The file name is only put once the file has been written, so the two steps of one emit always run in this order.
+ * File names are put by the ManifestPublisher shared by the emitters of the worker. It batches the names of many
+ * emits into PutRecords requests, keeps the names of each shard in order, and partitions them by
+ * s3ManifestPartitionKey.
+ * With asyncEmit enabled, they run on an EmitterExecutor of emitterThreads threads shared by the emitters of the
+ * worker, so one thread is not tied up per shard while the uploads are in flight. The emits of a shard still run one
+ * after the other, in the order emitAsync() was called, so that its file names are published in buffer order. An emit
+ * following an earlier buffer whose records were neither emitted nor failed returns all its records without uploading
+ * them, so that the record processor emits the earlier buffer again first.
  * <p>
  * NOTE: the Amazon S3 bucket and Amazon Redshift cluster must be in the same region.
  */
-public class S3ManifestEmitter extends S3Emitter {
+public class S3ManifestEmitter extends S3Emitter implements IAsyncEmitter<byte[]>, IShardAware {
     private static final Log LOG = LogFactory.getLog(S3ManifestEmitter.class);
-    private final AmazonKinesisClient kinesisClient;
-    private final String manifestStream;
+    private static final int MAX_BUFFER_ORDERS = 64;
+    private final ManifestPublisher manifestPublisher;
+    private final EmitterExecutor emitterExecutor;
+    private String shardId;
+    // Position of each buffer in the order buffers were first passed to emitAsync(), keyed by file name. Guarded by
+    // this; the eldest entries are dropped, as the record processor only retries its oldest buffers.
+    private final Map<String, Long> bufferOrders = new LinkedHashMap<String, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_BUFFER_ORDERS;
+        }
+    };
+    private long nextBufferOrder;
+    // The most recent emit started by emitAsync(), or null; guarded by this
+    private ChainedEmit lastEmit;
 
     public S3ManifestEmitter(KinesisConnectorConfiguration configuration) {
         super(configuration);
-        manifestStream = configuration.KINESIS_OUTPUT_STREAM;
-        kinesisClient = new AmazonKinesisClient(configuration.AWS_CREDENTIALS_PROVIDER);
-        kinesisClient.setEndpoint(configuration.KINESIS_ENDPOINT);
+        manifestPublisher = ManifestPublisher.forConfiguration(configuration);
+        emitterExecutor = EmitterExecutor.forConfiguration(configuration);
+    }
+
+    @Override
+    public void initialize(String shardId) {
+        this.shardId = shardId;
     }
 
     @Override
     public List<byte[]> emit(final UnmodifiableBuffer<byte[]> buffer) throws IOException {
-        // Store the contents of buffer.getRecords because superclass will
-        // clear the buffer on success
-        List<byte[]> failed = super.emit(buffer);
-        // calls S3Emitter to write objects to Amazon S3
+        // calls S3Emitter to write objects to Amazon S3, one per partition of the key layout
+        List<String> s3Files = new ArrayList<String>();
+        List<byte[]> failed = upload(buffer, s3Files);
         if (!failed.isEmpty()) {
             return buffer.getRecords();
         }
-        String s3File = getS3FileName(buffer.getFirstSequenceNumber(), buffer.getLastSequenceNumber());
-        // wrap the name of the Amazon S3 file as the record data
-        ByteBuffer data = ByteBuffer.wrap(s3File.getBytes());
-        // Put the list of file names to the manifest Amazon Kinesis stream
-        PutRecordRequest putRecordRequest = new PutRecordRequest();
-        putRecordRequest.setData(data);
-        putRecordRequest.setStreamName(manifestStream);
-        // Use constant partition key to ensure file order
-        putRecordRequest.setPartitionKey(manifestStream);
+        // Put the file names to the manifest Amazon Kinesis stream, in order with the earlier files of this shard
         try {
-            kinesisClient.putRecord(putRecordRequest);
-            LOG.info("S3ManifestEmitter emitted record downstream: " + s3File);
+            for (String s3File : s3Files) {
+                manifestPublisher.publish(shardId, s3File);
+                LOG.info("S3ManifestEmitter emitted record downstream: " + s3File);
+            }
             return Collections.emptyList();
-        } catch (Exception e) {
+        } catch (IOException e) {
             LOG.error(e);
             return buffer.getRecords();
         }
     }
 
     @Override
-    public void fail(List<byte[]> records) {
-        super.fail(records);
+    public synchronized Future<List<byte[]>> emitAsync(final UnmodifiableBuffer<byte[]> buffer) {
+        String fileName = getS3FileName(buffer.getFirstSequenceNumber(), buffer.getLastSequenceNumber());
+        Long bufferOrder = bufferOrders.get(fileName);
+        if (bufferOrder == null) {
+            bufferOrder = nextBufferOrder++;
+            bufferOrders.put(fileName, bufferOrder);
+        }
+        final ChainedEmit previous = lastEmit;
+        final long order = bufferOrder;
+        Future<List<byte[]>> future = emitterExecutor.submit(new Callable<List<byte[]>>() {
+            @Override
+            public List<byte[]> call() throws IOException {
+                if (previous != null && !previous.awaitBefore(order)) {
+                    return buffer.getRecords();
+                }
+                return emit(buffer);
+            }
+        });
+        lastEmit = new ChainedEmit(order, future);
+        return future;
+    }
+
+    /**
+     * An emit started by emitAsync() and the position of its buffer.
+     */
+    private static class ChainedEmit {
+        private final long order;
+        private final Future<List<byte[]>> future;
+
+        ChainedEmit(long order, Future<List<byte[]>> future) {
+            this.order = order;
+            this.future = future;
+        }
+
+        /**
+         * Waits for this emit to finish. The pool runs tasks in submission order, so this emit has already started and
+         * waiting for it cannot hold up the pool.
+         * 
+         * @param nextOrder
+         *        position of the buffer emitted next
+         * @return false if this emit is of an earlier buffer and its records were neither emitted nor failed
+         */
+        boolean awaitBefore(long nextOrder) {
+            boolean finished;
+            try {
+                finished = future.get().isEmpty();
+            } catch (ExecutionException e) {
+                // The record processor fails the records of an emit that threw an IOException and moves on
+                finished = e.getCause() instanceof IOException;
+            } catch (CancellationException e) {
+                finished = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            // A later buffer, or an earlier attempt of the same one, does not need to have finished
+            return finished || order >= nextOrder;
+        }
     }
 
     @Override
     public void shutdown() {
         super.shutdown();
-        kinesisClient.shutdown();
+        manifestPublisher.close();
+        emitterExecutor.close();
     }
 
 }
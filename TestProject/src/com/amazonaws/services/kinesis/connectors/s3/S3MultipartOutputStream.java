@@ -0,0 +1,287 @@
+/*
+ * Copyright 2013-2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.services.kinesis.connectors.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An OutputStream that uploads what is written to it as an Amazon S3 object. Data is collected into parts of a fixed
+ * size; each full part is uploaded with S3 multipart upload on the given executor while writing continues, with at most
+ * maxInFlightParts parts uploading at once. Writes block while that many parts are in flight, so the memory held is
+ * bounded by maxInFlightParts + 1 parts. If less than one part is written, close() uploads the object with a single
+ * putObject call instead. Every request carries an explicit content length.
+ * <p>
+ * close() completes the upload and throws an IOException if any part failed. If writing fails, abort() must be called
+ * to discard the uploaded parts; close() does so itself when it fails. This class is not thread-safe.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+    private static final Log LOG = LogFactory.getLog(S3MultipartOutputStream.class);
+
+    /**
+     * Smallest part size accepted by Amazon S3, except for the last part.
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final ExecutorService executor;
+    private final Semaphore inFlightParts;
+    private final int maxInFlightParts;
+
+    private final List<Future<PartETag>> uploadedParts = new ArrayList<Future<PartETag>>();
+    // Part arrays whose upload has finished, ready to be filled again
+    private final Deque<byte[]> freeParts = new ArrayDeque<byte[]>();
+    private byte[] part;
+    private int partLength;
+    private long size;
+    private String uploadId;
+    private boolean closed;
+
+    /**
+     * @param s3client
+     *        client used for the uploads
+     * @param bucket
+     *        bucket of the object
+     * @param key
+     *        key of the object
+     * @param partSize
+     *        size of each part but the last, at least MIN_PART_SIZE
+     * @param executor
+     *        executor running the part uploads
+     * @param maxInFlightParts
+     *        maximum number of parts uploading at once
+     */
+    public S3MultipartOutputStream(AmazonS3 s3client,
+            String bucket,
+            String key,
+            int partSize,
+            ExecutorService executor,
+            int maxInFlightParts) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        this.s3client = s3client;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.maxInFlightParts = Math.max(1, maxInFlightParts);
+        this.inFlightParts = new Semaphore(this.maxInFlightParts);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensurePart();
+        part[partLength++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensurePart();
+            int n = Math.min(len, partSize - partLength);
+            System.arraycopy(b, off, part, partLength, n);
+            partLength += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, advancing its position.
+     * 
+     * @param src
+     *        bytes to write
+     * @throws IOException
+     *         if an earlier part failed to upload
+     */
+    public void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            ensurePart();
+            int n = Math.min(src.remaining(), partSize - partLength);
+            src.get(part, partLength, n);
+            partLength += n;
+            size += n;
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long size() {
+        return size;
+    }
+
+    private void ensurePart() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (part != null && partLength == partSize) {
+            uploadPart();
+        }
+        if (part == null) {
+            synchronized (freeParts) {
+                part = freeParts.poll();
+            }
+            if (part == null) {
+                part = new byte[partSize];
+            }
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = s3client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+        }
+        checkFailedParts();
+        try {
+            inFlightParts.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload part of " + key);
+        }
+        final byte[] data = part;
+        final int length = partLength;
+        final UploadPartRequest request = new UploadPartRequest().withBucketName(bucket)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(uploadedParts.size() + 1)
+                .withPartSize(length)
+                .withInputStream(new ByteArrayInputStream(data, 0, length));
+        part = null;
+        partLength = 0;
+        uploadedParts.add(executor.submit(new Callable<PartETag>() {
+            @Override
+            public PartETag call() {
+                try {
+                    return s3client.uploadPart(request).getPartETag();
+                } finally {
+                    synchronized (freeParts) {
+                        freeParts.add(data);
+                    }
+                    inFlightParts.release();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Fails fast if a part upload that has already finished failed.
+     */
+    private void checkFailedParts() throws IOException {
+        for (Future<PartETag> uploadedPart : uploadedParts) {
+            if (uploadedPart.isDone()) {
+                getPartETag(uploadedPart);
+            }
+        }
+    }
+
+    private PartETag getPartETag(Future<PartETag> uploadedPart) throws IOException {
+        try {
+            return uploadedPart.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for part upload of " + key);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to upload part of " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Uploads the remaining data and completes the upload.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (uploadId == null) {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(partLength);
+                byte[] data = part == null ? new byte[0] : part;
+                s3client.putObject(bucket, key, new ByteArrayInputStream(data, 0, partLength), metadata);
+            } else {
+                if (partLength > 0) {
+                    uploadPart();
+                }
+                List<PartETag> partETags = new ArrayList<PartETag>(uploadedParts.size());
+                for (Future<PartETag> uploadedPart : uploadedParts) {
+                    partETags.add(getPartETag(uploadedPart));
+                }
+                s3client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+            }
+            closed = true;
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        } finally {
+            part = null;
+            synchronized (freeParts) {
+                freeParts.clear();
+            }
+        }
+    }
+
+    /**
+     * Discards everything uploaded so far. Safe to call more than once.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        part = null;
+        if (uploadId == null) {
+            return;
+        }
+        for (Future<PartETag> uploadedPart : uploadedParts) {
+            uploadedPart.cancel(true);
+        }
+        try {
+            s3client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (RuntimeException e) {
+            LOG.error("Failed to abort multipart upload " + uploadId + " of s3://" + bucket + "/" + key, e);
+        }
+    }
+}
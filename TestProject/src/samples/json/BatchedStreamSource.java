@@ -15,31 +15,39 @@
 package samples.json;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
-import com.amazonaws.services.kinesis.model.PutRecordRequest;
+import com.amazonaws.services.kinesis.connectors.impl.LengthPrefixedBatchWriter;
+import com.amazonaws.services.kinesis.connectors.impl.LengthPrefixedCollectionTransformer;
 
 /**
  * This class is a data source for supplying input to the Amazon Kinesis stream. It reads lines from the
- * input file specified in the constructor and batches up records before emitting them.
+ * input file specified in the constructor and batches up records before emitting them. Batches are kept under
+ * batchRecordsMaxBytes bytes and written in the batchRecordsFormat:
+ * <ul>
+ * <li>lengthPrefixed: the JSON representations of the records in the format of the {@link LengthPrefixedBatchWriter},
+ * read by a {@link LengthPrefixedCollectionTransformer}</li>
+ * <li>javaSerialization: the Java serialization of a list of the records, written by a {@link SerializedBatchWriter}
+ * </li>
+ * </ul>
  */
 public class BatchedStreamSource extends StreamSource {
     private static Log LOG = LogFactory.getLog(BatchedStreamSource.class);
 
-    private static int NUM_BYTES_PER_PUT_REQUEST = 50000;
-    List<KinesisMessageModel> buffer;
+    static final String FORMAT_LENGTH_PREFIXED = "lengthPrefixed";
+    static final String FORMAT_JAVA_SERIALIZATION = "javaSerialization";
+
+    // Exactly one of the writers is set, depending on the batch format
+    private final LengthPrefixedBatchWriter lengthPrefixedWriter;
+    private final SerializedBatchWriter serializedWriter;
 
     public BatchedStreamSource(KinesisConnectorConfiguration config, String inputFile) {
         this(config, inputFile, false);
@@ -47,7 +55,15 @@ public class BatchedStreamSource extends StreamSource {
 
     public BatchedStreamSource(KinesisConnectorConfiguration config, String inputFile, boolean loopOverStreamSource) {
         super(config, inputFile, loopOverStreamSource);
-        buffer = new ArrayList<KinesisMessageModel>();
+        if (FORMAT_LENGTH_PREFIXED.equals(config.BATCH_RECORDS_FORMAT)) {
+            lengthPrefixedWriter = new LengthPrefixedBatchWriter(config.BATCH_RECORDS_MAX_BYTES);
+            serializedWriter = null;
+        } else if (FORMAT_JAVA_SERIALIZATION.equals(config.BATCH_RECORDS_FORMAT)) {
+            lengthPrefixedWriter = null;
+            serializedWriter = new SerializedBatchWriter(config.BATCH_RECORDS_MAX_BYTES);
+        } else {
+            throw new IllegalArgumentException("Unknown batch records format: " + config.BATCH_RECORDS_FORMAT);
+        }
     }
 
     @Override
@@ -58,46 +74,32 @@ public class BatchedStreamSource extends StreamSource {
 
             while ((line = br.readLine()) != null) {
                 KinesisMessageModel kinesisMessageModel = objectMapper.readValue(line, KinesisMessageModel.class);
-                buffer.add(kinesisMessageModel);
-                if (numBytesInBuffer() > NUM_BYTES_PER_PUT_REQUEST) {
-                    /*
-                     * We need to remove the last record to ensure this data blob is accepted by the Amazon Kinesis
-                     * client which restricts the data blob to be less than 50 KB.
-                     */
-                    KinesisMessageModel lastRecord = buffer.remove(buffer.size() - 1);
-                    flushBuffer();
-                    /*
-                     * We add it back so it will be part of the next batch.
-                     */
-                    buffer.add(lastRecord);
+                /*
+                 * The writer seals the batch before it exceeds batchRecordsMaxBytes, keeping the data blob within
+                 * the size accepted by Amazon Kinesis.
+                 */
+                ByteBuffer batch;
+                if (lengthPrefixedWriter != null) {
+                    batch = lengthPrefixedWriter.add(objectMapper.writeValueAsBytes(kinesisMessageModel));
+                } else {
+                    batch = serializedWriter.add(kinesisMessageModel);
+                }
+                if (batch != null) {
+                    putBatch(batch);
                 }
                 lines++;
             }
-            if (!buffer.isEmpty()) {
-                flushBuffer();
+            ByteBuffer batch = lengthPrefixedWriter != null ? lengthPrefixedWriter.seal() : serializedWriter.seal();
+            if (batch != null) {
+                putBatch(batch);
             }
+            producer.flush();
 
             LOG.info("Added " + lines + " records to stream source.");
         }
     }
 
-    private byte[] bufferToBytes() throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        oos.writeObject(buffer);
-        return bos.toByteArray();
-    }
-
-    private int numBytesInBuffer() throws IOException {
-        return bufferToBytes().length;
-    }
-
-    private void flushBuffer() throws IOException {
-        PutRecordRequest putRecordRequest = new PutRecordRequest();
-        putRecordRequest.setStreamName(config.KINESIS_INPUT_STREAM);
-        putRecordRequest.setData(ByteBuffer.wrap(bufferToBytes()));
-        putRecordRequest.setPartitionKey(String.valueOf(UUID.randomUUID()));
-        kinesisClient.putRecord(putRecordRequest);
-        buffer.clear();
+    private void putBatch(ByteBuffer batch) throws IOException {
+        producer.put(batch, String.valueOf(UUID.randomUUID()));
     }
 }
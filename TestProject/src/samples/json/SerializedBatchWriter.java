@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ * http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package samples.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Frames records into batches holding the Java serialization of an ArrayList of the records, as read by
+ * ObjectInputStream.readObject(). Each record is serialized once, into the batch being built, so the size of the
+ * batch is known after every record without serializing the list again. A batch is sealed when the next record
+ * would take it over the size limit; that record is then serialized again as the first record of the next batch.
+ * <p>
+ * The batch is written by a single ObjectOutputStream that first writes an empty ArrayList, so that its class
+ * descriptor and the list take the same handles as in a serialized list. Each record is then written as
+ * ArrayList.writeObject() would write it, and sealing the batch patches the list size and appends the end of the
+ * list's block data.
+ */
+public class SerializedBatchWriter {
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    // Positions of the size field and of the size written in block data, from the end of a serialized empty list
+    private static final int SIZE_FIELD_FROM_END = 11;
+    private static final int BLOCK_DATA_SIZE_FROM_END = 5;
+    // An Amazon Kinesis record holds at most 1 MB; larger batches grow as needed
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private final int maxBatchBytes;
+    private BatchOutputStream out;
+    private ObjectOutputStream objectOut;
+    private int sizeFieldOffset;
+    private int blockDataSizeOffset;
+    private int count;
+
+    /**
+     * @param maxBatchBytes
+     *        size limit of a batch; a single record larger than this is sent in a batch of its own
+     */
+    public SerializedBatchWriter(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Adds a record to the current batch.
+     * 
+     * @param record
+     *        the record
+     * @return the previous batch, sealed because the record did not fit in it, or null
+     * @throws IOException
+     *         if the record could not be serialized
+     */
+    public ByteBuffer add(Serializable record) throws IOException {
+        if (objectOut == null) {
+            startBatch();
+        }
+        int mark = out.size();
+        objectOut.writeObject(record);
+        objectOut.flush();
+        if (count > 0 && out.size() + 1 > maxBatchBytes) {
+            out.truncate(mark);
+            ByteBuffer batch = sealBatch();
+            startBatch();
+            objectOut.writeObject(record);
+            objectOut.flush();
+            count = 1;
+            return batch;
+        }
+        count++;
+        return null;
+    }
+
+    /**
+     * Seals the current batch.
+     * 
+     * @return the batch, or null if no records were added since the last batch was sealed
+     */
+    public ByteBuffer seal() {
+        if (count == 0) {
+            return null;
+        }
+        return sealBatch();
+    }
+
+    private void startBatch() throws IOException {
+        out = new BatchOutputStream(Math.min(maxBatchBytes, MAX_INITIAL_CAPACITY) + 1024);
+        objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(new ArrayList<Object>(0));
+        objectOut.flush();
+        int end = out.size();
+        sizeFieldOffset = end - SIZE_FIELD_FROM_END;
+        blockDataSizeOffset = end - BLOCK_DATA_SIZE_FROM_END;
+        // Records are written before the end of the list's block data
+        out.truncate(end - 1);
+    }
+
+    private ByteBuffer sealBatch() {
+        out.write(TC_ENDBLOCKDATA);
+        out.putInt(sizeFieldOffset, count);
+        out.putInt(blockDataSizeOffset, count);
+        ByteBuffer batch = out.toByteBuffer();
+        out = null;
+        objectOut = null;
+        count = 0;
+        return batch;
+    }
+
+    /**
+     * A ByteArrayOutputStream that can be truncated and patched, and hands over its buffer without copying it.
+     */
+    private static class BatchOutputStream extends ByteArrayOutputStream {
+        BatchOutputStream(int size) {
+            super(size);
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        void putInt(int offset, int value) {
+            buf[offset] = (byte) (value >>> 24);
+            buf[offset + 1] = (byte) (value >>> 16);
+            buf[offset + 2] = (byte) (value >>> 8);
+            buf[offset + 3] = (byte) value;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
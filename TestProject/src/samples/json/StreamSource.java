@@ -32,17 +32,19 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.kinesis.AmazonKinesisClient;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
-import com.amazonaws.services.kinesis.model.PutRecordRequest;
+import com.amazonaws.services.kinesis.connectors.kinesis.KinesisBatchProducer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This class is a data source for supplying input to the Amazon Kinesis stream. It reads lines from the
  * input file specified in the constructor and emits them by calling String.getBytes() into the
- * stream defined in the KinesisConnectorConfiguration.
+ * stream defined in the KinesisConnectorConfiguration. Records are sent in PutRecords batches by a
+ * {@link KinesisBatchProducer}.
  */
 public class StreamSource implements Runnable {
     private static Log LOG = LogFactory.getLog(StreamSource.class);
     protected AmazonKinesisClient kinesisClient;
+    protected KinesisBatchProducer producer;
     protected KinesisConnectorConfiguration config;
     protected final String inputFile;
     protected final boolean loopOverInputFile;
@@ -81,32 +83,43 @@ public class StreamSource implements Runnable {
         if (config.KINESIS_ENDPOINT != null) {
             kinesisClient.setEndpoint(config.KINESIS_ENDPOINT);
         }
+        producer = new KinesisBatchProducer(kinesisClient, config.KINESIS_INPUT_STREAM, config);
         KinesisUtils.createInputStream(config);
     }
 
     @Override
     public void run() {
         int iteration = 0;
-        do {
-            InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(inputFile);
-            if (inputStream == null) {
-                throw new IllegalStateException("Could not find input file: " + inputFile);
-            }
-            if (loopOverInputFile) {
-                LOG.info("Starting iteration " + iteration + " over input file.");
-            }
+        try {
+            do {
+                InputStream inputStream =
+                        Thread.currentThread().getContextClassLoader().getResourceAsStream(inputFile);
+                if (inputStream == null) {
+                    throw new IllegalStateException("Could not find input file: " + inputFile);
+                }
+                if (loopOverInputFile) {
+                    LOG.info("Starting iteration " + iteration + " over input file.");
+                }
+                try {
+                    processInputStream(inputStream, iteration);
+                } catch (IOException e) {
+                    LOG.error("Encountered exception while putting data in source stream.", e);
+                    break;
+                }
+                iteration++;
+            } while (loopOverInputFile);
+        } finally {
+            // Sends the records still batched and stops the producer's linger timer
             try {
-                processInputStream(inputStream, iteration);
+                producer.close();
             } catch (IOException e) {
-                LOG.error("Encountered exception while putting data in source stream.", e);
-                break;
+                LOG.error("Encountered exception while closing the source stream producer.", e);
             }
-            iteration++;
-        } while (loopOverInputFile);
+        }
     }
 
     /**
-     * Process the input file and send PutRecordRequests to Amazon Kinesis.
+     * Process the input file and send its records to Amazon Kinesis through the producer.
      * 
      * This function serves to Isolate StreamSource logic so subclasses
      * can process input files differently.
@@ -140,17 +153,15 @@ public class StreamSource implements Runnable {
             	userData.put("price", rn.nextInt(100)+1);
             	userData.put("zipcode", rn.nextInt((99100 - 91800) + 1) + 91800);
             	userData.put("timestamp", timestamp.toString());
-            	System.out.println(objectMapper.writeValueAsString(userData));
+            	String json = objectMapper.writeValueAsString(userData);
+            	System.out.println(json);
             	
             	
-                PutRecordRequest putRecordRequest = new PutRecordRequest();
-                putRecordRequest.setStreamName(config.KINESIS_INPUT_STREAM);
-                putRecordRequest.setData(ByteBuffer.wrap(objectMapper.writeValueAsString(userData).getBytes()));
-                putRecordRequest.setPartitionKey(Integer.toString(productId));
-                kinesisClient.putRecord(putRecordRequest);
+                producer.put(ByteBuffer.wrap(json.getBytes()), Integer.toString(productId));
                 counter++;
             	
             }
+            producer.flush();
             LOG.info("Added " + lines + " records to stream source.");
         }
     }
@@ -18,13 +18,15 @@ import samples.json.KinesisMessageModel;
 
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
-import com.amazonaws.services.kinesis.connectors.impl.BasicMemoryBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.ByteArenaBuffer;
 import com.amazonaws.services.kinesis.connectors.impl.JsonToByteArrayTransformer;
+import com.amazonaws.services.kinesis.connectors.impl.LengthPrefixedCollectionTransformer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
 import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
 import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
 import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformerBase;
 import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
 
 /**
@@ -32,8 +34,9 @@ import com.amazonaws.services.kinesis.connectors.s3.S3Emitter;
  * format. Uses:
  * <ul>
  * <li>S3Emitter</li>
- * <li>BasicMemoryBuffer</li>
- * <li>BasicJsonTransformer</li>
+ * <li>ByteArenaBuffer</li>
+ * <li>BasicJsonTransformer, wrapped in a LengthPrefixedCollectionTransformer when the records are put by a
+ * BatchedStreamSource in the lengthPrefixed format</li>
  * <li>AllPassFilter</li>
  * </ul>
  */
@@ -46,12 +49,21 @@ public class jsonPipeline implements IKinesisConnectorPipeline<KinesisMessageMod
 
     @Override
     public IBuffer<KinesisMessageModel> getBuffer(KinesisConnectorConfiguration configuration) {
-        return new BasicMemoryBuffer<KinesisMessageModel>(configuration);
+        // Records pass through to Amazon S3 as they were put into the stream, without being parsed
+        return new ByteArenaBuffer<KinesisMessageModel>(configuration,
+                new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class));
     }
 
     @Override
-    public ITransformer<KinesisMessageModel, byte[]> getTransformer(KinesisConnectorConfiguration configuration) {
-        return new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class);
+    public ITransformerBase<KinesisMessageModel, byte[]> getTransformer(KinesisConnectorConfiguration configuration) {
+        ITransformer<KinesisMessageModel, byte[]> transformer =
+                new JsonToByteArrayTransformer<KinesisMessageModel>(KinesisMessageModel.class);
+        if (configuration.BATCH_RECORDS_IN_PUT_REQUEST
+                && BatchedStreamSource.FORMAT_LENGTH_PREFIXED.equals(configuration.BATCH_RECORDS_FORMAT)) {
+            // Records put by the BatchedStreamSource hold many KinesisMessageModels each
+            return new LengthPrefixedCollectionTransformer<KinesisMessageModel, byte[]>(transformer);
+        }
+        return transformer;
     }
 
     @Override